@@ -0,0 +1,268 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * class BoundedCache
+ *
+ * A thread safe cache with a limit on its total weight, that evicts the least recently used entries once it goes over.
+ *
+ * Entries are spread across a number of segments by the hash of their key, and each segment is its own access ordered {@link java.util.LinkedHashMap} with its own lock and its own share of the weight limit.
+ * So threads only wait on each other when they touch the same segment.
+ * Hits, misses and evictions are counted, so callers can see how well the cache is doing.
+ *
+ * @param <K> The type of the keys.
+ * @param <V> The type of the cached values.
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public class BoundedCache<K, V>
+{
+  /**
+   * The number of segments used when none is given. Must be a power of two.
+   *
+   * @since 1.2
+   */
+  public static final int DEFAULT_SEGMENTS = 16;
+
+  /**
+   * The segments. Each is locked on its own.
+   *
+   * @since 1.2
+   */
+  private final Segment<K, V>[] segments;
+  /**
+   * Finds the weight of an entry. Weights should never be negative, and should not change while the entry is in the cache.
+   *
+   * @since 1.2
+   */
+  private final ToLongBiFunction<? super K, ? super V> weigher;
+  /**
+   * The most weight the whole cache may hold.
+   *
+   * @since 1.2
+   */
+  private final long maxWeight;
+  /**
+   * Statistics on how the cache has been used.
+   *
+   * @since 1.2
+   */
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.BoundedCache}, with {@link com.hypereclipse.selkie.cas.BoundedCache#DEFAULT_SEGMENTS} segments.
+   *
+   * @param maxWeight The most weight the whole cache may hold.
+   * @param weigher Finds the weight of an entry.
+   * @since 1.2
+   */
+  public BoundedCache(long maxWeight, ToLongBiFunction<? super K, ? super V> weigher)
+  {
+    this(maxWeight, DEFAULT_SEGMENTS, weigher);
+  }
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.BoundedCache}.
+   *
+   * @param maxWeight The most weight the whole cache may hold. Each segment gets an equal share.
+   * @param segments The number of segments. Must be a power of two.
+   * @param weigher Finds the weight of an entry.
+   * @since 1.2
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public BoundedCache(long maxWeight, int segments, ToLongBiFunction<? super K, ? super V> weigher)
+  {
+    if (segments <= 0 || Integer.bitCount(segments) != 1)
+      throw new IllegalArgumentException("The number of segments must be a power of two!");
+    if (maxWeight < 0)
+      throw new IllegalArgumentException("The maximum weight can not be negative!");
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.segments = new Segment[segments];
+    for (int i = 0; i < segments; i++)
+      this.segments[i] = new Segment<>(maxWeight / segments);
+  }
+
+
+
+  /**
+   * Looks up a key, marking it as recently used if it is there.
+   *
+   * @param key The key to look up.
+   * @return The cached value, or <code>null</code> if there isn't one.
+   * @since 1.2
+   */
+  public V get(K key)
+  {
+    Segment<K, V> segment = segmentFor(key);
+    V ret;
+    synchronized (segment)
+    {
+      ret = segment.map.get(key);
+    }
+    if (ret == null)
+      misses.increment();
+    else
+      hits.increment();
+    return ret;
+  }
+
+  /**
+   * Adds an entry to the cache, evicting the least recently used entries of its segment until the segment is back under its share of the weight limit.
+   * Entries that are heavier than a whole segment's share are never cached.
+   *
+   * @param key The key.
+   * @param value The value to cache for it.
+   * @since 1.2
+   */
+  public void put(K key, V value)
+  {
+    Segment<K, V> segment = segmentFor(key);
+    long weight = weigher.applyAsLong(key, value);
+    if (weight > segment.maxWeight)
+      return;
+
+    synchronized (segment)
+    {
+      V old = segment.map.put(key, value);
+      if (old != null)
+        segment.weight -= weigher.applyAsLong(key, old);
+      segment.weight += weight;
+
+      // The iterator of an access ordered LinkedHashMap starts with the least recently used entry.
+      Iterator<Map.Entry<K, V>> eldest = segment.map.entrySet().iterator();
+      while (segment.weight > segment.maxWeight && eldest.hasNext())
+      {
+        Map.Entry<K, V> entry = eldest.next();
+        segment.weight -= weigher.applyAsLong(entry.getKey(), entry.getValue());
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Removes every entry. Does not reset the statistics.
+   *
+   * @since 1.2
+   */
+  public void clear()
+  {
+    for (Segment<K, V> segment : segments)
+      synchronized (segment)
+      {
+        segment.map.clear();
+        segment.weight = 0;
+      }
+  }
+
+  /**
+   * @return The number of entries in the cache.
+   * @since 1.2
+   */
+  public int size()
+  {
+    int ret = 0;
+    for (Segment<K, V> segment : segments)
+      synchronized (segment)
+      {
+        ret += segment.map.size();
+      }
+    return ret;
+  }
+
+  /**
+   * @return The total weight of the entries in the cache.
+   * @since 1.2
+   */
+  public long weight()
+  {
+    long ret = 0;
+    for (Segment<K, V> segment : segments)
+      synchronized (segment)
+      {
+        ret += segment.weight;
+      }
+    return ret;
+  }
+
+  /**
+   * @return The most weight the cache may hold.
+   * @since 1.2
+   */
+  public long maxWeight()
+  {
+    return maxWeight;
+  }
+
+  /**
+   * @return The number of lookups that found a value.
+   * @since 1.2
+   */
+  public long hitCount()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * @return The number of lookups that did not find a value.
+   * @since 1.2
+   */
+  public long missCount()
+  {
+    return misses.sum();
+  }
+
+  /**
+   * @return The number of entries removed to make room for others.
+   * @since 1.2
+   */
+  public long evictionCount()
+  {
+    return evictions.sum();
+  }
+
+  public String toString()
+  {
+    return "BoundedCache[size=" + size() + ", weight=" + weight() + "/" + maxWeight + ", hits=" + hitCount() + ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+  }
+
+  /**
+   * @return The segment a key belongs in.
+   * @since 1.2
+   */
+  private Segment<K, V> segmentFor(Object key)
+  {
+    int hash = key.hashCode();
+    // Mix the high bits in, since only the low bits pick the segment.
+    hash ^= hash >>> 16;
+    return segments[hash & (segments.length - 1)];
+  }
+
+  /**
+   * One lock's worth of the cache.
+   *
+   * @since 1.2
+   */
+  private static final class Segment<K, V>
+  {
+    final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    final long maxWeight;
+    long weight = 0;
+
+    Segment(long maxWeight)
+    {
+      this.maxWeight = maxWeight;
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class Combinatorics
+ *
+ * Factorials and binomial coefficients, as the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own.
+ *
+ * Factorials use Luschny's prime-swing algorithm. The swing of n, <code>n! / (floor(n/2)!)^2</code>, is a product of prime powers that can be read straight off of n,
+ * so <code>n! = (floor(n/2)!)^2 * swing(n)</code> takes one squaring and one product of primes per halving of n. The factors of two are left out the whole way through,
+ * and shifted back in at the end. Binomial coefficients are built from their prime factorization the same way, with the exponents from Kummer's theorem.
+ *
+ * All of the products of many small numbers are found by binary splitting: the halves of the list are multiplied on their own and then together,
+ * so most of the work is in a few balanced multiplications, which is where the fast algorithms in {@link com.hypereclipse.selkie.cas.Multiplication} pay off.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class Combinatorics
+{
+  /**
+   * The number of limbs a product of small numbers can grow to before it is split in half instead of being multiplied out one limb at a time.
+   *
+   * @since 1.2
+   */
+  private static final int SPLIT_LIMBS = 16;
+  /**
+   * The magnitude of one.
+   */
+  private static final int[] ONE = new int[]{1};
+
+  private Combinatorics() {}
+
+
+
+  /**
+   * Finds the factorial of n, <code>1 * 2 * ... * n</code>.
+   *
+   * @param n Must not be negative.
+   * @return A new, trimmed magnitude holding <code>n!</code>.
+   * @since 1.2
+   */
+  static int[] factorial(int n)
+  {
+    int[] primes = Prime.primes(3, n + 1);
+    // n! has n minus (the number of set bits in n) factors of two. (Legendre)
+    return shiftLeft(oddFactorial(n, primes), n - Integer.bitCount(n));
+  }
+
+  /**
+   * Finds the double factorial of n, the product of every number from n down to one or two that has the same parity as n.
+   *
+   * @param n Must not be negative.
+   * @return A new, trimmed magnitude holding <code>n!!</code>.
+   * @since 1.2
+   */
+  static int[] doubleFactorial(int n)
+  {
+    int m = n / 2;
+    // (2m)!! = 2^m * m!
+    if ((n & 1) == 0)
+      return shiftLeft(oddFactorial(m, Prime.primes(3, m + 1)), 2 * m - Integer.bitCount(m));
+    // (2m+1)!! = (2m+1)! / (2^m * m!) is odd, and is the odd part of m! times the odd part of swing(2m+1).
+    int[] primes = Prime.primes(3, n + 1);
+    return Multiplication.multiply(oddFactorial(m, primes), oddSwing(n, primes));
+  }
+
+  /**
+   * Finds the binomial coefficient n choose k, <code>n! / (k! * (n-k)!)</code>.
+   *
+   * @param n Must not be negative.
+   * @param k Must be from 0 up to n.
+   * @return A new, trimmed magnitude holding the binomial coefficient.
+   * @since 1.2
+   */
+  static int[] binomial(int n, int k)
+  {
+    k = Math.min(k, n - k);
+    if (k == 0)
+      return ONE;
+
+    // With only a few terms, sieving every prime up to n would be most of the work, so divide the falling product by k! instead.
+    if (k < n / 16)
+    {
+      int[] terms = new int[k];
+      for (int i = 0; i < k; i++)
+        terms[i] = n - i;
+      return trim(Division.divideAndRemainder(product(terms, k), factorial(k))[0]);
+    }
+
+    // By Kummer's theorem, the power of p in the binomial coefficient is the number of borrows when subtracting k from n in base p.
+    // That is never more than the number of digits n has in base p, so each prime power is at most n.
+    int[] primes = Prime.primes(2, n + 1);
+    int[] factors = new int[primes.length];
+    int count = 0;
+    int root = (int) Math.sqrt(n);
+    for (int p : primes)
+    {
+      // Above the square root there are only two digits, and a borrow out of the low one is all that can happen.
+      if (p > root)
+      {
+        if (n % p < k % p)
+          factors[count++] = p;
+        continue;
+      }
+      long power = 1;
+      int borrow = 0;
+      for (int a = n, b = k; a > 0; a /= p, b /= p)
+      {
+        borrow = a % p < b % p + borrow ? 1 : 0;
+        if (borrow != 0)
+          power *= p;
+      }
+      if (power > 1)
+        factors[count++] = (int) power;
+    }
+    return product(factors, count);
+  }
+
+
+
+  /**
+   * Finds the odd part of n!, what's left after every factor of two is divided out, as <code>oddFactorial(n/2)^2 * oddSwing(n)</code>.
+   *
+   * @param primes The odd primes up to at least n, in increasing order.
+   * @since 1.2
+   */
+  private static int[] oddFactorial(int n, int[] primes)
+  {
+    // Up to 20! fits in a long.
+    if (n <= 20)
+    {
+      long ret = 1;
+      for (int i = 2; i <= n; i++)
+        ret *= i;
+      ret >>>= Long.numberOfTrailingZeros(ret);
+      return trim(new int[]{(int) ret, (int) (ret >>> 32)});
+    }
+    return Multiplication.multiply(Multiplication.square(oddFactorial(n / 2, primes)), oddSwing(n, primes));
+  }
+
+  /**
+   * Finds the odd part of the swing of n, <code>n! / (floor(n/2)!)^2</code>.
+   *
+   * Each odd prime p appears in the swing once for every <code>i</code> where <code>floor(n / p^i)</code> is odd.
+   * Above the square root of n only <code>i = 1</code> is left, and below it the prime power is never more than n.
+   *
+   * @param primes The odd primes up to at least n, in increasing order.
+   * @since 1.2
+   */
+  private static int[] oddSwing(int n, int[] primes)
+  {
+    int end = Arrays.binarySearch(primes, n);
+    end = end < 0 ? -end - 1 : end + 1;
+    int[] factors = new int[end];
+    int count = 0;
+    int root = (int) Math.sqrt(n);
+    for (int i = 0; i < end; i++)
+    {
+      int p = primes[i];
+      if (p > root)
+      {
+        if ((n / p & 1) != 0)
+          factors[count++] = p;
+        continue;
+      }
+      long power = 1;
+      for (int q = n / p; q > 0; q /= p)
+        if ((q & 1) != 0)
+          power *= p;
+      if (power > 1)
+        factors[count++] = (int) power;
+    }
+    return product(factors, count);
+  }
+
+  /**
+   * Multiplies a list of positive numbers, each less than 2^31.
+   * The numbers are first packed into as few limbs as possible, and then those are multiplied by binary splitting.
+   *
+   * @param factors The numbers to multiply. Overwritten with the packed limbs.
+   * @param count How many numbers there are.
+   * @return A new, trimmed magnitude holding the product, or one if there are none.
+   * @since 1.2
+   */
+  private static int[] product(int[] factors, int count)
+  {
+    if (count == 0)
+      return ONE;
+    int limbs = 0;
+    long word = 1;
+    for (int i = 0; i < count; i++)
+    {
+      long next = word * factors[i];
+      if (next > LONG_MASK)
+      {
+        factors[limbs++] = (int) word;
+        next = factors[i];
+      }
+      word = next;
+    }
+    if (word > 1 || limbs == 0)
+      factors[limbs++] = (int) word;
+    return product(factors, 0, limbs);
+  }
+
+  /**
+   * @return A new, trimmed magnitude holding the product of the unsigned limbs <code>limbs[from]</code> up to (not including) <code>limbs[to]</code>.
+   * @since 1.2
+   */
+  private static int[] product(int[] limbs, int from, int to)
+  {
+    // Short runs are multiplied into a running product one limb at a time, which is as fast as anything until the product gets long.
+    if (to - from <= SPLIT_LIMBS)
+    {
+      int[] ret = new int[to - from];
+      ret[0] = limbs[from];
+      int len = 1;
+      for (int i = from + 1; i < to; i++)
+      {
+        long factor = limbs[i] & LONG_MASK;
+        long carry = 0;
+        for (int j = 0; j < len; j++)
+        {
+          long product = (ret[j] & LONG_MASK) * factor + carry;
+          ret[j] = (int) product;
+          carry = product >>> 32;
+        }
+        if (carry != 0)
+          ret[len++] = (int) carry;
+      }
+      return trim(ret);
+    }
+    int mid = (from + to) >>> 1;
+    return Multiplication.multiply(product(limbs, from, mid), product(limbs, mid, to));
+  }
+}
@@ -0,0 +1,366 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * class CompiledExpression
+ *
+ * An {@link com.hypereclipse.selkie.cas.Expression} with named variables, compiled once so it can be evaluated for many values of them.
+ * Made by {@link com.hypereclipse.selkie.cas.Expression#compile(String...)}.
+ *
+ * The tree is flattened into a program for a small stack machine, in postfix order: each instruction pushes a constant or a variable,
+ * or applies an operator to the values on top of the stack. Evaluating it is one loop over the instructions, with a switch on each one,
+ * and the common operators call straight into {@link com.hypereclipse.selkie.cas.Value}'s methods. So nothing walks the tree, checks what kind of node it is,
+ * or recurses, however deep the tree was.
+ *
+ * The tree is optimized first (see {@link com.hypereclipse.selkie.cas.ExpressionNode#optimize()}), so the parts without variables are already values,
+ * and a subtree written more than once is one node. The first time the program works out such a node, it saves the value in a slot after the stack,
+ * and everywhere else it is used just loads it back.
+ *
+ * A {@link com.hypereclipse.selkie.cas.CompiledExpression} never changes, and can be evaluated from many threads at once.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public final class CompiledExpression
+{
+  /**
+   * The instructions that aren't operators. Operators are their {@link com.hypereclipse.selkie.cas.Operator} ordinal, offset past these.
+   */
+  private static final int CONSTANT = 0;
+  private static final int VARIABLE = 1;
+  /** Pushes the value saved in a slot. */
+  private static final int LOAD = 2;
+  /** Saves the value on top of the stack in a slot, leaving it there. */
+  private static final int STORE = 3;
+  /** Pushes the value on top of the stack again, for the same node on both sides of an operator, as in <code>x*x</code>. */
+  private static final int DUP = 4;
+  /** See {@link com.hypereclipse.selkie.cas.Operator#modPow(Value, Value, Value)}. */
+  private static final int MOD_POW = 5;
+  private static final int OPERATOR = 6;
+  private static final Operator[] OPERATORS = Operator.values();
+  private static final int ADD = OPERATOR + Operator.ADD.ordinal();
+  private static final int SUBTRACT = OPERATOR + Operator.SUBTRACT.ordinal();
+  private static final int MULTIPLY = OPERATOR + Operator.MULTIPLY.ordinal();
+  private static final int NEGATE = OPERATOR + Operator.NEGATE.ordinal();
+
+  /**
+   * The names of the variables, in the order their values are given.
+   */
+  private final String[] variables;
+  /**
+   * The program: one instruction per node of the tree, in postfix order.
+   */
+  private final int[] code;
+  /**
+   * What each instruction works on: which constant, variable or slot, and nothing for operators.
+   */
+  private final int[] arguments;
+  private final Value[] constants;
+  /**
+   * The most values the stack ever holds at once.
+   */
+  private final int maxStack;
+  /**
+   * How many values are saved to be used again.
+   */
+  private final int slots;
+
+
+
+  /**
+   * Compiles a tree.
+   *
+   * @param root The root of the tree.
+   * @param variables The names of the variables, in the order their values will be given.
+   * @throws IllegalArgumentException If the tree uses a variable that isn't named, or a name is given twice.
+   * @since 1.2
+   */
+  CompiledExpression(ExpressionNode root, String... variables)
+  {
+    this.variables = variables.clone();
+    for (int i = 0; i < variables.length; i++)
+      for (int j = 0; j < i; j++)
+        if (variables[i].equals(variables[j]))
+          throw new IllegalArgumentException("The variable " + variables[i] + " is named twice.");
+
+    // Count where each node is used. Nodes used in more than one place get a slot. Both sides of x*x are one use, since the value is just pushed again.
+    IdentityHashMap<ExpressionNode, Integer> uses = new IdentityHashMap<>();
+    ExpressionNode[] nodes = new ExpressionNode[16];
+    int nodeCount = 0;
+    nodes[nodeCount++] = root;
+    while (nodeCount > 0)
+    {
+      ExpressionNode node = nodes[--nodeCount];
+      if (uses.merge(node, 1, Integer::sum) > 1)
+        continue;
+      if (nodeCount + 3 > nodes.length)
+        nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+      if (node instanceof ExpressionNode.Binary)
+      {
+        if (((ExpressionNode.Binary) node).right != ((ExpressionNode.Binary) node).left)
+          nodes[nodeCount++] = ((ExpressionNode.Binary) node).right;
+        nodes[nodeCount++] = ((ExpressionNode.Binary) node).left;
+      }
+      else if (node instanceof ExpressionNode.ModPow)
+      {
+        nodes[nodeCount++] = ((ExpressionNode.ModPow) node).modulus;
+        nodes[nodeCount++] = ((ExpressionNode.ModPow) node).exponent;
+        nodes[nodeCount++] = ((ExpressionNode.ModPow) node).base;
+      }
+      else if (node instanceof ExpressionNode.Unary)
+        nodes[nodeCount++] = ((ExpressionNode.Unary) node).operand;
+    }
+    IdentityHashMap<ExpressionNode, Integer> slotOf = new IdentityHashMap<>();
+
+    int[] code = new int[16];
+    int[] arguments = new int[16];
+    Value[] constants = new Value[4];
+    int length = 0;
+    int constantCount = 0;
+    int depth = 0;
+    int maxStack = 0;
+
+    // Walk the DAG in post-order with a stack of our own, the same as ExpressionNode#evaluate(), except that a node with a slot is only walked the first time.
+    nodeCount = 0;
+    nodes[nodeCount++] = root;
+    while (nodeCount > 0)
+    {
+      ExpressionNode node = nodes[--nodeCount];
+      boolean ready = false;
+      if (node == null)
+      {
+        node = nodes[--nodeCount];
+        ready = true;
+      }
+      if (length + 3 > code.length)
+      {
+        code = Arrays.copyOf(code, 2 * code.length);
+        arguments = Arrays.copyOf(arguments, 2 * arguments.length);
+      }
+
+      // A node with a slot has been worked out already.
+      Integer slot = slotOf.get(node);
+      if (!ready && slot != null)
+      {
+        code[length] = LOAD;
+        arguments[length++] = slot;
+        maxStack = Math.max(maxStack, ++depth);
+        continue;
+      }
+
+      if (!ready && (node instanceof ExpressionNode.Unary || node instanceof ExpressionNode.Binary || node instanceof ExpressionNode.ModPow))
+      {
+        if (nodeCount + 5 > nodes.length)
+          nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+        nodes[nodeCount++] = node;
+        nodes[nodeCount++] = null;
+        if (node instanceof ExpressionNode.Binary)
+        {
+          if (((ExpressionNode.Binary) node).right != ((ExpressionNode.Binary) node).left)
+            nodes[nodeCount++] = ((ExpressionNode.Binary) node).right;
+          nodes[nodeCount++] = ((ExpressionNode.Binary) node).left;
+        }
+        else if (node instanceof ExpressionNode.ModPow)
+        {
+          nodes[nodeCount++] = ((ExpressionNode.ModPow) node).modulus;
+          nodes[nodeCount++] = ((ExpressionNode.ModPow) node).exponent;
+          nodes[nodeCount++] = ((ExpressionNode.ModPow) node).base;
+        }
+        else
+          nodes[nodeCount++] = ((ExpressionNode.Unary) node).operand;
+        continue;
+      }
+
+      if (node instanceof ExpressionNode.Constant)
+      {
+        if (constantCount == constants.length)
+          constants = Arrays.copyOf(constants, 2 * constantCount);
+        constants[constantCount] = ((ExpressionNode.Constant) node).value;
+        code[length] = CONSTANT;
+        arguments[length++] = constantCount++;
+        depth++;
+      }
+      else if (node instanceof ExpressionNode.Variable)
+      {
+        code[length] = VARIABLE;
+        arguments[length++] = slot(((ExpressionNode.Variable) node).name);
+        depth++;
+      }
+      else if (node instanceof ExpressionNode.Binary)
+      {
+        ExpressionNode.Binary binary = (ExpressionNode.Binary) node;
+        // Int#multiply(Value) squares a value multiplied by itself.
+        if (binary.left == binary.right)
+        {
+          code[length++] = DUP;
+          maxStack = Math.max(maxStack, depth + 1);
+        }
+        else
+          depth--;
+        code[length++] = OPERATOR + binary.operator.ordinal();
+      }
+      else if (node instanceof ExpressionNode.ModPow)
+      {
+        code[length++] = MOD_POW;
+        depth -= 2;
+      }
+      else
+        code[length++] = OPERATOR + ((ExpressionNode.Unary) node).operator.ordinal();
+      maxStack = Math.max(maxStack, depth);
+
+      // Save the value of a node that will be used again.
+      if (uses.get(node) > 1 && !(node instanceof ExpressionNode.Constant || node instanceof ExpressionNode.Variable))
+      {
+        slot = slotOf.size();
+        slotOf.put(node, slot);
+        code[length] = STORE;
+        arguments[length++] = slot;
+      }
+    }
+
+    this.code = Arrays.copyOf(code, length);
+    this.arguments = Arrays.copyOf(arguments, length);
+    this.constants = Arrays.copyOf(constants, constantCount);
+    this.maxStack = maxStack;
+    this.slots = slotOf.size();
+  }
+
+
+
+  /**
+   * Evaluates the expression for the given values of its variables.
+   *
+   * @param values The values of the variables, in the order they were named in.
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If the wrong number of values is given, or an operator is applied to something it doesn't apply to.
+   * @since 1.2
+   */
+  public Value evaluate(Value... values)
+  {
+    if (values.length != variables.length)
+      throw new IllegalArgumentException("Expected " + variables.length + " values, but was given " + values.length + ".");
+    return run(values, new Value[maxStack + slots]);
+  }
+
+  /**
+   * Evaluates the expression for the given values of its variables, by name.
+   *
+   * @param values The value of each variable.
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If a variable has no value, or an operator is applied to something it doesn't apply to.
+   * @since 1.2
+   */
+  public Value evaluate(Map<String, ? extends Value> values)
+  {
+    Value[] ordered = new Value[variables.length];
+    for (int i = 0; i < variables.length; i++)
+      if ((ordered[i] = values.get(variables[i])) == null)
+        throw new IllegalArgumentException("The variable " + variables[i] + " has no value.");
+    return run(ordered, new Value[maxStack + slots]);
+  }
+
+  /**
+   * Evaluates the expression for each of many sets of values of its variables.
+   *
+   * @param rows The sets of values, each in the order the variables were named in.
+   * @return A new array with the result for each set, in the same order.
+   * @throws IllegalArgumentException If a set has the wrong number of values, or an operator is applied to something it doesn't apply to.
+   * @since 1.2
+   */
+  public Value[] evaluateAll(Value[][] rows)
+  {
+    Value[] ret = new Value[rows.length];
+    // One stack (and its slots) does for every row, since each run leaves it empty.
+    Value[] stack = new Value[maxStack + slots];
+    for (int i = 0; i < rows.length; i++)
+    {
+      if (rows[i].length != variables.length)
+        throw new IllegalArgumentException("Expected " + variables.length + " values, but row " + i + " has " + rows[i].length + ".");
+      ret[i] = run(rows[i], stack);
+    }
+    return ret;
+  }
+
+  /**
+   * @return The names of the variables, in the order their values are given.
+   * @since 1.2
+   */
+  public List<String> variables()
+  {
+    return Collections.unmodifiableList(Arrays.asList(variables));
+  }
+
+
+
+  private Value run(Value[] values, Value[] stack)
+  {
+    int top = 0;
+    for (int pc = 0; pc < code.length; pc++)
+    {
+      int op = code[pc];
+      switch (op)
+      {
+        case CONSTANT:
+          stack[top++] = constants[arguments[pc]];
+          break;
+        case VARIABLE:
+          stack[top++] = values[arguments[pc]];
+          break;
+        case LOAD:
+          stack[top++] = stack[maxStack + arguments[pc]];
+          break;
+        case STORE:
+          stack[maxStack + arguments[pc]] = stack[top - 1];
+          break;
+        case DUP:
+          stack[top] = stack[top - 1];
+          top++;
+          break;
+        case MOD_POW:
+          top -= 2;
+          stack[top - 1] = Operator.modPow(stack[top - 1], stack[top], stack[top + 1]);
+          stack[top] = stack[top + 1] = null;
+          break;
+        default:
+        {
+          Operator operator = OPERATORS[op - OPERATOR];
+          if (operator.isUnary())
+          {
+            stack[top - 1] = op == NEGATE ? stack[top - 1].negate() : operator.apply(stack[top - 1]);
+            break;
+          }
+          Value right = stack[--top];
+          stack[top] = null;
+          Value left = stack[top - 1];
+          // The most common operators are called directly. Everything else goes through the Operator.
+          if (op == ADD)
+            stack[top - 1] = left.add(right);
+          else if (op == SUBTRACT)
+            stack[top - 1] = left.subtract(right);
+          else if (op == MULTIPLY)
+            stack[top - 1] = left.multiply(right);
+          else
+            stack[top - 1] = operator.apply(left, right);
+        }
+      }
+    }
+    Value ret = stack[0];
+    stack[0] = null;
+    Arrays.fill(stack, maxStack, maxStack + slots, null);
+    return ret;
+  }
+
+  private int slot(String name)
+  {
+    for (int i = 0; i < variables.length; i++)
+      if (variables[i].equals(name))
+        return i;
+    throw new IllegalArgumentException("The variable " + name + " is not one of " + Arrays.toString(variables) + ".");
+  }
+}
@@ -0,0 +1,302 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class Division
+ *
+ * Division kernels for the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own, and is never modified once passed in.
+ *
+ * Every division finds the quotient and the remainder together.
+ * Single limb divisors are divided a limb at a time, most others use Knuth's Algorithm D (normalized long division),
+ * and large divisors use Burnikel and Ziegler's recursive division, which turns the work into a few large multiplications (see {@link com.hypereclipse.selkie.cas.Multiplication}).
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class Division
+{
+  /**
+   * The number of limbs a divisor must have before Burnikel-Ziegler division is used instead of Knuth's Algorithm D.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.burnikelZieglerThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int BURNIKEL_ZIEGLER_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.burnikelZieglerThreshold", 80);
+  /**
+   * How many more limbs than the divisor the dividend must have before Burnikel-Ziegler division is used.
+   * Below this the quotient is short enough that Algorithm D is faster anyway.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.burnikelZieglerOffset</code> system property.
+   *
+   * @since 1.2
+   */
+  static int BURNIKEL_ZIEGLER_OFFSET = Integer.getInteger("com.hypereclipse.selkie.cas.burnikelZieglerOffset", 40);
+
+  /**
+   * The magnitude 1.
+   *
+   * @since 1.2
+   */
+  private static final int[] ONE = new int[]{1};
+
+  private Division() {}
+
+
+
+  /**
+   * Divides two magnitudes, picking the algorithm from their sizes.
+   *
+   * @param a The dividend.
+   * @param b The divisor. Must not be zero.
+   * @return A two element array holding new, trimmed magnitudes for the quotient and then the remainder.
+   * @since 1.2
+   */
+  static int[][] divideAndRemainder(int[] a, int[] b)
+  {
+    int aLen = length(a);
+    int bLen = length(b);
+
+    if (bLen == 0)
+      throw new IllegalArgumentException("Divide by zero.");
+    if (bLen >= BURNIKEL_ZIEGLER_THRESHOLD && aLen - bLen >= BURNIKEL_ZIEGLER_OFFSET)
+      return divideBurnikelZiegler(a, b);
+    return divideSchoolbook(a, b);
+  }
+
+  /**
+   * Divides a magnitude by a single limb, one limb at a time from the top.
+   * Each step divides (remainder so far, next limb) by the divisor, which fits in a <code>long</code>.
+   *
+   * @param a The dividend.
+   * @param divisor The divisor, read as an unsigned 32-bit value. Must not be zero.
+   * @param quotient Where the limbs of the quotient go. Must have at least <code>aLen</code> limbs. May be <code>a</code> itself.
+   * @return The remainder, read as an unsigned 32-bit value.
+   * @since 1.2
+   */
+  static int divideByWord(int[] a, int aLen, int divisor, int[] quotient)
+  {
+    long d = divisor & LONG_MASK;
+    long remainder = 0;
+    for (int i = aLen - 1; i >= 0; i--)
+    {
+      long dividend = (remainder << 32) | (a[i] & LONG_MASK);
+      // The dividend can use all 64 bits, so it has to be divided as unsigned.
+      long q = Long.divideUnsigned(dividend, d);
+      remainder = dividend - q * d;
+      quotient[i] = (int) q;
+    }
+    return (int) remainder;
+  }
+
+  /**
+   * Knuth's Algorithm D. (The Art of Computer Programming, Vol. 2, 4.3.1)
+   *
+   * First shifts both numbers so the divisor's top limb has its top bit set.
+   * Then each limb of the quotient is guessed from the top two limbs of what is left of the dividend and the top limb of the divisor.
+   * Because of the normalization, the guess is never more than two too large, and checking it against the divisor's second limb almost always fixes it before the multiply and subtract.
+   *
+   * Requires that <code>bLen</code> is at least 2 and <code>aLen</code> is at least <code>bLen</code>.
+   *
+   * @return A two element array holding new, trimmed magnitudes for the quotient and then the remainder.
+   * @since 1.2
+   */
+  static int[][] divideKnuth(int[] a, int aLen, int[] b, int bLen)
+  {
+    int shift = Integer.numberOfLeadingZeros(b[bLen - 1]);
+    int[] v = new int[bLen];
+    int[] u = new int[aLen + 1];
+    for (int i = bLen - 1; i >= 0; i--)
+      v[i] = (b[i] << shift) | (shift != 0 && i > 0 ? b[i - 1] >>> (32 - shift) : 0);
+    u[aLen] = shift != 0 ? a[aLen - 1] >>> (32 - shift) : 0;
+    for (int i = aLen - 1; i >= 0; i--)
+      u[i] = (a[i] << shift) | (shift != 0 && i > 0 ? a[i - 1] >>> (32 - shift) : 0);
+
+    long vTop = v[bLen - 1] & LONG_MASK;
+    long vNext = v[bLen - 2] & LONG_MASK;
+    int[] quotient = new int[aLen - bLen + 1];
+
+    for (int j = aLen - bLen; j >= 0; j--)
+    {
+      // Guess this limb of the quotient from the top of the dividend.
+      long top = ((u[j + bLen] & LONG_MASK) << 32) | (u[j + bLen - 1] & LONG_MASK);
+      long qHat = Long.divideUnsigned(top, vTop);
+      long rHat = top - qHat * vTop;
+      while (qHat > LONG_MASK || Long.compareUnsigned(qHat * vNext, (rHat << 32) | (u[j + bLen - 2] & LONG_MASK)) > 0)
+      {
+        qHat--;
+        rHat += vTop;
+        if (rHat > LONG_MASK)
+          break;
+      }
+
+      // Multiply and subtract.
+      long carry = 0;
+      long borrow = 0;
+      for (int i = 0; i < bLen; i++)
+      {
+        long product = qHat * (v[i] & LONG_MASK) + carry;
+        carry = product >>> 32;
+        long difference = (u[i + j] & LONG_MASK) - (product & LONG_MASK) - borrow;
+        u[i + j] = (int) difference;
+        borrow = -(difference >> 32);
+      }
+      long difference = (u[j + bLen] & LONG_MASK) - carry - borrow;
+      u[j + bLen] = (int) difference;
+
+      // If the guess was still one too large, the subtraction went negative, so add one divisor back.
+      if (difference < 0)
+      {
+        qHat--;
+        long sum = 0;
+        for (int i = 0; i < bLen; i++)
+        {
+          sum = (u[i + j] & LONG_MASK) + (v[i] & LONG_MASK) + (sum >>> 32);
+          u[i + j] = (int) sum;
+        }
+        u[j + bLen] += (int) (sum >>> 32);
+      }
+      quotient[j] = (int) qHat;
+    }
+
+    // Whatever is left at the bottom is the remainder, once it is shifted back.
+    int[] remainder = new int[bLen];
+    for (int i = 0; i < bLen; i++)
+      remainder[i] = (u[i] >>> shift) | (shift != 0 ? u[i + 1] << (32 - shift) : 0);
+    return new int[][]{trim(quotient), trim(remainder)};
+  }
+
+  /**
+   * Divides with whichever non-recursive algorithm fits: a limb at a time for single limb divisors, and Algorithm D otherwise.
+   * Also used for the base cases of Burnikel-Ziegler division.
+   *
+   * @since 1.2
+   */
+  private static int[][] divideSchoolbook(int[] a, int[] b)
+  {
+    int aLen = length(a);
+    int bLen = length(b);
+    if (compare(a, b) < 0)
+      return new int[][]{EMPTY, trim(a)};
+    if (bLen == 1)
+    {
+      int[] quotient = new int[aLen];
+      int remainder = divideByWord(a, aLen, b[0], quotient);
+      return new int[][]{trim(quotient), remainder == 0 ? EMPTY : new int[]{remainder}};
+    }
+    return divideKnuth(a, aLen, b, bLen);
+  }
+
+  /**
+   * Burnikel and Ziegler's recursive division. (Fast Recursive Division, MPI-I-98-1-022)
+   *
+   * The divisor is padded (by shifting both numbers) to a block size n of the form j*2^k, and the dividend is cut into blocks of n limbs.
+   * Each block of the quotient is then found by dividing two blocks by one with
+   * {@link com.hypereclipse.selkie.cas.Division#divide2n1n(int[], int[], int)}, which keeps halving the problem until it is small enough for Algorithm D.
+   *
+   * @return A two element array holding new, trimmed magnitudes for the quotient and then the remainder.
+   * @since 1.2
+   */
+  private static int[][] divideBurnikelZiegler(int[] a, int[] b)
+  {
+    int bLen = length(b);
+
+    // Pick the block size: the smallest multiple of a power of two at least as long as b, where the multiple is below the threshold.
+    int m = 1 << (32 - Integer.numberOfLeadingZeros(bLen / BURNIKEL_ZIEGLER_THRESHOLD));
+    int j = (bLen + m - 1) / m;
+    int n = j * m;
+    long n32 = 32L * n;
+
+    // Normalize, so that b is exactly n limbs with the top bit set.
+    int sigma = (int) Math.max(0, n32 - bitLength(b));
+    int[] bShifted = shiftLeft(b, sigma);
+    int[] aShifted = shiftLeft(a, sigma);
+
+    // The number of blocks a needs, leaving room for one more bit so that the top block is less than b.
+    int t = (int) ((bitLength(aShifted) + n32) / n32);
+    if (t < 2)
+      t = 2;
+
+    int[] quotient = new int[(t - 1) * n + 1];
+    int[] z = slice(aShifted, (t - 2) * n, t * n);
+    int[][] qr = null;
+    for (int i = t - 2; i >= 0; i--)
+    {
+      qr = divide2n1n(z, bShifted, n);
+      addInto(quotient, qr[0], i * n);
+      if (i > 0)
+        z = add(shiftLeft(qr[1], 32 * n), slice(aShifted, (i - 1) * n, i * n));
+    }
+
+    return new int[][]{trim(quotient), shiftRight(qr[1], sigma)};
+  }
+
+  /**
+   * Divides a number of up to 2n limbs by one of n limbs, where the quotient is known to fit in n limbs.
+   * Splits the dividend into four quarters and finds each half of the quotient with {@link com.hypereclipse.selkie.cas.Division#divide3n2n(int[], int[], int)}.
+   *
+   * @param b The divisor. Exactly <code>n</code> limbs, with its top bit set.
+   * @since 1.2
+   */
+  private static int[][] divide2n1n(int[] a, int[] b, int n)
+  {
+    if ((n & 1) != 0 || n < BURNIKEL_ZIEGLER_THRESHOLD)
+      return divideSchoolbook(a, b);
+
+    int half = n / 2;
+    int[][] qr1 = divide3n2n(slice(a, half, 4 * half), b, half);
+    int[][] qr2 = divide3n2n(add(shiftLeft(qr1[1], 32 * half), slice(a, 0, half)), b, half);
+
+    int[] quotient = new int[n + 1];
+    addInto(quotient, qr2[0], 0);
+    addInto(quotient, qr1[0], half);
+    return new int[][]{trim(quotient), qr2[1]};
+  }
+
+  /**
+   * Divides a number of up to 3 halves by one of 2 halves, where the quotient is known to fit in one half.
+   * The quotient is estimated by dividing the top two halves by the top half of the divisor, and then corrected (at most twice) against the whole divisor.
+   *
+   * @param b The divisor. Exactly <code>2 * half</code> limbs, with its top bit set.
+   * @since 1.2
+   */
+  private static int[][] divide3n2n(int[] a, int[] b, int half)
+  {
+    int[] a12 = slice(a, half, 3 * half);
+    int[] a1 = slice(a, 2 * half, 3 * half);
+    int[] a3 = slice(a, 0, half);
+    int[] b1 = slice(b, half, 2 * half);
+    int[] b2 = slice(b, 0, half);
+
+    int[] quotient;
+    int[] remainder;
+    if (compare(a1, b1) < 0)
+    {
+      int[][] qr = divide2n1n(a12, b1, half);
+      quotient = qr[0];
+      remainder = qr[1];
+    }
+    else
+    {
+      // The estimate would not fit in a half, so use the largest one that does: B^half - 1.
+      quotient = new int[half];
+      Arrays.fill(quotient, -1);
+      remainder = subtract(add(a12, b1), shiftLeft(b1, 32 * half));
+    }
+
+    int[] d = Multiplication.multiply(quotient, b2);
+    // The corrections are done in place, since each one only adds or takes away a little.
+    MutableInt rHat = new MutableInt(3 * half + 1).addInPlace(remainder).shiftInPlace(32 * half).addInPlace(a3).subtractInPlace(d);
+    MutableInt q = new MutableInt(quotient);
+    while (rHat.isNegative())
+    {
+      rHat.addInPlace(b);
+      q.subtractInPlace(ONE);
+    }
+    return new int[][]{q.toMagnitude(), rHat.toMagnitude()};
+  }
+}
@@ -1,13 +1,5 @@
 package com.hypereclipse.selkie.cas;
 
-import com.hypereclipse.selkie.casbot.util.Util;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import static com.hypereclipse.selkie.casbot.util.StringProcessing.*;
-import static com.hypereclipse.selkie.casbot.util.Util.olts;
-
 public class Expression
 {
   public static final String[] operators_binary = new String[]{".", "E+", "E-", "**", "*", "/", "%", "+", "-", "|", "&", "^"};
@@ -18,143 +10,121 @@ public class Expression
   public static final String[] operators_all = new String[]{"**", "E+", "E-", "*", "/", "%", "+", "-", "|", "&", "^", "!"};
   public static final String[] grouping_open = new String[]{"(", "["};
   public static final String[] grouping_close = new String[]{")", "]"};
-  public static final char[] whitespace = new char[]{' ', '\t', '\r', '\n', };//TODO: &nsp ?
+
+  /**
+   * The text this was made from.
+   */
+  private final String source;
+  /**
+   * {@link com.hypereclipse.selkie.cas.Expression#source} with its whitespace normalized, which is what it is cached by. <code>null</code> if it wasn't cached.
+   */
+  private final String key;
+  /**
+   * The root of the tree {@link com.hypereclipse.selkie.cas.Expression#source} was parsed into.
+   */
+  private final ExpressionNode root;
+  /**
+   * A cache of parsed expressions, and of what they evaluated to, since the same ones tend to come up over and over.
+   * The size of each can be set with the <code>com.hypereclipse.selkie.cas.expressionCacheChars</code> and <code>com.hypereclipse.selkie.cas.expressionResultCacheLimbs</code> system properties.
+   * <code>null</code> if expressions should not be cached at all.
+   */
+  private static volatile ExpressionCache cache = new ExpressionCache(
+      Long.getLong("com.hypereclipse.selkie.cas.expressionCacheChars", 1 << 20),
+      Long.getLong("com.hypereclipse.selkie.cas.expressionResultCacheLimbs", 1 << 22));
 
   // Example: "-5 + 0x3"
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.Expression}.
+   *
+   * Parses the text into a tree of {@link com.hypereclipse.selkie.cas.ExpressionNode}s (see {@link com.hypereclipse.selkie.cas.ExpressionParser}),
+   * or takes the tree from the {@link com.hypereclipse.selkie.cas.ExpressionCache} if the same expression was parsed before.
+   *
+   * @param expression The text of the expression.
+   * @throws IllegalArgumentException If the text is not a well-formed expression.
+   * @since 1.0
+   */
   public Expression(String expression)
   {
-    StringBuilder sb = sb(expression);
-    ArrayList<ExpressionElementWithContent> splitExpression = new ArrayList<ExpressionElementWithContent>();
-
-    ExpressionElementWithContent prev = null; // In some cases (life if whitespace is taking up last, or need to remember decimal/scinote)
-    ExpressionElementWithContent last = null;
-    boolean isWhitespace;
-
-    while (sb.length()>0)
+    source = expression;
+    // Read the cache once, in case it is swapped out while we're working.
+    ExpressionCache c = cache;
+    if (c == null)
     {
-      isWhitespace = detectAndNoteWhitespace(sb);
-      List<ExpressionElement> expected = determineExpectedAndAllowed(last.type, prev.type, isWhitespace);
-      splitExpression.add(readAndCutAsExpected(sb, expected));
-      //combineLastTwoIfNeeded(expected.getLast);
-
-      prev = last;
-      //last = temp; // TODO: What will we fill it with?
+      key = null;
+      root = ExpressionParser.parse(expression);
+    }
+    else
+    {
+      key = ExpressionCache.normalize(expression);
+      root = c.parse(key, expression);
     }
   }
 
-  private ExpressionElementWithContent readAndCutAsExpected(StringBuilder sb, List<ExpressionElement> expected)
+
+
+  /**
+   * @return The root of the tree this was parsed into.
+   * @since 1.2
+   */
+  public ExpressionNode getRoot()
   {
-    for (ExpressionElement expect : expected)
-      if (isAt(sb, expect.getString(),0))
-        return readAndCut(sb, expect);
-    throw new IllegalArgumentException("Expected token not found. Expected any: "+olts(expected)+"; Found: \""+sb+"\"");
+    return root;
   }
 
-  private ExpressionElementWithContent readAndCut(StringBuilder sb, ExpressionElement expect)
+  /**
+   * Evaluates this {@link com.hypereclipse.selkie.cas.Expression}, or looks up what it evaluated to last time if results are being cached.
+   *
+   * The tree is optimized first (see {@link com.hypereclipse.selkie.cas.ExpressionNode#optimize()}), so a subexpression written more than once is only worked out once.
+   *
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If it has a variable in it, or an operator is applied to something it doesn't apply to.
+   * @since 1.2
+   */
+  public Value evaluate()
   {
-    sb.replace(0,expect.getString().length()-1,"");
-    return new ExpressionElementWithContent(expect, expect.getString());
+    ExpressionCache c = cache;
+    if (c == null || key == null)
+      return root.optimize().evaluate();
+    return c.evaluate(key, root);
   }
 
-  private boolean detectAndNoteWhitespace(StringBuilder sb)
+  /**
+   * Compiles this {@link com.hypereclipse.selkie.cas.Expression} so it can be evaluated quickly for many values of its variables. See {@link com.hypereclipse.selkie.cas.CompiledExpression}.
+   *
+   * @param variables The names of the variables, in the order their values will be given.
+   * @return The {@link com.hypereclipse.selkie.cas.CompiledExpression}.
+   * @throws IllegalArgumentException If this uses a variable that isn't named, or a name is given twice.
+   * @since 1.2
+   */
+  public CompiledExpression compile(String... variables)
   {
-    boolean ret = false;
-    while (firstIndexOfAny(sb, whitespace)==0)
-    {
-      sb.deleteCharAt(0);
-      ret = true;
-    }
-    return ret;
+    return new CompiledExpression(root.optimize(), variables);
   }
 
-  private List<ExpressionElement> determineExpectedAndAllowed(ExpressionElement last, ExpressionElement prev, boolean isWhitespace)
+  /**
+   * Gets the cache {@link com.hypereclipse.selkie.cas.Expression}s are parsed and evaluated through.
+   *
+   * @return The current {@link com.hypereclipse.selkie.cas.ExpressionCache}, or <code>null</code> if expressions aren't being cached.
+   * @since 1.2
+   */
+  public static ExpressionCache getCache()
   {
-    // Expect: opUnPre, grouping, or base/number. WS
-    // If opUnPre: expect opUnPre, grouping, or base/number.
-    // If groupingOpen: expect opUnPre, grouping, or base/number. WS
-    // If base: expect number.
-    // If number: expect number(!WS), decimal(!WS), sciNote(!WS), opUnPost, opBi, grouping. WS
-    // If decimal or numDecimal: expect number(!WS), sciNote(!WS), opUnPost, opBi, grouping. WS
-    // If sciNote: expect (signed)num.
-    // If numSciNote: expect opUnPost, opBi, grouping. WS
-    // If numWS: expect opBi, grouping
-    // If opBi: expect base/number, opUnPre, grouping.
-    // If opUnPost: expect opUnPost, opBi, grouping.
-    // If groupingClose: expect opUnPost, opBi, grouping. WS
-
-    List<ExpressionElement> ret = new ArrayList<>();
-
-    if (last == null)
-    {
-      // Expect: opUnPre, grouping, or base/number. WS
-
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementUnary.ExpressionElementUnaryPre)
-    {
-      // If opUnPre: expect opUnPre, grouping, or base/number.
-
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementGrouping.ExpressionElementGroupingOpen)
-    {
-      // If groupingOpen: expect opUnPre, grouping, or base/number. WS
-
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementBaseIndicator)
-    {
-      // If base: expect number.
-
-      return null;//TODO replace this with <code>numeralAny;</code>
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementNumeral)
-    {
-      if (prev instanceof ExpressionElement.ExpressionElementNumeralNotation.ExpressionElementNumeralNotationDecimal)
-      {
-        // If decimal or numDecimal: expect number(!WS), sciNote(!WS), opUnPost, opBi, grouping. WS
-
-      }
-      else if (prev instanceof ExpressionElement.ExpressionElementNumeralNotation.ExpressionElementNumeralNotationScientificNotation)
-      {
-        // If numSciNote: expect opUnPost, opBi, grouping. WS
-
-      }
-      else
-      {
-        // If number: expect number(!WS), decimal(!WS), sciNote(!WS), opUnPost, opBi, grouping. WS
-        // If numWS: expect opBi, grouping
-
-      }
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementNumeralNotation.ExpressionElementNumeralNotationDecimal)
-    {
-      // If decimal or numDecimal: expect number(!WS), sciNote(!WS), opUnPost, opBi, grouping. WS
-
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementNumeralNotation.ExpressionElementNumeralNotationScientificNotation)
-    {
-      // If sciNote: expect (signed)num.
-
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementBinaryOperator)
-    {
-      // If opBi: expect base/number, opUnPre, grouping.
-
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementUnary.ExpressionElementUnaryPost)
-    {
-      // If opUnPost: expect opUnPost, opBi, grouping.
+    return cache;
+  }
 
-    }
-    else if (last instanceof ExpressionElement.ExpressionElementGrouping.ExpressionElementGroupingClose)
-    {
-      // If groupingClose: expect opUnPost, opBi, grouping. WS
+  /**
+   * Sets the cache {@link com.hypereclipse.selkie.cas.Expression}s are parsed and evaluated through.
+   *
+   * @param cache The new {@link com.hypereclipse.selkie.cas.ExpressionCache}, or <code>null</code> to stop caching expressions.
+   * @since 1.2
+   */
+  public static void setCache(ExpressionCache cache)
+  {
+    Expression.cache = cache;
+  }
 
-    }
-    else
-      throw new IllegalArgumentException("Unable to interpret value and predict next element.");
-    return ret;
+  public String toString()
+  {
+    return source;
   }
 }
-
-// Number is value/expression (decimal/scinote is part of number)
-// Grouping is expression
-// Operator is function
\ No newline at end of file
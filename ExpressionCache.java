@@ -0,0 +1,234 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+
+import com.hypereclipse.selkie.cas.ExpressionTokenizer.Kind;
+
+/**
+ * class ExpressionCache
+ *
+ * Remembers the trees expressions were parsed into, and optionally what they evaluated to, so that an expression seen again costs a lookup instead of the work.
+ *
+ * Both are kept in {@link com.hypereclipse.selkie.cas.BoundedCache}s, keyed by the expression's text with the whitespace normalized
+ * (see {@link com.hypereclipse.selkie.cas.ExpressionCache#normalize(CharSequence)}), so <code>2**64</code> and <code>2 ** 64</code> share an entry.
+ * Trees are weighed by the length of that text, since a tree never has more nodes than its text has tokens, plus the limbs of the numbers in them at two characters to the limb,
+ * since a short number like <code>1E1000000</code> is parsed into a large {@link com.hypereclipse.selkie.cas.Int}.
+ * Results are weighed by their number of limbs (plus the text, at two characters to the limb), so one huge result can't push out many small ones.
+ * A result cache with no room at all isn't made, and then nothing is evaluated through it.
+ *
+ * Expressions that fail to parse or evaluate are never cached, so they fail again each time.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public class ExpressionCache
+{
+  /**
+   * The parsed trees, by normalized text.
+   *
+   * @since 1.2
+   */
+  private final BoundedCache<String, ExpressionNode> parsed;
+  /**
+   * What each expression evaluated to, by normalized text. <code>null</code> if results aren't cached.
+   *
+   * @since 1.2
+   */
+  private final BoundedCache<String, Value> results;
+
+
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.ExpressionCache}.
+   *
+   * @param maxParsedChars The most characters of normalized text (and of the numbers in the trees) the cache of parsed trees may hold.
+   * @param maxResultLimbs The most limbs (of results, and of their text) the cache of results may hold. Zero to not cache results.
+   * @since 1.2
+   */
+  public ExpressionCache(long maxParsedChars, long maxResultLimbs)
+  {
+    this.parsed = new BoundedCache<>(maxParsedChars, (text, tree) -> text.length() + 2 * constantLimbs(tree));
+    this.results = maxResultLimbs == 0 ? null : new BoundedCache<>(maxResultLimbs, (text, result) -> limbs(result) + text.length() / 2 + 1);
+  }
+
+
+
+  /**
+   * Gets the tree an expression parses into, parsing it only if it isn't cached.
+   *
+   * @param key The normalized text of the expression, from {@link com.hypereclipse.selkie.cas.ExpressionCache#normalize(CharSequence)}.
+   * @param source The text as it was written, to parse if it isn't cached, so the positions in any errors are where the user expects them.
+   * @return The root of the tree.
+   * @throws IllegalArgumentException If the text is not a well-formed expression.
+   * @since 1.2
+   */
+  public ExpressionNode parse(String key, CharSequence source)
+  {
+    ExpressionNode ret = parsed.get(key);
+    if (ret == null)
+    {
+      ret = ExpressionParser.parse(source);
+      parsed.put(key, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Evaluates a tree, or looks up what it evaluated to last time.
+   *
+   * @param key The normalized text the tree was parsed from.
+   * @param root The root of the tree.
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If the tree can't be evaluated. See {@link com.hypereclipse.selkie.cas.ExpressionNode#evaluate()}.
+   * @since 1.2
+   */
+  public Value evaluate(String key, ExpressionNode root)
+  {
+    if (results == null)
+      return root.optimize().evaluate();
+    Value ret = results.get(key);
+    if (ret == null)
+    {
+      ret = root.optimize().evaluate();
+      results.put(key, ret);
+    }
+    return ret;
+  }
+
+  /**
+   * Removes every parsed tree and result. Does not reset the statistics.
+   *
+   * @since 1.2
+   */
+  public void clear()
+  {
+    parsed.clear();
+    if (results != null)
+      results.clear();
+  }
+
+  /**
+   * @return The cache of parsed trees, for its statistics.
+   * @since 1.2
+   */
+  public BoundedCache<String, ExpressionNode> parsed()
+  {
+    return parsed;
+  }
+
+  /**
+   * @return The cache of results, for its statistics, or <code>null</code> if results aren't cached.
+   * @since 1.2
+   */
+  public BoundedCache<String, Value> results()
+  {
+    return results;
+  }
+
+  public String toString()
+  {
+    return "ExpressionCache[parsed=" + parsed + ", results=" + results + "]";
+  }
+
+
+
+  /**
+   * Normalizes the whitespace of an expression, so the same expression written with different spacing gives the same text.
+   *
+   * The tokens are written out with no whitespace between them, except where two of them would run together into something else:
+   * two numbers or names in a row (<code>1 2</code> is not <code>12</code>), or two of the same operator character that make a longer operator together
+   * (<code>+ +5</code> is not <code>++5</code>), or the parts of what would be read as a number's exponent without the space
+   * (<code>1E +5</code> and <code>1E+ 5</code> are not <code>1E+5</code>). Those get a single space.
+   *
+   * @param source The text of the expression.
+   * @return The normalized text.
+   * @throws IllegalArgumentException If the text has a character that can't start a token. See {@link com.hypereclipse.selkie.cas.ExpressionTokenizer#next()}.
+   * @since 1.2
+   */
+  public static String normalize(CharSequence source)
+  {
+    StringBuilder sb = new StringBuilder(source.length());
+    ExpressionTokenizer tokens = new ExpressionTokenizer(source);
+    boolean lastWasWord = false;
+    Kind last = null;
+    // How much of an exponent the text ends with: 1 after a number with an E right after it, 2 after the sign following that too.
+    int exponent = 0;
+    for (Kind kind = tokens.next(); kind != Kind.END; kind = tokens.next())
+    {
+      boolean word = kind == Kind.NUMBER || kind == Kind.IDENTIFIER;
+      char first = source.charAt(tokens.start());
+      boolean space = false;
+      if (tokens.spaceBefore() && sb.length() > 0)
+      {
+        char previous = sb.charAt(sb.length() - 1);
+        space = (word && lastWasWord) || (first == previous && (first == '+' || first == '-' || first == '*'))
+            || (exponent == 1 && (first == '+' || first == '-')) || (exponent >= 1 && first >= '0' && first <= '9');
+        if (space)
+          sb.append(' ');
+      }
+      sb.append(source, tokens.start(), tokens.end());
+
+      // The tokenizer only looks past the end of a token to read an exponent, so that is the only other place tokens could run together.
+      if (space)
+        exponent = 0;
+      else if (kind == Kind.IDENTIFIER && last == Kind.NUMBER && tokens.end() - tokens.start() == 1 && (first == 'E' || first == 'e'))
+        exponent = 1;
+      else if ((kind == Kind.PLUS || kind == Kind.MINUS) && exponent == 1)
+        exponent = 2;
+      else
+        exponent = 0;
+      lastWasWord = word;
+      last = kind;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return The number of limbs held by the {@link com.hypereclipse.selkie.cas.ExpressionNode.Constant}s in a tree.
+   * @since 1.2
+   */
+  private static long constantLimbs(ExpressionNode root)
+  {
+    // Walked with a stack of its own, like ExpressionNode#evaluate(), since a parsed tree may be too deep to recurse on.
+    ExpressionNode[] stack = new ExpressionNode[16];
+    int count = 0;
+    long ret = 0;
+    stack[count++] = root;
+    while (count > 0)
+    {
+      ExpressionNode node = stack[--count];
+      if (count + 3 > stack.length)
+        stack = Arrays.copyOf(stack, 2 * stack.length);
+      if (node instanceof ExpressionNode.Constant)
+        ret += limbs(((ExpressionNode.Constant) node).value);
+      else if (node instanceof ExpressionNode.Unary)
+        stack[count++] = ((ExpressionNode.Unary) node).operand;
+      else if (node instanceof ExpressionNode.Binary)
+      {
+        stack[count++] = ((ExpressionNode.Binary) node).left;
+        stack[count++] = ((ExpressionNode.Binary) node).right;
+      }
+      else if (node instanceof ExpressionNode.ModPow)
+      {
+        stack[count++] = ((ExpressionNode.ModPow) node).base;
+        stack[count++] = ((ExpressionNode.ModPow) node).exponent;
+        stack[count++] = ((ExpressionNode.ModPow) node).modulus;
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * @return The number of limbs a {@link com.hypereclipse.selkie.cas.Value} holds.
+   * @since 1.2
+   */
+  private static long limbs(Value value)
+  {
+    if (value instanceof Int)
+      return ((Int) value).magnitude().length;
+    if (value instanceof Rational)
+      return ((Rational) value).numerator().magnitude().length + ((Rational) value).denominator().magnitude().length;
+    return 1;
+  }
+}
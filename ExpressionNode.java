@@ -0,0 +1,238 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * class ExpressionNode
+ *
+ * A node in the tree an {@link com.hypereclipse.selkie.cas.Expression} is parsed into: a {@link com.hypereclipse.selkie.cas.Value}, a variable, or an {@link com.hypereclipse.selkie.cas.Operator} applied to other nodes.
+ * Nodes never change once they are made, so they can be shared between trees, and between threads.
+ *
+ * Trees can be very deep (a thousand minus signs in a row make a thousand nodes, one under the next), so nothing here walks the tree by recursion.
+ * Evaluating it keeps its own stack instead, so the depth is only limited by memory, not by the size of the thread's stack.
+ *
+ * {@link com.hypereclipse.selkie.cas.ExpressionNode#optimize()} turns a tree into a DAG, where a node can be under more than one other.
+ * Everything here works the same on either, and a node under more than one other is only evaluated once.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public abstract class ExpressionNode
+{
+  ExpressionNode() {}
+
+
+
+  /**
+   * Evaluates the tree under this node.
+   *
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If the tree has a variable in it, or an operator is applied to something it doesn't apply to.
+   * @since 1.2
+   */
+  public Value evaluate()
+  {
+    // Walk the tree in post-order, keeping the nodes still to be finished on one stack and the values found so far on another.
+    // Each node is pushed once to have its operands pushed, and again (marked by a null above it) to be applied to their values.
+    // In a DAG, the value of a node under more than one other is remembered the first time, and used again after that instead of walking it again.
+    IdentityHashMap<ExpressionNode, Value> found = new IdentityHashMap<>();
+    ExpressionNode[] nodes = new ExpressionNode[16];
+    Value[] values = new Value[16];
+    int nodeCount = 0;
+    int valueCount = 0;
+    nodes[nodeCount++] = this;
+    while (nodeCount > 0)
+    {
+      ExpressionNode node = nodes[--nodeCount];
+      boolean ready = false;
+      if (node == null)
+      {
+        node = nodes[--nodeCount];
+        ready = true;
+      }
+
+      if (node instanceof Constant)
+      {
+        if (valueCount == values.length)
+          values = Arrays.copyOf(values, 2 * values.length);
+        values[valueCount++] = ((Constant) node).value;
+      }
+      else if (node instanceof Variable)
+        throw new IllegalArgumentException("The variable " + ((Variable) node).name + " has no value.");
+      else if (!ready)
+      {
+        Value known = found.get(node);
+        if (known != null)
+        {
+          if (valueCount == values.length)
+            values = Arrays.copyOf(values, 2 * values.length);
+          values[valueCount++] = known;
+          continue;
+        }
+        if (nodeCount + 5 > nodes.length)
+          nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+        nodes[nodeCount++] = node;
+        nodes[nodeCount++] = null;
+        // Pushed right first, so the left is evaluated first. The same node on both sides is only evaluated once.
+        if (node instanceof Binary)
+        {
+          if (((Binary) node).right != ((Binary) node).left)
+            nodes[nodeCount++] = ((Binary) node).right;
+          nodes[nodeCount++] = ((Binary) node).left;
+        }
+        else if (node instanceof ModPow)
+        {
+          nodes[nodeCount++] = ((ModPow) node).modulus;
+          nodes[nodeCount++] = ((ModPow) node).exponent;
+          nodes[nodeCount++] = ((ModPow) node).base;
+        }
+        else
+          nodes[nodeCount++] = ((Unary) node).operand;
+      }
+      else if (node instanceof Binary)
+      {
+        Binary binary = (Binary) node;
+        // Int#multiply(Value) squares a value multiplied by itself.
+        if (binary.left == binary.right)
+          values[valueCount - 1] = binary.operator.apply(values[valueCount - 1], values[valueCount - 1]);
+        else
+        {
+          Value right = values[--valueCount];
+          values[valueCount - 1] = binary.operator.apply(values[valueCount - 1], right);
+          values[valueCount] = null;
+        }
+      }
+      else if (node instanceof ModPow)
+      {
+        valueCount -= 2;
+        values[valueCount - 1] = Operator.modPow(values[valueCount - 1], values[valueCount], values[valueCount + 1]);
+        values[valueCount] = values[valueCount + 1] = null;
+      }
+      else
+        values[valueCount - 1] = ((Unary) node).operator.apply(values[valueCount - 1]);
+
+      if (ready)
+        found.put(node, values[valueCount - 1]);
+    }
+    return values[0];
+  }
+
+  /**
+   * Optimizes the tree under this node, so it is cheaper to evaluate. See {@link com.hypereclipse.selkie.cas.ExpressionOptimizer}.
+   *
+   * The same subtree written more than once becomes one node, under each place it was used, so it is only worked out once.
+   * Subtrees with no variables in them are evaluated right away, and replaced by their values.
+   * Adding zero, multiplying by one, and the like are dropped, and a power taken modulo something becomes a {@link com.hypereclipse.selkie.cas.ExpressionNode.ModPow}.
+   *
+   * @return The root of the optimized DAG. It evaluates to the same value as this, or fails with the same error.
+   * @since 1.2
+   */
+  public ExpressionNode optimize()
+  {
+    return ExpressionOptimizer.optimize(this);
+  }
+
+
+
+  /**
+   * class ExpressionNode.Constant (extends ExpressionNode)
+   *
+   * A leaf holding a {@link com.hypereclipse.selkie.cas.Value}.
+   *
+   * @since 1.2
+   */
+  public static final class Constant extends ExpressionNode
+  {
+    public final Value value;
+
+    public Constant(Value value)
+    {
+      this.value = value;
+    }
+  }
+
+  /**
+   * class ExpressionNode.Variable (extends ExpressionNode)
+   *
+   * A leaf standing for a named value, which is only known when the expression is evaluated.
+   *
+   * @since 1.2
+   */
+  public static final class Variable extends ExpressionNode
+  {
+    public final String name;
+
+    public Variable(String name)
+    {
+      this.name = name;
+    }
+  }
+
+  /**
+   * class ExpressionNode.Unary (extends ExpressionNode)
+   *
+   * A prefix or postfix {@link com.hypereclipse.selkie.cas.Operator} applied to one node.
+   *
+   * @since 1.2
+   */
+  public static final class Unary extends ExpressionNode
+  {
+    public final Operator operator;
+    public final ExpressionNode operand;
+
+    public Unary(Operator operator, ExpressionNode operand)
+    {
+      if (!operator.isUnary())
+        throw new IllegalArgumentException(operator + " takes two operands.");
+      this.operator = operator;
+      this.operand = operand;
+    }
+  }
+
+  /**
+   * class ExpressionNode.Binary (extends ExpressionNode)
+   *
+   * An infix {@link com.hypereclipse.selkie.cas.Operator} applied to two nodes.
+   *
+   * @since 1.2
+   */
+  public static final class Binary extends ExpressionNode
+  {
+    public final Operator operator;
+    public final ExpressionNode left;
+    public final ExpressionNode right;
+
+    public Binary(Operator operator, ExpressionNode left, ExpressionNode right)
+    {
+      if (operator.isUnary())
+        throw new IllegalArgumentException(operator + " takes one operand.");
+      this.operator = operator;
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  /**
+   * class ExpressionNode.ModPow (extends ExpressionNode)
+   *
+   * <code>base ** exponent % modulus</code>, worked out without making the full power. See {@link com.hypereclipse.selkie.cas.Int#modPow(Int, Int)}.
+   * The parser never makes these. {@link com.hypereclipse.selkie.cas.ExpressionNode#optimize()} makes them out of a {@link com.hypereclipse.selkie.cas.Operator#MOD} of a {@link com.hypereclipse.selkie.cas.Operator#POWER}.
+   *
+   * @since 1.2
+   */
+  public static final class ModPow extends ExpressionNode
+  {
+    public final ExpressionNode base;
+    public final ExpressionNode exponent;
+    public final ExpressionNode modulus;
+
+    public ModPow(ExpressionNode base, ExpressionNode exponent, ExpressionNode modulus)
+    {
+      this.base = base;
+      this.exponent = exponent;
+      this.modulus = modulus;
+    }
+  }
+}
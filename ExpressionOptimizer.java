@@ -0,0 +1,286 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * class ExpressionOptimizer
+ *
+ * Rewrites a tree of {@link com.hypereclipse.selkie.cas.ExpressionNode}s into a smaller DAG that evaluates to the same thing, in one pass from the leaves up.
+ *
+ * Every node is hash-consed: it is looked up by its operator and the (already rewritten) nodes under it, and a node that is already there is used again instead of making another.
+ * So however many times a subtree is written, it becomes one node, and <code>(2**1000 + 1) * (2**1000 + 1)</code> only works out <code>2**1000 + 1</code> once.
+ * The same lookup also remembers what each node was rewritten to, so folding it is never done twice either.
+ *
+ * A node with only values under it is folded: applied right away and replaced by its value. If applying it fails, it is left as it is, so the error comes when the expression is evaluated, as before.
+ * Around variables, adding zero (<code>x+0</code>, <code>0+x</code>, <code>x-0</code>), multiplying by one (<code>x*1</code>, <code>1*x</code>) and a prefix <code>+</code> are dropped.
+ * <code>x*x</code> needs no rewriting: once hash-consed both sides are the same node, which is evaluated once, and {@link com.hypereclipse.selkie.cas.Int#multiply(Value)} squares a value multiplied by itself.
+ * <code>a**b%m</code> becomes a {@link com.hypereclipse.selkie.cas.ExpressionNode.ModPow} before either half is folded, so the full power is never made.
+ *
+ * Unlike the cache of products in {@link com.hypereclipse.selkie.cas.Int#multiply(Value)}, the tables here only live for one call, and only hold the nodes of the one expression,
+ * so they never grow past its size, and nothing is shared between threads.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class ExpressionOptimizer
+{
+  /**
+   * What each node of the input with operands has been rewritten to.
+   */
+  private final IdentityHashMap<ExpressionNode, ExpressionNode> rewritten = new IdentityHashMap<>();
+  /**
+   * The node (or its folded value) for each operator applied to each set of rewritten operands.
+   */
+  private final HashMap<Key, ExpressionNode> nodes = new HashMap<>();
+  private final HashMap<Value, ExpressionNode> constants = new HashMap<>();
+  private final HashMap<String, ExpressionNode> variables = new HashMap<>();
+
+  private ExpressionOptimizer() {}
+
+
+
+  /**
+   * Optimizes a tree.
+   *
+   * @param root The root of the tree. It may already be a DAG.
+   * @return The root of the optimized DAG.
+   * @since 1.2
+   */
+  static ExpressionNode optimize(ExpressionNode root)
+  {
+    return new ExpressionOptimizer().rewrite(root);
+  }
+
+
+
+  private ExpressionNode rewrite(ExpressionNode root)
+  {
+    // Walk the tree in post-order, the same as ExpressionNode#evaluate(), with the rewritten operands on a stack in place of their values.
+    // A node under more than one other (if this is already a DAG) is only walked the first time.
+    ExpressionNode[] stack = new ExpressionNode[16];
+    ExpressionNode[] done = new ExpressionNode[16];
+    int count = 0;
+    int doneCount = 0;
+    stack[count++] = root;
+    while (count > 0)
+    {
+      ExpressionNode node = stack[--count];
+      boolean ready = false;
+      if (node == null)
+      {
+        node = stack[--count];
+        ready = true;
+      }
+      if (doneCount + 1 > done.length)
+        done = Arrays.copyOf(done, 2 * done.length);
+
+      if (node instanceof ExpressionNode.Constant)
+      {
+        done[doneCount++] = constant(((ExpressionNode.Constant) node).value);
+        continue;
+      }
+      if (node instanceof ExpressionNode.Variable)
+      {
+        ExpressionNode variable = node;
+        done[doneCount++] = variables.computeIfAbsent(((ExpressionNode.Variable) node).name, name -> variable);
+        continue;
+      }
+
+      if (!ready)
+      {
+        ExpressionNode ret = rewritten.get(node);
+        if (ret != null)
+        {
+          done[doneCount++] = ret;
+          continue;
+        }
+        if (count + 5 > stack.length)
+          stack = Arrays.copyOf(stack, 2 * stack.length);
+        stack[count++] = node;
+        stack[count++] = null;
+        if (isModPow(node))
+        {
+          ExpressionNode.Binary power = (ExpressionNode.Binary) ((ExpressionNode.Binary) node).left;
+          stack[count++] = ((ExpressionNode.Binary) node).right;
+          stack[count++] = power.right;
+          stack[count++] = power.left;
+        }
+        else if (node instanceof ExpressionNode.Binary)
+        {
+          stack[count++] = ((ExpressionNode.Binary) node).right;
+          stack[count++] = ((ExpressionNode.Binary) node).left;
+        }
+        else if (node instanceof ExpressionNode.ModPow)
+        {
+          stack[count++] = ((ExpressionNode.ModPow) node).modulus;
+          stack[count++] = ((ExpressionNode.ModPow) node).exponent;
+          stack[count++] = ((ExpressionNode.ModPow) node).base;
+        }
+        else
+          stack[count++] = ((ExpressionNode.Unary) node).operand;
+        continue;
+      }
+
+      Key key;
+      int operands;
+      if (isModPow(node) || node instanceof ExpressionNode.ModPow)
+      {
+        operands = 3;
+        key = new Key(null, done[doneCount - 3], done[doneCount - 2], done[doneCount - 1]);
+      }
+      else if (node instanceof ExpressionNode.Binary)
+      {
+        operands = 2;
+        key = new Key(((ExpressionNode.Binary) node).operator, done[doneCount - 2], done[doneCount - 1], null);
+      }
+      else
+      {
+        operands = 1;
+        key = new Key(((ExpressionNode.Unary) node).operator, done[doneCount - 1], null, null);
+      }
+      Arrays.fill(done, doneCount - operands, doneCount, null);
+      doneCount -= operands;
+
+      ExpressionNode ret = nodes.get(key);
+      if (ret == null)
+      {
+        ret = build(key);
+        nodes.put(key, ret);
+      }
+      rewritten.put(node, ret);
+      done[doneCount++] = ret;
+    }
+    return done[0];
+  }
+
+  /**
+   * Makes the node for an operator applied to rewritten operands: its value if they are all values, one of them if the operator does nothing to it, or else a new node.
+   *
+   * @since 1.2
+   */
+  private ExpressionNode build(Key key)
+  {
+    Operator operator = key.operator;
+    ExpressionNode a = key.a;
+    ExpressionNode b = key.b;
+    ExpressionNode c = key.c;
+
+    if (isConstant(a) && (b == null || isConstant(b)) && (c == null || isConstant(c)))
+    {
+      try
+      {
+        if (operator == null)
+          return constant(Operator.modPow(value(a), value(b), value(c)));
+        if (b == null)
+          return constant(operator.apply(value(a)));
+        return constant(operator.apply(value(a), value(b)));
+      }
+      catch (IllegalArgumentException e)
+      {
+        // Left for evaluating to fail on.
+      }
+    }
+
+    if (operator == null)
+      return new ExpressionNode.ModPow(a, b, c);
+    if (b == null)
+      return operator == Operator.PLUS ? a : new ExpressionNode.Unary(operator, a);
+    switch (operator)
+    {
+      case ADD:
+        if (is(a, 0))
+          return b;
+        if (is(b, 0))
+          return a;
+        break;
+      case SUBTRACT:
+        if (is(b, 0))
+          return a;
+        break;
+      case MULTIPLY:
+        if (is(a, 1))
+          return b;
+        if (is(b, 1))
+          return a;
+        break;
+      default:
+        break;
+    }
+    return new ExpressionNode.Binary(operator, a, b);
+  }
+
+  private ExpressionNode constant(Value value)
+  {
+    return constants.computeIfAbsent(value, ExpressionNode.Constant::new);
+  }
+
+  /**
+   * @return <code>true</code> if a node is a {@link com.hypereclipse.selkie.cas.Operator#MOD} of a {@link com.hypereclipse.selkie.cas.Operator#POWER}.
+   * @since 1.2
+   */
+  private static boolean isModPow(ExpressionNode node)
+  {
+    return node instanceof ExpressionNode.Binary && ((ExpressionNode.Binary) node).operator == Operator.MOD
+        && ((ExpressionNode.Binary) node).left instanceof ExpressionNode.Binary && ((ExpressionNode.Binary) ((ExpressionNode.Binary) node).left).operator == Operator.POWER;
+  }
+
+  private static boolean isConstant(ExpressionNode node)
+  {
+    return node instanceof ExpressionNode.Constant;
+  }
+
+  private static Value value(ExpressionNode node)
+  {
+    return ((ExpressionNode.Constant) node).value;
+  }
+
+  /**
+   * @return <code>true</code> if a node is the {@link com.hypereclipse.selkie.cas.Int} with the given value.
+   * @since 1.2
+   */
+  private static boolean is(ExpressionNode node, long value)
+  {
+    return isConstant(node) && value(node) instanceof Int && ((Int) value(node)).equals(Int.valueOf(value));
+  }
+
+
+
+  /**
+   * An operator and the nodes it is applied to, which are compared by identity, since they have already been hash-consed.
+   * A <code>null</code> operator is a {@link com.hypereclipse.selkie.cas.ExpressionNode.ModPow}.
+   */
+  private static final class Key
+  {
+    final Operator operator;
+    final ExpressionNode a;
+    final ExpressionNode b;
+    final ExpressionNode c;
+
+    Key(Operator operator, ExpressionNode a, ExpressionNode b, ExpressionNode c)
+    {
+      this.operator = operator;
+      this.a = a;
+      this.b = b;
+      this.c = c;
+    }
+
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Key))
+        return false;
+      Key o = (Key) obj;
+      return operator == o.operator && a == o.a && b == o.b && c == o.c;
+    }
+
+    public int hashCode()
+    {
+      int ret = operator == null ? -1 : operator.ordinal();
+      ret = ret * 31 + System.identityHashCode(a);
+      ret = ret * 31 + System.identityHashCode(b);
+      return ret * 31 + System.identityHashCode(c);
+    }
+  }
+}
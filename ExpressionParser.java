@@ -0,0 +1,323 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+
+import com.hypereclipse.selkie.cas.ExpressionTokenizer.Kind;
+
+/**
+ * class ExpressionParser
+ *
+ * Parses the text of an {@link com.hypereclipse.selkie.cas.Expression} into a tree of {@link com.hypereclipse.selkie.cas.ExpressionNode}s, in a single pass over its tokens.
+ *
+ * This is operator precedence parsing (the same as a Pratt parser makes with its recursion) with the stacks kept by hand: one of operands (finished subtrees)
+ * and one of the operators and open brackets still waiting for their right operand. Each operator waits until one binding less tightly comes along,
+ * which then applies it to the operands on top. How tightly each one binds comes from {@link com.hypereclipse.selkie.cas.Operator}.
+ * Since nothing recurses, deeply nested input like <code>((((...))))</code> only costs memory, not thread stack.
+ *
+ * The parser alternates between expecting an operand (a number, a name, an open bracket, or a prefix operator) and expecting an operator
+ * (an infix or postfix operator, or a close bracket). That's also how <code>+ - ++ -- !</code> are told apart when they can be more than one thing.
+ * A <code>++</code> or <code>--</code> straight after an operand is a postfix operator, unless an operand comes straight after it,
+ * so that <code>5--3</code> reads as <code>5 - -3</code> rather than failing.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class ExpressionParser
+{
+  /**
+   * What an open bracket is on the operator stack, which otherwise holds {@link com.hypereclipse.selkie.cas.Operator} ordinals.
+   */
+  private static final int PAREN = -1;
+  private static final int BRACKET = -2;
+  private static final Operator[] OPERATORS = Operator.values();
+
+  private final ExpressionTokenizer tokens;
+  private ExpressionNode[] operands = new ExpressionNode[16];
+  private int operandCount;
+  private int[] operators = new int[16];
+  /**
+   * Where each operator or bracket on the stack was in the text, for error messages.
+   */
+  private int[] positions = new int[16];
+  private int operatorCount;
+
+  private ExpressionParser(CharSequence source)
+  {
+    tokens = new ExpressionTokenizer(source);
+  }
+
+
+
+  /**
+   * Parses an expression.
+   *
+   * @param source The text of the expression.
+   * @return The root of the tree.
+   * @throws IllegalArgumentException If the text is not a well-formed expression.
+   * @since 1.2
+   */
+  static ExpressionNode parse(CharSequence source)
+  {
+    return new ExpressionParser(source).parse();
+  }
+
+
+
+  private ExpressionNode parse()
+  {
+    boolean expectOperand = true;
+    Kind kind = tokens.next();
+    while (true)
+    {
+      if (expectOperand)
+      {
+        switch (kind)
+        {
+          case NUMBER:
+            pushOperand(new ExpressionNode.Constant(number(tokens.source(), tokens.start(), tokens.end())));
+            expectOperand = false;
+            break;
+          case IDENTIFIER:
+            pushOperand(new ExpressionNode.Variable(tokens.text().toString()));
+            expectOperand = false;
+            break;
+          case OPEN_PAREN:
+            pushOperator(PAREN);
+            break;
+          case OPEN_BRACKET:
+            pushOperator(BRACKET);
+            break;
+          // A prefix operator has nothing on its left to apply, so it just waits for its operand.
+          case PLUS:
+            pushOperator(Operator.PLUS.ordinal());
+            break;
+          case MINUS:
+            pushOperator(Operator.NEGATE.ordinal());
+            break;
+          case INCREMENT:
+            pushOperator(Operator.INCREMENT.ordinal());
+            break;
+          case DECREMENT:
+            pushOperator(Operator.DECREMENT.ordinal());
+            break;
+          case BANG:
+            pushOperator(Operator.NOT.ordinal());
+            break;
+          default:
+            throw unexpected("a number");
+        }
+        kind = tokens.next();
+        continue;
+      }
+
+      switch (kind)
+      {
+        case PLUS:
+          infix(Operator.ADD);
+          break;
+        case MINUS:
+          infix(Operator.SUBTRACT);
+          break;
+        case TIMES:
+          infix(Operator.MULTIPLY);
+          break;
+        case POWER:
+          infix(Operator.POWER);
+          break;
+        case DIVIDE:
+          infix(Operator.DIVIDE);
+          break;
+        case MOD:
+          infix(Operator.MOD);
+          break;
+        case AND:
+          infix(Operator.AND);
+          break;
+        case XOR:
+          infix(Operator.XOR);
+          break;
+        case OR:
+          infix(Operator.OR);
+          break;
+        case BANG:
+          // Postfix operators bind tighter than anything, so they apply right away.
+          operands[operandCount - 1] = new ExpressionNode.Unary(Operator.FACTORIAL, operands[operandCount - 1]);
+          kind = tokens.next();
+          continue;
+        case INCREMENT:
+        case DECREMENT:
+        {
+          boolean increment = kind == Kind.INCREMENT;
+          int position = tokens.start();
+          kind = tokens.next();
+          if (kind == Kind.NUMBER || kind == Kind.IDENTIFIER || kind == Kind.OPEN_PAREN || kind == Kind.OPEN_BRACKET)
+          {
+            // Read it as the infix operator and a prefix one, with the operand that comes next already in hand.
+            infix(increment ? Operator.ADD : Operator.SUBTRACT);
+            pushOperator(increment ? Operator.PLUS.ordinal() : Operator.NEGATE.ordinal(), position + 1);
+            expectOperand = true;
+          }
+          else
+            operands[operandCount - 1] = new ExpressionNode.Unary(increment ? Operator.INCREMENT_POSTFIX : Operator.DECREMENT_POSTFIX, operands[operandCount - 1]);
+          continue;
+        }
+        case CLOSE_PAREN:
+        case CLOSE_BRACKET:
+        {
+          int open = kind == Kind.CLOSE_PAREN ? PAREN : BRACKET;
+          while (operatorCount > 0 && operators[operatorCount - 1] >= 0)
+            reduce();
+          if (operatorCount == 0)
+            throw new IllegalArgumentException("Unmatched '" + tokens.text() + "' at position " + tokens.start() + ".");
+          if (operators[operatorCount - 1] != open)
+            throw new IllegalArgumentException("'" + tokens.text() + "' at position " + tokens.start() + " doesn't match the '" + (open == PAREN ? '[' : '(') + "' at position " + positions[operatorCount - 1] + ".");
+          operatorCount--;
+          kind = tokens.next();
+          continue;
+        }
+        case END:
+          while (operatorCount > 0)
+          {
+            if (operators[operatorCount - 1] < 0)
+              throw new IllegalArgumentException("Unmatched '" + (operators[operatorCount - 1] == PAREN ? '(' : '[') + "' at position " + positions[operatorCount - 1] + ".");
+            reduce();
+          }
+          return operands[0];
+        default:
+          throw unexpected("an operator");
+      }
+      expectOperand = true;
+      kind = tokens.next();
+    }
+  }
+
+  /**
+   * Applies every waiting operator that binds at least as tightly as an infix operator (or more tightly, if it groups from the right), then leaves it waiting.
+   *
+   * @since 1.2
+   */
+  private void infix(Operator operator)
+  {
+    boolean right = operator.fixity == Operator.Fixity.INFIX_RIGHT;
+    while (operatorCount > 0 && operators[operatorCount - 1] >= 0)
+    {
+      int precedence = OPERATORS[operators[operatorCount - 1]].precedence;
+      if (precedence < operator.precedence || (precedence == operator.precedence && right))
+        break;
+      reduce();
+    }
+    pushOperator(operator.ordinal());
+  }
+
+  /**
+   * Applies the operator on top of the stack to the operands on top of theirs.
+   *
+   * @since 1.2
+   */
+  private void reduce()
+  {
+    Operator operator = OPERATORS[operators[--operatorCount]];
+    if (operator.isUnary())
+      operands[operandCount - 1] = new ExpressionNode.Unary(operator, operands[operandCount - 1]);
+    else
+    {
+      ExpressionNode right = operands[--operandCount];
+      operands[operandCount - 1] = new ExpressionNode.Binary(operator, operands[operandCount - 1], right);
+      operands[operandCount] = null;
+    }
+  }
+
+  private void pushOperand(ExpressionNode node)
+  {
+    if (operandCount == operands.length)
+      operands = Arrays.copyOf(operands, 2 * operands.length);
+    operands[operandCount++] = node;
+  }
+
+  private void pushOperator(int operator)
+  {
+    pushOperator(operator, tokens.start());
+  }
+
+  private void pushOperator(int operator, int position)
+  {
+    if (operatorCount == operators.length)
+    {
+      operators = Arrays.copyOf(operators, 2 * operators.length);
+      positions = Arrays.copyOf(positions, 2 * positions.length);
+    }
+    positions[operatorCount] = position;
+    operators[operatorCount++] = operator;
+  }
+
+  private IllegalArgumentException unexpected(String expected)
+  {
+    if (tokens.kind() == Kind.END)
+      return new IllegalArgumentException("Expected " + expected + ", but the expression ended.");
+    return new IllegalArgumentException("Expected " + expected + " at position " + tokens.start() + ", but found \"" + tokens.text() + "\".");
+  }
+
+
+
+  /**
+   * Reads a number token, as written by {@link com.hypereclipse.selkie.cas.ExpressionTokenizer}.
+   *
+   * A number with a base prefix is an {@link com.hypereclipse.selkie.cas.Int}. A decimal number is an {@link com.hypereclipse.selkie.cas.Int} if it is a whole number,
+   * and an exact {@link com.hypereclipse.selkie.cas.Rational} otherwise, so <code>1.5</code> is <code>3/2</code> and <code>1E-3</code> is <code>1/1000</code>.
+   *
+   * @param source The text the token is in.
+   * @param from The offset the token starts at.
+   * @param to The offset just past the end of the token.
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the number.
+   * @since 1.2
+   */
+  static Value number(CharSequence source, int from, int to)
+  {
+    int base = to - from > 2 && source.charAt(from) == '0' ? ExpressionTokenizer.baseOf(source.charAt(from + 1)) : 0;
+    if (base != 0)
+      return integer(source, from + 2, to, base);
+
+    int point = from;
+    while (point < to && source.charAt(point) >= '0' && source.charAt(point) <= '9')
+      point++;
+    int fractionEnd = point;
+    if (point < to && source.charAt(point) == '.')
+      for (fractionEnd = point + 1; fractionEnd < to && source.charAt(fractionEnd) >= '0' && source.charAt(fractionEnd) <= '9'; fractionEnd++) ;
+
+    // Everything is read as digits * 10^scale, with the digits after the point moving the scale down.
+    Int digits = integer(source, from, point, 10);
+    long scale = 0;
+    if (fractionEnd > point)
+    {
+      int fractionDigits = fractionEnd - point - 1;
+      digits = (Int) digits.multiply(Int.TEN.pow(fractionDigits)).add(integer(source, point + 1, fractionEnd, 10));
+      scale = -fractionDigits;
+    }
+    if (fractionEnd < to)
+    {
+      try
+      {
+        scale += Integer.parseInt(source.subSequence(fractionEnd + 1, to).toString());
+      }
+      catch (NumberFormatException e)
+      {
+        throw new IllegalArgumentException("The exponent of " + source.subSequence(from, to) + " is too large.");
+      }
+    }
+
+    if (scale < Integer.MIN_VALUE || scale > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("The exponent of " + source.subSequence(from, to) + " is too large.");
+    if (scale >= 0)
+      return digits.multiply(Int.TEN.pow((int) scale));
+    return digits.divide(Int.TEN.pow((int) -scale));
+  }
+
+  private static Int integer(CharSequence digits, int from, int to, int base)
+  {
+    if (from == to)
+      return Int.ZERO;
+    char[] charset = base == 2 ? Value.CHARSET_BINARY : base == 8 ? Value.CHARSET_OCTAL : base == 10 ? Value.CHARSET_DECIMAL : Value.CHARSET_HEX;
+    return new Int(RadixConversion.parse(digits, from, to, base, charset), false);
+  }
+}
@@ -0,0 +1,311 @@
+package com.hypereclipse.selkie.cas;
+
+/**
+ * class ExpressionTokenizer
+ *
+ * Splits the text of an {@link com.hypereclipse.selkie.cas.Expression} into tokens, one at a time, in a single pass.
+ *
+ * The tokenizer is a cursor over the original text: each call to {@link com.hypereclipse.selkie.cas.ExpressionTokenizer#next()} moves it onto the next token,
+ * which is described by its {@link com.hypereclipse.selkie.cas.ExpressionTokenizer.Kind} and the offsets it starts and ends at. Nothing is copied out of the text,
+ * and nothing is created per token, so tokenizing takes time linear in the length of the text and leaves no garbage behind.
+ * Operators are picked out with a switch on their first character, looking ahead one character for the two character ones (<code>**</code>, <code>++</code>, <code>--</code>).
+ *
+ * A number is a single token, including its base prefix (<code>0b</code>, <code>0o</code> or <code>0x</code>), its decimal point, and its exponent (<code>E+3</code>, <code>e-3</code> or <code>E3</code>).
+ * Whitespace is skipped, but whether a token had any before it is kept.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public final class ExpressionTokenizer
+{
+  /**
+   * The kinds of token.
+   *
+   * @since 1.2
+   */
+  public enum Kind
+  {
+    /** A number, with its base prefix, decimal point and exponent, if any. */
+    NUMBER,
+    /** A name, such as a variable. Letters, digits and underscores, not starting with a digit. */
+    IDENTIFIER,
+    /** <code>+</code> */
+    PLUS,
+    /** <code>-</code> */
+    MINUS,
+    /** <code>++</code> */
+    INCREMENT,
+    /** <code>--</code> */
+    DECREMENT,
+    /** <code>*</code> */
+    TIMES,
+    /** <code>**</code> */
+    POWER,
+    /** <code>/</code> */
+    DIVIDE,
+    /** <code>%</code> */
+    MOD,
+    /** <code>|</code> */
+    OR,
+    /** <code>&amp;</code> */
+    AND,
+    /** <code>^</code> */
+    XOR,
+    /** <code>!</code> */
+    BANG,
+    /** <code>(</code> */
+    OPEN_PAREN,
+    /** <code>)</code> */
+    CLOSE_PAREN,
+    /** <code>[</code> */
+    OPEN_BRACKET,
+    /** <code>]</code> */
+    CLOSE_BRACKET,
+    /** The end of the text. */
+    END
+  }
+
+  /**
+   * The text being tokenized.
+   */
+  private final CharSequence source;
+  /**
+   * Where the current token ends, and so where looking for the next one starts.
+   */
+  private int position;
+  private Kind kind;
+  private int start;
+  private boolean spaceBefore;
+
+
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.ExpressionTokenizer}.
+   *
+   * Starts before the first token. Call {@link com.hypereclipse.selkie.cas.ExpressionTokenizer#next()} to move onto it.
+   *
+   * @param source The text to tokenize. It is read in place, so it must not change while it is being tokenized.
+   * @since 1.2
+   */
+  public ExpressionTokenizer(CharSequence source)
+  {
+    this.source = source;
+  }
+
+
+
+  /**
+   * Moves onto the next token.
+   *
+   * @return The {@link com.hypereclipse.selkie.cas.ExpressionTokenizer.Kind} of the token, or {@link com.hypereclipse.selkie.cas.ExpressionTokenizer.Kind#END} once there are none left.
+   * @throws IllegalArgumentException If the text has a character that can't start a token here.
+   * @since 1.2
+   */
+  public Kind next()
+  {
+    int length = source.length();
+    int i = position;
+    while (i < length && isWhitespace(source.charAt(i)))
+      i++;
+    spaceBefore = i > position;
+    start = i;
+    if (i == length)
+      return finish(Kind.END, i);
+
+    char c = source.charAt(i);
+    char lookahead = i + 1 < length ? source.charAt(i + 1) : 0;
+    switch (c)
+    {
+      case '+':
+        return lookahead == '+' ? finish(Kind.INCREMENT, i + 2) : finish(Kind.PLUS, i + 1);
+      case '-':
+        return lookahead == '-' ? finish(Kind.DECREMENT, i + 2) : finish(Kind.MINUS, i + 1);
+      case '*':
+        return lookahead == '*' ? finish(Kind.POWER, i + 2) : finish(Kind.TIMES, i + 1);
+      case '/':
+        return finish(Kind.DIVIDE, i + 1);
+      case '%':
+        return finish(Kind.MOD, i + 1);
+      case '|':
+        return finish(Kind.OR, i + 1);
+      case '&':
+        return finish(Kind.AND, i + 1);
+      case '^':
+        return finish(Kind.XOR, i + 1);
+      case '!':
+        return finish(Kind.BANG, i + 1);
+      case '(':
+        return finish(Kind.OPEN_PAREN, i + 1);
+      case ')':
+        return finish(Kind.CLOSE_PAREN, i + 1);
+      case '[':
+        return finish(Kind.OPEN_BRACKET, i + 1);
+      case ']':
+        return finish(Kind.CLOSE_BRACKET, i + 1);
+      case '.':
+        if (isDigit(lookahead, 10))
+          return finish(Kind.NUMBER, readNumber(i));
+        break;
+      default:
+        if (isDigit(c, 10))
+          return finish(Kind.NUMBER, readNumber(i));
+        if (Character.isLetter(c) || c == '_')
+        {
+          int end = i + 1;
+          while (end < length && (Character.isLetterOrDigit(source.charAt(end)) || source.charAt(end) == '_'))
+            end++;
+          return finish(Kind.IDENTIFIER, end);
+        }
+    }
+    throw new IllegalArgumentException("Unexpected character '" + c + "' at position " + i + ".");
+  }
+
+  /**
+   * @return The {@link com.hypereclipse.selkie.cas.ExpressionTokenizer.Kind} of the current token, or <code>null</code> before the first call to {@link com.hypereclipse.selkie.cas.ExpressionTokenizer#next()}.
+   * @since 1.2
+   */
+  public Kind kind()
+  {
+    return kind;
+  }
+
+  /**
+   * @return The offset in the text of the first character of the current token.
+   * @since 1.2
+   */
+  public int start()
+  {
+    return start;
+  }
+
+  /**
+   * @return The offset in the text just past the last character of the current token.
+   * @since 1.2
+   */
+  public int end()
+  {
+    return position;
+  }
+
+  /**
+   * @return <code>true</code> if there was whitespace between the previous token (or the start of the text) and the current one.
+   * @since 1.2
+   */
+  public boolean spaceBefore()
+  {
+    return spaceBefore;
+  }
+
+  /**
+   * @return The text being tokenized.
+   * @since 1.2
+   */
+  public CharSequence source()
+  {
+    return source;
+  }
+
+  /**
+   * Gets the text of the current token. Unlike the rest of the tokenizer, this makes a new {@link java.lang.CharSequence}, so it is best left for error messages.
+   *
+   * @return The characters from {@link com.hypereclipse.selkie.cas.ExpressionTokenizer#start()} up to {@link com.hypereclipse.selkie.cas.ExpressionTokenizer#end()}.
+   * @since 1.2
+   */
+  public CharSequence text()
+  {
+    return source.subSequence(start, position);
+  }
+
+
+
+  private Kind finish(Kind kind, int end)
+  {
+    this.kind = kind;
+    position = end;
+    return kind;
+  }
+
+  /**
+   * Reads a number starting at <code>i</code>: a base prefix and digits in that base, or decimal digits with an optional fraction and exponent.
+   *
+   * @return The offset just past the end of the number.
+   * @since 1.2
+   */
+  private int readNumber(int i)
+  {
+    int length = source.length();
+    if (source.charAt(i) == '0' && i + 1 < length)
+    {
+      int base = baseOf(source.charAt(i + 1));
+      if (base != 0)
+      {
+        int end = skipDigits(i + 2, base);
+        if (end == i + 2)
+          throw new IllegalArgumentException("Expected base " + base + " digits after \"" + source.subSequence(i, i + 2) + "\" at position " + i + ".");
+        return end;
+      }
+    }
+
+    int end = skipDigits(i, 10);
+    if (end < length && source.charAt(end) == '.' && end + 1 < length && isDigit(source.charAt(end + 1), 10))
+      end = skipDigits(end + 1, 10);
+    // The exponent is only part of the number if there are digits after it. Otherwise the E is left to be read as a name.
+    if (end < length && (source.charAt(end) == 'E' || source.charAt(end) == 'e'))
+    {
+      int digits = end + 1;
+      if (digits < length && (source.charAt(digits) == '+' || source.charAt(digits) == '-'))
+        digits++;
+      if (digits < length && isDigit(source.charAt(digits), 10))
+        end = skipDigits(digits, 10);
+    }
+    return end;
+  }
+
+  private int skipDigits(int i, int base)
+  {
+    int length = source.length();
+    while (i < length && isDigit(source.charAt(i), base))
+      i++;
+    return i;
+  }
+
+  /**
+   * @return The base a prefix letter stands for, as in {@link com.hypereclipse.selkie.cas.Expression#indicator_base}, or zero if it isn't one.
+   * @since 1.2
+   */
+  static int baseOf(char indicator)
+  {
+    switch (indicator)
+    {
+      case 'b':
+        return 2;
+      case 'o':
+        return 8;
+      case 'x':
+        return 16;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * @return <code>true</code> if <code>c</code> is a digit in the given base, of at most 16. Letter digits can be either case.
+   * @since 1.2
+   */
+  static boolean isDigit(char c, int base)
+  {
+    int digit = c >= '0' && c <= '9' ? c - '0' : c >= 'a' && c <= 'f' ? c - 'a' + 10 : c >= 'A' && c <= 'F' ? c - 'A' + 10 : 16;
+    return digit < base;
+  }
+
+  /**
+   * @return <code>true</code> if a character is whitespace between tokens.
+   * @since 1.2
+   */
+  static boolean isWhitespace(char c)
+  {
+    // Includes the no-break space, which comes along with text pasted from web pages.
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\u00A0';
+  }
+}
@@ -0,0 +1,673 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class GCD
+ *
+ * Greatest common divisor kernels for the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own, and is never modified once passed in.
+ *
+ * Everything is some form of Euclid's algorithm, which replaces the pair (a, b) with (b, a mod b) until b is zero, and only differs in how many of those steps are taken at once.
+ * Numbers that fit in a <code>long</code> use the binary algorithm, which only needs shifts and subtractions.
+ * Longer numbers use Lehmer's algorithm, which finds the next several quotients from the leading 62 bits alone, and then applies all of them to the full numbers in a single pass.
+ * Very long numbers use the half-GCD: the steps that take the top half of the numbers down to a quarter are found recursively, which is about what the same steps do to the full numbers,
+ * and are applied as one matrix with fast multiplication. Doing that twice takes the numbers down to half their length, in less than quadratic time.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class GCD
+{
+  /**
+   * The number of limbs both numbers must have before the half-GCD is used instead of Lehmer's algorithm.
+   * Lehmer's algorithm is quadratic, but with a very small constant, so the half-GCD needs fairly long numbers to catch up.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.halfGcdThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int HALF_GCD_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.halfGcdThreshold", 2400);
+  /**
+   * The number of limbs at which the half-GCD stops splitting numbers in half, and finds the steps for the rest with Lehmer's algorithm.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.halfGcdRecursionThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int HALF_GCD_RECURSION_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.halfGcdRecursionThreshold", 600);
+
+  private GCD() {}
+
+
+
+  /**
+   * Finds the greatest common divisor of two magnitudes.
+   *
+   * @return A new, trimmed magnitude holding the largest number that divides both. Zero only if both are zero.
+   * @since 1.2
+   */
+  static int[] gcd(int[] a, int[] b)
+  {
+    Euclid e = new Euclid(a, b, false);
+    e.run();
+    return e.a;
+  }
+
+  /**
+   * Finds the greatest common divisor of two numbers, along with the coefficients that make it from them (Bezout's identity).
+   *
+   * @return <code>{g, s, t}</code>, where <code>g</code> is the non-negative greatest common divisor and <code>s*a + t*b = g</code>.
+   * <code>s</code> is the one closest to zero, so <code>|s| &lt;= |b|/(2g)</code>.
+   * @since 1.2
+   */
+  static Int[] extendedGcd(Int a, Int b)
+  {
+    if (b.isZero())
+      return new Int[]{(Int) a.abs(), a.isNegative() ? Int.NEGATIVEONE : a.isZero() ? Int.ZERO : Int.ONE, Int.ZERO};
+
+    Euclid e = new Euclid(a.magnitude(), b.magnitude(), true);
+    e.run();
+    Int g = new Int(e.a, false);
+
+    // Move s to the closest coefficient that still works. They are all s plus a multiple of b/g.
+    Int step = ((Int) b.abs()).divideInteger(g);
+    Int s = e.sa.divRem(step)[1];
+    if (s.isNegative())
+      s = (Int) s.add(step);
+    if (((Int) s.add(s)).greater(step))
+      s = (Int) s.subtract(step);
+    if (a.isNegative())
+      s = (Int) s.negate();
+    // t comes from the identity, since b divides g - s*a exactly.
+    Int t = ((Int) g.subtract(s.multiply(a))).divideInteger(b);
+    return new Int[]{g, s, t};
+  }
+
+  /**
+   * The binary GCD algorithm (Stein, 1967) on two unsigned <code>long</code>s.
+   * Any factors of two both share are taken out first, since they are all the binary algorithm can't find, and then the smaller odd number is repeatedly subtracted from the larger.
+   *
+   * @return The greatest common divisor, as an unsigned <code>long</code>.
+   * @since 1.2
+   */
+  static long binaryGcd(long a, long b)
+  {
+    if (a == 0)
+      return b;
+    if (b == 0)
+      return a;
+    int shift = Long.numberOfTrailingZeros(a | b);
+    a >>>= Long.numberOfTrailingZeros(a);
+    do
+    {
+      b >>>= Long.numberOfTrailingZeros(b);
+      if (Long.compareUnsigned(a, b) > 0)
+      {
+        long t = a;
+        a = b;
+        b = t;
+      }
+      b -= a;
+    } while (b != 0);
+    return a << shift;
+  }
+
+
+
+  /**
+   * Lehmer's algorithm. (Knuth, The Art of Computer Programming, Vol. 2, Algorithm 4.5.2L)
+   *
+   * Runs Euclid's algorithm on the leading 62 bits of a and b (from the same bit, so their ratio is about right), keeping track of each remainder as a combination of the two.
+   * Every quotient is checked against both the smallest and largest the full numbers could have, and the steps stop at the first one that could be different,
+   * so the steps taken are exactly the ones Euclid's algorithm would take on the full numbers. The steps also stop before a coefficient would no longer fit in 31 bits.
+   *
+   * @param s Stop before a remainder could have <code>s</code> bits or fewer, or -1 to go as far as possible.
+   * The bits below the leading ones can only move a remainder by less than the sum of its coefficients (in units of the lowest leading bit), which gives a bound on how short it could be.
+   * @return <code>{A, B, C, D}</code>, where the next two remainders are <code>A*a + B*b</code> and <code>C*a + D*b</code>, or <code>null</code> if not even one quotient could be found.
+   * @since 1.2
+   */
+  private static long[] lehmerStep(int[] a, int aLen, int[] b, int bLen, long s)
+  {
+    long shift = Math.max(32L * aLen - Integer.numberOfLeadingZeros(a[aLen - 1]) - 62, 0);
+    long ah = leadingBits(a, aLen, shift);
+    long bh = leadingBits(b, bLen, shift);
+    if (s - shift >= 62)
+      return null;
+    long min = s < 0 ? Long.MIN_VALUE : s >= shift ? 1L << (s - shift) : 0;
+
+    long m00 = 1, m01 = 0, m10 = 0, m11 = 1;
+    while (bh + m10 != 0 && bh + m11 != 0)
+    {
+      long q = (ah + m00) / (bh + m10);
+      if (q != (ah + m01) / (bh + m11) || q > Integer.MAX_VALUE)
+        break;
+      long n10 = m00 - q * m10;
+      long n11 = m01 - q * m11;
+      if (Math.abs(n10) > Integer.MAX_VALUE || Math.abs(n11) > Integer.MAX_VALUE)
+        break;
+      long t = ah - q * bh;
+      if (t - Math.abs(n10) - Math.abs(n11) <= min)
+        break;
+      m00 = m10;
+      m01 = m11;
+      m10 = n10;
+      m11 = n11;
+      ah = bh;
+      bh = t;
+    }
+    return m01 == 0 ? null : new long[]{m00, m01, m10, m11};
+  }
+
+  /**
+   * @return The bits of a magnitude from <code>shift</code> up, which must be no more than 63 of them.
+   * @since 1.2
+   */
+  private static long leadingBits(int[] a, int len, long shift)
+  {
+    int limb = (int) (shift >>> 5);
+    int bits = (int) (shift & 0x1F);
+    if (limb >= len)
+      return 0;
+    // Up to 63 bits starting part way into a limb can reach into the two above it.
+    long ret = (a[limb] & LONG_MASK) >>> bits;
+    if (limb + 1 < len)
+      ret |= (a[limb + 1] & LONG_MASK) << (32 - bits);
+    if (limb + 2 < len && bits != 0)
+      ret |= (a[limb + 2] & LONG_MASK) << (64 - bits);
+    return ret;
+  }
+
+  /**
+   * Finds <code>x*a + y*b</code>, where <code>x</code> and <code>y</code> fit in 31 bits and one of them is never positive, in a single pass.
+   *
+   * @param len The number of limbs to read from both <code>a</code> and <code>b</code>. The limbs of the shorter one must be zero up to here.
+   * @param out Where to write the result. Must have room for <code>len + 1</code> limbs, all of which are written.
+   * @return The number of limbs in the result. If the result would have been negative, its magnitude is written instead.
+   * @since 1.2
+   */
+  private static int combine(int[] a, int[] b, int len, long x, long y, int[] out)
+  {
+    // Subtract the product with the negative factor from the other one.
+    boolean flip = x < 0 || y > 0;
+    int[] p = flip ? b : a;
+    int[] q = flip ? a : b;
+    long px = Math.abs(flip ? y : x);
+    long qx = Math.abs(flip ? x : y);
+
+    long pCarry = 0;
+    long qCarry = 0;
+    long difference = 0;
+    for (int i = 0; i < len; i++)
+    {
+      pCarry += px * (p[i] & LONG_MASK);
+      qCarry += qx * (q[i] & LONG_MASK);
+      difference += (pCarry & LONG_MASK) - (qCarry & LONG_MASK);
+      out[i] = (int) difference;
+      difference >>= 32;
+      pCarry >>>= 32;
+      qCarry >>>= 32;
+    }
+    difference += pCarry - qCarry;
+    out[len] = (int) difference;
+
+    if (difference < 0)
+    {
+      // Two's complement negation: invert everything, and add one.
+      long carry = 1;
+      for (int i = 0; i <= len; i++)
+      {
+        carry += ~out[i] & LONG_MASK;
+        out[i] = (int) carry;
+        carry >>>= 32;
+      }
+    }
+    int ret = len + 1;
+    while (ret > 0 && out[ret - 1] == 0)
+      ret--;
+    return ret;
+  }
+
+  /**
+   * @return The first <code>len</code> limbs of a buffer, as a new magnitude.
+   * @since 1.2
+   */
+  private static int[] copy(int[] a, int len)
+  {
+    return Arrays.copyOf(a, len);
+  }
+
+
+
+  /**
+   * Euclid's algorithm on a pair of magnitudes, optionally keeping track of the coefficient of the first number in each remainder.
+   *
+   * @since 1.2
+   */
+  private static final class Euclid
+  {
+    /**
+     * The current pair of remainders, with <code>a &gt;= b</code>. Trimmed.
+     */
+    int[] a;
+    int[] b;
+    /**
+     * The coefficient of the original first number in each remainder, or <code>null</code> if they aren't being kept.
+     * Each remainder is that many of the first number, plus some number of the second.
+     */
+    Int sa;
+    Int sb;
+
+    Euclid(int[] a, int[] b, boolean extended)
+    {
+      boolean swap = compare(a, b) < 0;
+      this.a = trim(swap ? b : a);
+      this.b = trim(swap ? a : b);
+      if (extended)
+      {
+        this.sa = swap ? Int.ZERO : Int.ONE;
+        this.sb = swap ? Int.ONE : Int.ZERO;
+      }
+    }
+
+    /**
+     * Runs the algorithm until <code>b</code> is zero, leaving the greatest common divisor in <code>a</code> (and its coefficient in <code>sa</code>).
+     *
+     * @since 1.2
+     */
+    void run()
+    {
+      while (b.length >= HALF_GCD_THRESHOLD)
+      {
+        // When one is much longer, a single division does more than anything else could.
+        Reduction r = a.length - b.length < 2 ? halfGcd(a, b) : null;
+        if (r == null)
+          divisionStep();
+        else
+          reduce(r);
+      }
+      lehmer();
+    }
+
+    /**
+     * Takes one step of Euclid's algorithm with a full division.
+     *
+     * @since 1.2
+     */
+    private void divisionStep()
+    {
+      int[][] qr = Division.divideAndRemainder(a, b);
+      a = b;
+      b = trim(qr[1]);
+      if (sa != null)
+      {
+        Int s = (Int) sa.subtract(new Int(qr[0], false).multiply(sb));
+        sa = sb;
+        sb = s;
+      }
+    }
+
+    /**
+     * Moves on to the pair a {@link com.hypereclipse.selkie.cas.GCD.Reduction} found.
+     *
+     * @since 1.2
+     */
+    private void reduce(Reduction r)
+    {
+      a = r.a;
+      b = r.b;
+      if (sa != null)
+      {
+        // The coefficients go through the same inverse matrix the remainders do.
+        Int m00 = new Int(r.m00, false);
+        Int m01 = new Int(r.m01, false);
+        Int m10 = new Int(r.m10, false);
+        Int m11 = new Int(r.m11, false);
+        Int s = (Int) m11.multiply(sa).subtract(m01.multiply(sb));
+        Int t = (Int) m00.multiply(sb).subtract(m10.multiply(sa));
+        sa = r.odd ? (Int) s.negate() : s;
+        sb = r.odd ? (Int) t.negate() : t;
+      }
+    }
+
+    /**
+     * Runs the rest of the algorithm with Lehmer steps, in place in a few buffers, finishing with the binary algorithm once both numbers fit in a <code>long</code> (unless keeping coefficients).
+     *
+     * @since 1.2
+     */
+    private void lehmer()
+    {
+      int aLen = a.length;
+      int bLen = b.length;
+      int[] x = Arrays.copyOf(a, aLen + 1);
+      int[] y = Arrays.copyOf(b, aLen + 1);
+      int[] nextX = new int[aLen + 1];
+      int[] nextY = new int[aLen + 1];
+      while (bLen > (sa == null ? 2 : 0))
+      {
+        long[] k = lehmerStep(x, aLen, y, bLen, -1);
+        if (k == null)
+        {
+          a = copy(x, aLen);
+          b = copy(y, bLen);
+          divisionStep();
+          aLen = a.length;
+          bLen = b.length;
+          System.arraycopy(a, 0, x, 0, aLen);
+          Arrays.fill(x, aLen, x.length, 0);
+          System.arraycopy(b, 0, y, 0, bLen);
+          Arrays.fill(y, bLen, y.length, 0);
+          continue;
+        }
+
+        int len = aLen;
+        aLen = combine(x, y, len, k[0], k[1], nextX);
+        bLen = combine(x, y, len, k[2], k[3], nextY);
+        int[] t = x;
+        x = nextX;
+        nextX = t;
+        t = y;
+        y = nextY;
+        nextY = t;
+        if (sa != null)
+        {
+          Int s = (Int) Int.valueOf(k[0]).multiply(sa).add(Int.valueOf(k[1]).multiply(sb));
+          sb = (Int) Int.valueOf(k[2]).multiply(sa).add(Int.valueOf(k[3]).multiply(sb));
+          sa = s;
+        }
+      }
+
+      if (sa != null || bLen == 0)
+      {
+        a = copy(x, aLen);
+        b = EMPTY;
+        return;
+      }
+      // b fits in a long now, and one more division makes a fit too, so finish with the binary algorithm.
+      if (aLen > 2)
+      {
+        x = Division.divideAndRemainder(copy(x, aLen), copy(y, bLen))[1];
+        aLen = length(x);
+      }
+      long g = binaryGcd(toLong(x, aLen), toLong(y, bLen));
+      a = trim(new int[]{(int) g, (int) (g >>> 32)});
+      b = EMPTY;
+    }
+
+    /**
+     * @return A magnitude of at most two limbs, as an unsigned <code>long</code>.
+     */
+    private static long toLong(int[] a, int len)
+    {
+      return (len > 0 ? a[0] & LONG_MASK : 0) | (len > 1 ? (long) a[1] << 32 : 0);
+    }
+  }
+
+
+
+  /**
+   * A run of steps of Euclid's algorithm, as a matrix M with <code>(a, b) = M (a', b')</code>, where (a', b') is the pair the steps end on.
+   *
+   * Each step (a, b) to (b, a - q*b) is the matrix <code>[[q, 1], [1, 0]]</code>, so M is a product of those (give or take a swap of its columns, see {@link com.hypereclipse.selkie.cas.GCD.Reduction#reduce(int[], int[], int, long)}):
+   * all of its entries are non-negative, and its determinant is 1 or -1.
+   *
+   * @since 1.2
+   */
+  private static final class Reduction
+  {
+    int[] m00;
+    int[] m01;
+    int[] m10;
+    int[] m11;
+    /**
+     * <code>true</code> if the determinant is -1.
+     */
+    boolean odd;
+    int steps;
+    /**
+     * The pair the steps end on.
+     */
+    int[] a;
+    int[] b;
+
+    Reduction(int[] a, int[] b)
+    {
+      this.m00 = new int[]{1};
+      this.m01 = EMPTY;
+      this.m10 = EMPTY;
+      this.m11 = new int[]{1};
+      this.a = a;
+      this.b = b;
+    }
+
+    /**
+     * Takes one more step with a full division, unless its remainder would have no more than <code>s</code> bits.
+     *
+     * @return <code>true</code> if the step was taken.
+     * @since 1.2
+     */
+    boolean divisionStep(long s)
+    {
+      int[][] qr = Division.divideAndRemainder(a, b);
+      int[] r = trim(qr[1]);
+      if (bitLength(r) <= s)
+        return false;
+      int[] q = trim(qr[0]);
+      // M [[q, 1], [1, 0]]
+      int[] n00 = add(Multiplication.multiply(m00, q), m01);
+      int[] n10 = add(Multiplication.multiply(m10, q), m11);
+      m01 = m00;
+      m11 = m10;
+      m00 = n00;
+      m10 = n10;
+      odd = !odd;
+      steps++;
+      a = b;
+      b = r;
+      return true;
+    }
+
+    /**
+     * Takes the steps of a {@link com.hypereclipse.selkie.cas.GCD#lehmerStep(int[], int, int[], int, long)}.
+     *
+     * @since 1.2
+     */
+    void lehmerStep(long[] k)
+    {
+      int len = a.length;
+      int[] x = new int[len + 1];
+      int[] y = new int[len + 1];
+      int[] bPadded = Arrays.copyOf(b, len);
+      int xLen = combine(a, bPadded, len, k[0], k[1], x);
+      int yLen = combine(a, bPadded, len, k[2], k[3], y);
+      a = copy(x, xLen);
+      b = copy(y, yLen);
+
+      // The inverse of the steps is [[|D|, |B|], [|C|, |A|]], with the same determinant as the steps themselves.
+      long d = Math.abs(k[3]);
+      long c = Math.abs(k[2]);
+      long bb = Math.abs(k[1]);
+      long aa = Math.abs(k[0]);
+      int[] n00 = addMultiples(m00, d, m01, c);
+      int[] n01 = addMultiples(m00, bb, m01, aa);
+      int[] n10 = addMultiples(m10, d, m11, c);
+      int[] n11 = addMultiples(m10, bb, m11, aa);
+      m00 = n00;
+      m01 = n01;
+      m10 = n10;
+      m11 = n11;
+      boolean negative = k[0] * k[3] - k[1] * k[2] < 0;
+      odd ^= negative;
+      steps++;
+    }
+
+    /**
+     * Follows these steps with another run of them.
+     *
+     * @since 1.2
+     */
+    void then(Reduction r)
+    {
+      int[] n00 = add(Multiplication.multiply(m00, r.m00), Multiplication.multiply(m01, r.m10));
+      int[] n01 = add(Multiplication.multiply(m00, r.m01), Multiplication.multiply(m01, r.m11));
+      int[] n10 = add(Multiplication.multiply(m10, r.m00), Multiplication.multiply(m11, r.m10));
+      int[] n11 = add(Multiplication.multiply(m10, r.m01), Multiplication.multiply(m11, r.m11));
+      m00 = n00;
+      m01 = n01;
+      m10 = n10;
+      m11 = n11;
+      odd ^= r.odd;
+      steps += r.steps;
+    }
+
+    /**
+     * Applies the same steps to a longer pair, whose bits from <code>p</code> up are the pair these were found from, and moves on to where they lead.
+     * This only works out if the two pairs take about the same steps, which they do when the steps stopped well before the remainders got as short as the entries of M,
+     * so the result is checked: the remainders have to stay positive, and longer than <code>s</code> bits.
+     * They can still come out in the wrong order, when the last quotient was close, in which case the columns of M are swapped to swap them back.
+     * M is then no longer exactly Euclid's steps, but it is still a matrix of non-negative entries with a determinant of 1 or -1, which is all the greatest common divisor needs.
+     *
+     * The top bits have already been taken to {@link com.hypereclipse.selkie.cas.GCD.Reduction#a} and {@link com.hypereclipse.selkie.cas.GCD.Reduction#b} by the steps,
+     * so only the bits below <code>p</code> need to go through M, which halves the size of the products.
+     *
+     * @return <code>true</code> if the steps worked out, leaving the new pair in {@link com.hypereclipse.selkie.cas.GCD.Reduction#a} and {@link com.hypereclipse.selkie.cas.GCD.Reduction#b},
+     * or <code>false</code> if they didn't, leaving this unusable.
+     * @since 1.2
+     */
+    boolean reduce(int[] a, int[] b, int p, long s)
+    {
+      int[] aLow = lowBits(a, p);
+      int[] bLow = lowBits(b, p);
+      // M^-1 = det(M) [[m11, -m01], [-m10, m00]]
+      int[] p11 = Multiplication.multiply(m11, aLow);
+      int[] p01 = Multiplication.multiply(m01, bLow);
+      int[] p00 = Multiplication.multiply(m00, bLow);
+      int[] p10 = Multiplication.multiply(m10, aLow);
+      int[] x = odd ? shiftAdd(this.a, p, p01, p11) : shiftAdd(this.a, p, p11, p01);
+      int[] y = odd ? shiftAdd(this.b, p, p10, p00) : shiftAdd(this.b, p, p00, p10);
+      if (x == null || y == null)
+        return false;
+      if (compare(x, y) < 0)
+      {
+        int[] swap = x;
+        x = y;
+        y = swap;
+        swap = m00;
+        m00 = m01;
+        m01 = swap;
+        swap = m10;
+        m10 = m11;
+        m11 = swap;
+        odd = !odd;
+      }
+      if (bitLength(y) <= s)
+        return false;
+      this.a = x;
+      this.b = y;
+      return true;
+    }
+
+    /**
+     * @return <code>(high &lt;&lt; p) + plus - minus</code>, as a new, trimmed magnitude, or <code>null</code> if that is negative.
+     */
+    private static int[] shiftAdd(int[] high, int p, int[] plus, int[] minus)
+    {
+      int[] ret = add(shiftLeft(high, p), plus);
+      if (compare(ret, minus) < 0)
+        return null;
+      return trim(subtract(ret, minus));
+    }
+
+    /**
+     * @return The bits of a magnitude below <code>p</code>, as a new, trimmed magnitude.
+     */
+    private static int[] lowBits(int[] a, int p)
+    {
+      int[] ret = Arrays.copyOf(a, Math.min(a.length, (p + 31) >>> 5));
+      if ((p & 0x1F) != 0 && ret.length == (p + 31) >>> 5)
+        ret[ret.length - 1] &= (1 << (p & 0x1F)) - 1;
+      return trim(ret);
+    }
+
+    /**
+     * @return <code>x*a + y*b</code>, for <code>x</code> and <code>y</code> that fit in 31 bits, as a new, trimmed magnitude.
+     */
+    private static int[] addMultiples(int[] a, long x, int[] b, long y)
+    {
+      int len = Math.max(a.length, b.length);
+      int[] ret = new int[len + 1];
+      long carry = 0;
+      for (int i = 0; i < len; i++)
+      {
+        // Each product is under 2^63, and so is their sum after the high half of the carry is taken off.
+        long aProduct = x * (i < a.length ? a[i] & LONG_MASK : 0);
+        long bProduct = y * (i < b.length ? b[i] & LONG_MASK : 0);
+        long low = (aProduct & LONG_MASK) + (bProduct & LONG_MASK) + (carry & LONG_MASK);
+        ret[i] = (int) low;
+        carry = (aProduct >>> 32) + (bProduct >>> 32) + (carry >>> 32) + (low >>> 32);
+      }
+      ret[len] = (int) carry;
+      return trim(ret);
+    }
+  }
+
+  /**
+   * The half-GCD. (Moller, On Schonhage's Algorithm and Subquadratic Integer GCD Computation, 2008)
+   *
+   * Takes every step of Euclid's algorithm on (a, b), with <code>a &gt;= b</code>, while the remainders still have more than half as many bits as <code>a</code>.
+   * With n the bits of <code>a</code>, the top n/2 bits are reduced recursively first, which takes the full pair down to about 3n/4 bits,
+   * and then the top n/2 bits of that are reduced recursively again, which takes it down to about n/2. Short pairs use Lehmer steps instead.
+   * Stopping while the remainders are still more than half as long is what lets the leading bits stand in for the full numbers,
+   * since the entries of M are then too small for the lower bits to change any of the quotients.
+   *
+   * @return The steps, and the pair they lead to, or <code>null</code> if no steps could be taken.
+   * @since 1.2
+   */
+  private static Reduction halfGcd(int[] a, int[] b)
+  {
+    long n = bitLength(a);
+    long s = n / 2 + 1;
+    if (bitLength(b) <= s)
+      return null;
+
+    Reduction ret = new Reduction(a, b);
+    if (a.length >= HALF_GCD_RECURSION_THRESHOLD)
+    {
+      // The top half of the bits, down to a quarter.
+      int p = (int) (n / 2);
+      Reduction top = halfGcd(shiftRight(a, p), shiftRight(b, p));
+      if (top != null && top.reduce(a, b, p, s))
+        ret = top;
+
+      // One full step to get going again, then the top half of what is left, down to a quarter of the original.
+      if (ret.divisionStep(s))
+      {
+        // Reducing the top of the pair by half lands it at about s bits. A few bits to spare keep the low bits from pulling it under.
+        long p2 = 2 * s - bitLength(ret.a) + 4;
+        if (p2 > 0 && p2 >= n / 8 && bitLength(ret.b) > s + 2)
+        {
+          Reduction rest = halfGcd(shiftRight(ret.a, (int) p2), shiftRight(ret.b, (int) p2));
+          if (rest != null && rest.reduce(ret.a, ret.b, (int) p2, s))
+          {
+            ret.then(rest);
+            ret.a = rest.a;
+            ret.b = rest.b;
+          }
+        }
+      }
+    }
+
+    // Whatever is left over, one Lehmer step at a time, with a full division whenever the next quotient is too large to find from the leading bits.
+    while (bitLength(ret.b) > s)
+    {
+      long[] k = lehmerStep(ret.a, ret.a.length, ret.b, ret.b.length, s);
+      if (k != null)
+        ret.lehmerStep(k);
+      else if (!ret.divisionStep(s))
+        break;
+    }
+    return ret.steps == 0 ? null : ret;
+  }
+}
@@ -1,12 +1,10 @@
 package com.hypereclipse.selkie.cas;
 
-import com.hypereclipse.selkie.casbot.util.CharProcessing;
-import com.hypereclipse.selkie.casbot.util.StringProcessing;
 import org.jetbrains.annotations.NotNull;
 
 import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static com.hypereclipse.selkie.casbot.util.BotStatic.atsr;
 
@@ -15,13 +13,14 @@ import static com.hypereclipse.selkie.casbot.util.BotStatic.atsr;
 /**
  * class Int (extends Value)
  *
- * Represents an integer value in a little-endian array of hexadecimal values.
+ * Represents an integer value in a little-endian array of unsigned 32-bit limbs.
+ * Values that fit in a <code>long</code> are also kept as one, and are added, multiplied, divided and compared that way until they outgrow it.
  * Lowest level representation of a value.
  *
  * All basic math operations can be applied.
  *
  * @author Selkie (Stanley S.)
- * @version 1.1
+ * @version 1.2
  * @since 1.0
  */
 public class Int implements Value
@@ -31,61 +30,61 @@ public class Int implements Value
    *
    * @since 1.0
    */
-  public static final Int NEGATIVEONE = new Int(-1).clean();
+  public static final Int NEGATIVEONE = valueOf(-1);
   /**
    * A public constant representing the commonly used value of 0.
    *
    * @since 1.0
    */
-  public static final Int ZERO = new Int(0).clean();
+  public static final Int ZERO = valueOf(0);
   /**
    * A public constant representing the commonly used value of 1.
    *
    * @since 1.0
    */
-  public static final Int ONE = new Int(1).clean();
+  public static final Int ONE = valueOf(1);
   /**
    * A public constant representing the commonly used value of 2.
    *
    * @since 1.0
    */
-  public static final Int TWO = new Int(2).clean();
+  public static final Int TWO = valueOf(2);
   /**
    * A public constant representing the value 10.
    *
    * @since 1.0
    */
-  public static final Int TEN = new Int(10).clean();
+  public static final Int TEN = valueOf(10);
   /**
    * A public constant representing the commonly used value of 16.
    *
    * @since 1.0
    */
-  public static final Int SIXTEEN = new Int(16).clean();
+  public static final Int SIXTEEN = valueOf(16);
   /**
    * A public constant representing the maximum value that an integer can hold.
    *
    * @since 1.0
    */
-  public static final Int INTMIN = new Int(Integer.MIN_VALUE).clean();
+  public static final Int INTMIN = valueOf(Integer.MIN_VALUE);
   /**
    * A public constant representing the minimum value that an integer can hold.
    *
    * @since 1.0
    */
-  public static final Int INTMAX = new Int(Integer.MAX_VALUE).clean();
+  public static final Int INTMAX = valueOf(Integer.MAX_VALUE);
   /**
    * A public constant representing the maximum value that a long can hold.
    *
    * @since 1.0
    */
-  public static final Int LONGMIN = new Int(Long.MIN_VALUE).clean();
+  public static final Int LONGMIN = valueOf(Long.MIN_VALUE);
   /**
    * A public constant representing the minimum value that a long can hold.
    *
    * @since 1.0
    */
-  public static final Int LONGMAX = new Int(Long.MAX_VALUE).clean();
+  public static final Int LONGMAX = valueOf(Long.MAX_VALUE);
 
 
   /**
@@ -95,13 +94,14 @@ public class Int implements Value
    */
   private boolean negative;
   /**
-   * Represents the infinite precision integer in a little-endian array of hexadecimal values.
-   * Value at the 0th index is the 0x1s place, and values in the 1st index are the 0x10s place, etc.
+   * Represents the infinite precision integer in a little-endian array of unsigned 32-bit limbs.
+   * Value at the 0th index is the 0x1s place, and values in the 1st index are the 0x100000000s place, etc.
+   * Each limb uses the full 32 bits of its <code>int</code>, so it must be read through {@link com.hypereclipse.selkie.cas.Int#LONG_MASK} to get its unsigned value.
    * Note: It MAY be padded with zeros. See: {@link com.hypereclipse.selkie.cas.Int#isClean}.
    *
    * @since 1.0
    */
-  private int[] value; //Hex: 0-F
+  private int[] value; //Unsigned: 0x0-0xFFFFFFFF
   /**
    * Represents if the {@link com.hypereclipse.selkie.cas.Int#value} is "clean".
    * <code>true</code> asserts that the array has no extraneous tailing zeros.
@@ -112,41 +112,89 @@ public class Int implements Value
    */
   private boolean isClean = false;
   /**
-   * A hashmap to store products once they are calculated so they don't need to be recalculated, since multiplication is decently expensive.
+   * The value itself, when it fits in a <code>long</code>. Only meaningful when {@link com.hypereclipse.selkie.cas.Int#isSmall} is <code>true</code>.
+   * Most values that come up fit in a <code>long</code>, and adding or multiplying two of them that way is much faster than going through the limbs.
+   *
+   * @since 1.2
+   */
+  private long small;
+  /**
+   * <code>true</code> if {@link com.hypereclipse.selkie.cas.Int#small} holds this value.
+   * When it does, {@link com.hypereclipse.selkie.cas.Int#value} may be <code>null</code> until something needs the limbs, and is then filled in by {@link com.hypereclipse.selkie.cas.Int#clean()}.
+   *
+   * @since 1.2
+   */
+  private boolean isSmall = false;
+  /**
+   * The hash code, once {@link com.hypereclipse.selkie.cas.Int#hashCode()} has worked it out, or zero if it hasn't yet.
+   * {@link com.hypereclipse.selkie.cas.Int}s are used as keys in the product cache, so it is asked for often, and this saves reading every limb each time.
+   *
+   * @since 1.2
+   */
+  private int hash;
+  /**
+   * A cache to store products once they are calculated so they don't need to be recalculated, since multiplication is decently expensive.
+   * Bounded by the number of limbs it holds, and only used for factors large enough to be worth it. See {@link com.hypereclipse.selkie.cas.LruProductCache}.
+   * The size can be set with the <code>com.hypereclipse.selkie.cas.productCacheLimbs</code> system property, and the smallest factor with <code>com.hypereclipse.selkie.cas.productCacheMinLimbs</code>.
+   * <code>null</code> if products should not be cached at all.
    *
    * @since 1.0
    */
-  private static HashMap<Int, HashMap<Int,Int>> precalculatedMultiplications = new HashMap<>();
+  private static volatile ProductCache productCache = new LruProductCache(
+      Long.getLong("com.hypereclipse.selkie.cas.productCacheLimbs", 1 << 22),
+      Integer.getInteger("com.hypereclipse.selkie.cas.productCacheMinLimbs", 64));
   // Should one be added for division/modulus? Probably.
+  /**
+   * Mask used to read a limb of {@link com.hypereclipse.selkie.cas.Int#value} as an unsigned value.
+   *
+   * @since 1.1
+   */
+  static final long LONG_MASK = 0xFFFFFFFFL;
 
 
 
+  /**
+   * Gets an {@link com.hypereclipse.selkie.cas.Int} for the given primitive value.
+   *
+   * Values from -1024 to 1024, and positive powers of two and ten, are made once and shared, so asking for them again does not create anything new.
+   * Since they are shared, they can also be compared by identity, which some operations check first.
+   * Anything else is a new {@link com.hypereclipse.selkie.cas.Int}, the same as {@link com.hypereclipse.selkie.cas.Int#Int(long)}.
+   *
+   * @param value The input integer primitive to convert to an {@link com.hypereclipse.selkie.cas.Int}.
+   * @return An {@link com.hypereclipse.selkie.cas.Int} representing the value.
+   * @since 1.2
+   */
+  public static Int valueOf(long value)
+  {
+    if (value >= Interned.LOW && value <= Interned.HIGH)
+      return Interned.SMALL[(int) value - Interned.LOW];
+    if (value > 0)
+    {
+      // 2^k and 10^k = 2^k * 5^k both end in exactly k zero bits, so that says which one it could be.
+      int k = Long.numberOfTrailingZeros(value);
+      if (value == 1L << k)
+        return Interned.POWERS_OF_TWO[k];
+      if (k < Interned.POWERS_OF_TEN_VALUES.length && value == Interned.POWERS_OF_TEN_VALUES[k])
+        return Interned.POWERS_OF_TEN[k];
+    }
+    return new Int(value);
+  }
+
   /**
    * Constructor for {@link com.hypereclipse.selkie.cas.Int}.
    *
    * Creates a new {@link com.hypereclipse.selkie.cas.Int} object from the given primitive value.
+   * Prefer {@link com.hypereclipse.selkie.cas.Int#valueOf(long)}, which shares the commonly used values.
    *
    * @param value The input integer primitive to convert to an {@link com.hypereclipse.selkie.cas.Int}.
    * @since 1.0
    */
   public Int(long value)
   {
-    // Deal with negatives
-    if (value < 0)
-    {
-      negative = true;
-      value = -value;
-    }
-
-    // Determine the length of the array by using the number of digits in the number in base ten.
-    this.value = new int[((Long) value).toString().length()];
-
-    // Fill in the digits in the value array.
-    for (int i = 0; value > 0; i++)
-    {
-      this.value[i] = (int) (value % 0x10);
-      value /= 0x10;
-    }
+    // The limbs are only made if something needs them. See Int#clean().
+    this.small = value;
+    this.isSmall = true;
+    this.negative = value < 0;
   }
 
   /**
@@ -155,83 +203,75 @@ public class Int implements Value
    * Creates a new {@link com.hypereclipse.selkie.cas.Int} object from a given String.
    *
    * @param value The string that represents an integer value to convert to an {@link com.hypereclipse.selkie.cas.Int}.
+   * @throws IllegalArgumentException If there are no digits after the sign, or a character is not a digit.
    * @since 1.0
    */
   public Int(String value)
   {
-    // Convert to linked list to read easier
-    StringBuilder sb = new StringBuilder(value);
-
-    StringProcessing.removeLeadingWhitespace(sb);
+    // Walk the string with indices rather than removing characters from the front, so parsing stays linear.
+    int start = 0;
+    int end = value.length();
+    while (start < end && Character.isWhitespace(value.charAt(start)))
+      start++;
+    while (end > start && Character.isWhitespace(value.charAt(end - 1)))
+      end--;
 
     // Deal with signed values
     boolean willBeNegative = false;
-    if (sb.charAt(0) == '-' || sb.charAt(0) == '+')
+    if (start < end && (value.charAt(start) == '-' || value.charAt(start) == '+'))
     {
-      if (sb.charAt(0) == '-')
+      if (value.charAt(start) == '-')
         willBeNegative = true;
-      sb.deleteCharAt(0);
+      start++;
     }
 
-    StringProcessing.removeLeadingWhitespace(sb);
+    while (start < end && Character.isWhitespace(value.charAt(start)))
+      start++;
 
     // Deal with bases
     int base = 10;
-    if (sb.length() > 2 && (sb.charAt(0) == '0' && (sb.charAt(1) == 'b' || sb.charAt(1) == 'x' || sb.charAt(1) == 'o')))
+    if (end - start > 2 && value.charAt(start) == '0')
     {
-      sb.deleteCharAt(0);
-      char b = sb.charAt(0);
-      sb.deleteCharAt(0);
-      switch (b)
+      switch (value.charAt(start + 1))
       {
         case 'b':
           base = 2;
+          start += 2;
           break;
         case 'o':
           base = 8;
+          start += 2;
           break;
         case 'x':
           base = 16;
+          start += 2;
           break;
       }
     }
 
-    // Determine the length of the array by using the number of digits in the number in base ten.
-    this.value = new int[0];
-
-    StringProcessing.removeTrailingWhitespace(sb);
-
-    while (sb.length() > 0)
-    {
-      this.value = this.multiply(base).value;
-      char v = sb.charAt(0);
-      sb.deleteCharAt(0);
-      if (!CharProcessing.contains(charset(base), v))
-        throw new IllegalArgumentException("Expected number, found: \'" + v + "\'");
-      int val = CharProcessing.isNumeric(v) ? v - '0' : Character.isLowerCase(v) ? v - 'a' + 0xa : v - 'A' + 0xA;
-      this.value = ((Int)this.add(new Int(val))).value;
-    }
-
-    if (willBeNegative)
-      negative = true;
-
-    forceClean();
+    if (start == end)
+      throw new IllegalArgumentException("There must be at least one digit!");
+    this.value = RadixConversion.parse(value, start, end, base, charset(base));
+    this.negative = willBeNegative && this.value.length != 0;
+    this.isClean = true;
+    fitSmall();
   }
 
   /**
-   * Private constructor for {@link com.hypereclipse.selkie.cas.Int}.
+   * Package-private constructor for {@link com.hypereclipse.selkie.cas.Int}.
    *
-   * This constructor is used internally by {@link com.hypereclipse.selkie.cas.Int} to create new {@link com.hypereclipse.selkie.cas.Int} objects given an existing set of instance variables.
-   * Requires that the {@link int[]} will never be modified after the object is created, and thus is private.
+   * This constructor is used internally by {@link com.hypereclipse.selkie.cas.Int} and its helpers (such as {@link com.hypereclipse.selkie.cas.Multiplication}) to create new {@link com.hypereclipse.selkie.cas.Int} objects given an existing set of instance variables.
+   * Requires that the {@link int[]} will never be modified after the object is created, and thus is not public.
    *
    * @param value The existing array of digits for a new {@link com.hypereclipse.selkie.cas.Int} object.
    * @param negative Whether the new {@link com.hypereclipse.selkie.cas.Int} is negative or not.
    * @since 1.0
    */
-  private Int(int[] value, boolean negative)
+  Int(int[] value, boolean negative)
   {
     this.value = value;
     this.negative = negative;
+    fitSmall();
   }
 
   /**
@@ -248,37 +288,40 @@ public class Int implements Value
   {
     this.value = val.value;
     this.negative = val.negative;
+    this.small = val.small;
+    this.isSmall = val.isSmall;
   }
 
   /**
+   * Creates a new {@link com.hypereclipse.selkie.cas.Int} from its digits in any base, using the same charset as {@link com.hypereclipse.selkie.cas.Int#exact(int, char[], boolean)}.
    *
-   *
-   * @param integerString
-   * @param base
-   * @return
+   * @param integerString The digits of the integer, most significant first, with an optional leading sign.
+   * @param base The base the digits are in.
+   * @return The parsed {@link com.hypereclipse.selkie.cas.Int}.
+   * @throws IllegalArgumentException If the base is not supported, there are no digits after the sign, or a character is not a digit in that base.
+   * @since 1.1
    */
   public static Int create(String integerString, int base)
   {
+    if (base < 2)
+      throw new IllegalArgumentException("That base is not supported!");
     char[] baseCharset = charset(base);
 
     boolean isPosative = true;
-    if (integerString.charAt(0) == '-' || integerString.charAt(0) == '+')
+    int start = 0;
+    if (integerString.length() > 0 && (integerString.charAt(0) == '-' || integerString.charAt(0) == '+'))
     {
       if (integerString.charAt(0) == '-')
         isPosative = false;
-      integerString = integerString.substring(1);
+      start = 1;
     }
+    if (start == integerString.length())
+      throw new IllegalArgumentException("There must be at least one digit!");
 
-    Int baseInt = new Int(base);
-    Int ret = ZERO;
-    for (char c : integerString.toCharArray())
-    {
-      int value = StringProcessing.indexOf(baseCharset, c);
-      ret = (Int)(ret.multiply(baseInt).add(new Int(value)));
-    }
-    if (!isPosative)
-      ret = (Int)ret.negate();
-    return ret;
+    int[] mag = RadixConversion.parse(integerString, start, integerString.length(), base, baseCharset);
+    if (mag.length == 0)
+      return ZERO;
+    return new Int(mag, !isPosative).clean();
   }
 
 
@@ -302,39 +345,42 @@ public class Int implements Value
 
     Int o = (Int)other;
 
+    // If both fit in a long, so will the sum, unless it overflows.
+    if (isSmall && o.isSmall)
+    {
+      long sum = small + o.small;
+      // The same check as Math#addExact(long, long), without the exception: it overflowed if the sum's sign differs from both of theirs.
+      if (((small ^ sum) & (o.small ^ sum)) >= 0)
+        return valueOf(sum);
+    }
+
     // Simple cases that require no processing
     if (o.isZero()) return this;
     if (isZero()) return o;
     // Special cases that require some processing before we can begin.
     if (o.isNegative()) return subtract(o.negate());
     if (isNegative()) return o.subtract(this.negate());
+    clean();
+    o.clean();
 
     // Determine the new Int's length. The longer length + 1 should be safe. (Incase of a carry)
     int lenMax = value.length < o.value.length ? o.value.length + 1 : value.length + 1;
     int[] ret = new int[lenMax];
 
-    // Boolean to hold if there is a sixteen to carry.
-    boolean carry = false;
+    // Holds the sum of each pair of limbs. Anything above the low 32 bits is the carry into the next limb.
+    long sum = 0;
 
-    // For each digit, ...
+    // For each limb, ...
     for (int i = 0; i < lenMax; i++)
     {
-      // ... add each value together (and add one if carry), ...
-      ret[i] = get(i) + o.get(i) + (carry ? 1 : 0);
+      // ... add each value together (and the carry from the last limb), ...
+      sum = (get(i) & LONG_MASK) + (o.get(i) & LONG_MASK) + (sum >>> 32);
 
-      // ... and if its too large, carry.
-      carry = false;
-      if (ret[i] > 0xF)
-      {
-        ret[i] -= 0x10;
-        carry = true;
-
-        if (ret[i]>0xF)
-          throw new IllegalStateException("Carrying a number does not solve out of bounds error. See Int#add(Int). " + atsr(this.value) + " " + atsr(o.value));
-      }
+      // ... and keep the low half, leaving the high half to carry.
+      ret[i] = (int) sum;
     }
     // If there is another carry we haven't dealt with... Then something is broken and it needs to be fixed.
-    if (carry)
+    if ((sum >>> 32) != 0)
       throw new IllegalStateException("Carrying a number beyond its bound. See Int#add(Int). " + atsr(this.value) + " " + atsr(o.value));
     return new Int(ret, false);
   }
@@ -354,50 +400,55 @@ public class Int implements Value
   {
     // We only want to process it if we know how to (when its also an Int). Otherwise, we'll have their class process it.
     if (!(other instanceof Int))
-      other.negate().add(this);
+      return other.negate().add(this);
 
     Int o = (Int)other;
 
+    // If both fit in a long, so will the difference, unless it overflows.
+    if (isSmall && o.isSmall)
+    {
+      long difference = small - o.small;
+      // The same check as Math#subtractExact(long, long), without the exception: it overflowed if the signs were different, and the difference's sign differs from this one's.
+      if (((small ^ o.small) & (small ^ difference)) >= 0)
+        return valueOf(difference);
+    }
+
     // Simple cases that require no processing
     if (o.isZero()) return this;
     if (isZero()) return o.negate();
     if (equals(o)) return ZERO;
     // Special cases that require some processing before we can begin.
     if (o.isNegative()) return add(o.negate());
-    if (isNegative()) return o.negate().add(this.negate());
+    if (isNegative()) return negate().add(o).negate();
 
     // We want our answer that we generate here to be positive, so should the number we are subtracting be larger, flip it so that cant happen.
     if (this.less(o))
       return o.subtract(this).negate();
 
     // ASSERTION: <code>this</code> must be greater than <code>o</code> now.
+    clean();
+    o.clean();
 
     // The new Int's length will be at most this Int's length, since this is greater than o. (Not adding, so the new value's magnitude wont be larger than the largest existing one)
     int lenMax = value.length;
     int[] ret = new int[lenMax];
 
-    // The value being carried up (cuts out of the next digit)
-    // should the digit being subtracted be larger than what its being subtracted from, that's a problem since our {@link #value} only holds positive values. We must carry "take" a 0x10 out of the next digit, so we can stay positive. This is our "carry".
-    boolean carry = false;
+    // The value being carried up (cuts out of the next limb)
+    // should the limb being subtracted be larger than what its being subtracted from, that's a problem since our {@link #value} only holds positive values. We must carry "take" a 0x100000000 out of the next limb, so we can stay positive. This is our "carry".
+    // The difference is kept as a signed long, so an arithmetic shift of it gives -1 when we need to borrow, and 0 otherwise.
+    long difference = 0;
 
-    // For each digit, ...
+    // For each limb, ...
     for (int i = 0; i < lenMax; i++)
     {
-      // ... subtract the values (and a few more if needed by the carry), ...
-      ret[i] = get(i) - o.get(i) - (carry ? 1 : 0);
+      // ... subtract the values (and one more if needed by the carry), ...
+      difference = (get(i) & LONG_MASK) - (o.get(i) & LONG_MASK) + (difference >> 32);
 
-      // ... and if its too small add 0x10 so its not and carry that to the next digit.
-      carry = false;
-      if (ret[i] < 0x0)
-      {
-        ret[i] += 0x10;
-        carry = true;
-        if (ret[i]<0x0)
-          throw new IllegalStateException("Carrying a negative number does not solve negative. See Int#subtract(Int). " + atsr(this.value) + " " + atsr(o.value));
-      }
+      // ... and keep the low half, which is the same as adding 0x100000000 and carrying if it was negative.
+      ret[i] = (int) difference;
     }
     // If there is another carry we haven't dealt with... Then something is broken and it needs to be fixed.
-    if (carry)
+    if ((difference >> 32) != 0)
       throw new IllegalStateException("Carrying a negative number beyond its bound. See Int#subtract(Int). " + atsr(this.value) + " " + atsr(o.value));
     return new Int(ret, false);
   }
@@ -421,58 +472,125 @@ public class Int implements Value
 
     Int o = (Int)other;
 
+    // The shared ONE can be spotted without looking at its value.
+    if (o == ONE) return this;
+    if (this == ONE) return o;
+
+    // If both fit in a long, the product does too as long as the high half of the full 128-bit product is just the sign of the low half.
+    if (isSmall && o.isSmall)
+    {
+      long product = small * o.small;
+      if (Math.multiplyHigh(small, o.small) == (product >> 63))
+        return valueOf(product);
+    }
+
     // Simple cases that require no processing
-    // {@link #isZero()} calls {@link #clean()} in them, so this cleans them for us, which we need so they have the correct hash and can be used in the hashmap lookup.
+    // {@link #isZero()} calls {@link #clean()} in them, so this cleans them for us, which we need so they have the correct hash and can be used in the cache lookup.
     if (isZero() || o.isZero()) return ZERO;
-    // Squaring is more efficient than long multiplication, so lets do that instead.
-    //if (equals(o)) return square();
 
     // If we've done the math before, no need to do it again. Just look up last time's answer.
-    if (precalculatedMultiplications.containsKey(this) && precalculatedMultiplications.get(this).containsKey(o))
-      return precalculatedMultiplications.get(this).get(o);
-    if (precalculatedMultiplications.containsKey(o) && precalculatedMultiplications.get(o).containsKey(this))
-      return precalculatedMultiplications.get(o).get(this);
-
-    // We want this's length shorter than o's, so the multiplication is done in less steps.
-    if (o.value.length < value.length)
-      return o.multiply(this);
-
-    // Store if the result is negative, so we don't have to deal with negatives in the actual multiplication.
-    boolean negative = isNegative() ^ o.isNegative();
-    o = (Int)o.abs();
-    // We only look at the digits from this, and the whole number of other, so we don't need to reset the sign of this.
-
-    // Long multiplication: Multiply the longer value by each digit in the smaller one shifted over by its place, and add them all together.
-    Int ret = ZERO;
-    for (int i = 0; i < value.length; i++)
-      ret = (Int)(ret.add(o.multiply(value[i]).shift(4 * i)));
+    // Read the cache once, in case it is swapped out while we're working.
+    ProductCache cache = productCache;
+    if (cache != null)
+    {
+      Int cached = cache.get(this, o);
+      if (cached != null)
+        return cached;
+    }
 
-    // Set the final sign of the product. And <code>ret</code> should always be positive to begin with, since o is set to positive and this's digits are all always positive.
-    if (negative)
-      ret = (Int)ret.negate();
+    Int ret;
+    // Squaring is more efficient than long multiplication, so lets do that instead.
+    if (this == o || equals(o))
+      ret = square();
+    else
+      // The sign of the product only depends on the signs of the factors, so the magnitudes are multiplied on their own.
+      // Which algorithm to use (long multiplication, Karatsuba, or Toom-Cook) is picked by Multiplication based on their sizes.
+      ret = new Int(Multiplication.multiply(magnitude(), o.magnitude()), isNegative() ^ o.isNegative());
 
-    // Save this to the hashmap of previous multiplications to save us the work, should we be asked the same question again.
-    if (!precalculatedMultiplications.containsKey(this))
-      precalculatedMultiplications.put(this, new HashMap<>());
-    precalculatedMultiplications.get(this).put(o, ret);
+    // Save this to the cache of previous multiplications to save us the work, should we be asked the same question again.
+    if (cache != null)
+      cache.put(this, o, ret);
 
     return ret;
   }
 
+  /**
+   * Divides this {@link com.hypereclipse.selkie.cas.Int} by a {@link com.hypereclipse.selkie.cas.Value} exactly.
+   *
+   * If the <code>other</code> value is an {@link com.hypereclipse.selkie.cas.Int} that divides this one, the quotient is an {@link com.hypereclipse.selkie.cas.Int}.
+   * Otherwise it is a {@link com.hypereclipse.selkie.cas.Rational}, which cancels the common factors lazily. See {@link com.hypereclipse.selkie.cas.Rational#valueOf(Int, Int)}.
+   *
+   * @param other The other value to divide this by.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the quotient.
+   * @throws IllegalArgumentException If <code>other</code> is zero.
+   * @since 1.2
+   */
+  public Value divide(Value other)
+  {
+    if (!(other instanceof Int))
+      return Rational.valueOf(this).divide(other);
+
+    Int o = (Int)other;
+    if (o.isZero()) throw new IllegalArgumentException("Divide by zero.");
+    if (o == ONE) return this;
+    if (isSmall && o.isSmall && !(small == Long.MIN_VALUE && o.small == -1))
+      return small % o.small == 0 ? valueOf(small / o.small) : Rational.fraction(this, o);
+    Int[] qr = divRem(o);
+    if (qr[1].isZero())
+      return qr[0];
+    return Rational.fraction(this, o);
+  }
+
   /**
    * Divides this {@link com.hypereclipse.selkie.cas.Int} by a {@link com.hypereclipse.selkie.cas.Value} using integer division.
    *
-   * Since {@link com.hypereclipse.selkie.cas.Int} is the lowest level representation of a value, if the <code>other</code> value is anything other than an {@link com.hypereclipse.selkie.cas.Int}, it'll throw an {@link java.lang.IllegalArgumentException} because we don't know how to deal with that yet.
+   * Since {@link com.hypereclipse.selkie.cas.Int} is the lowest level representation of a value, if the <code>other</code> value is a {@link com.hypereclipse.selkie.cas.Rational}, it is handled by {@link com.hypereclipse.selkie.cas.Rational#divideInteger(Value)}.
+   * Anything else other than an {@link com.hypereclipse.selkie.cas.Int} will throw an {@link java.lang.IllegalArgumentException} because we don't know how to deal with that yet.
    *
    * If the <code>other</code> value is an {@link com.hypereclipse.selkie.cas.Int}, the quotient between the two will be taken and a new {@link com.hypereclipse.selkie.cas.Int} will be created to represent them.
    *
-   * This method uses long division to
+   * This method uses {@link com.hypereclipse.selkie.cas.Int#divRem(Value)}, and truncates towards zero.
    *
    * @param other The other value to divided this by.
    * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the product. If the <code>other</code> value is an {@link com.hypereclipse.selkie.cas.Int}, then it will then return a new {@link com.hypereclipse.selkie.cas.Int} object representing the product.
    * @since 1.0
    */
   public Int divideInteger(Value other)
+  {
+    if (other instanceof Rational)
+      return Rational.valueOf(this).divideInteger(other);
+    return divRem(other)[0];
+  }
+
+  /**
+   * Finds the remainder of dividing this {@link com.hypereclipse.selkie.cas.Int} by a {@link com.hypereclipse.selkie.cas.Value} using integer division.
+   *
+   * The remainder has the same sign as this {@link com.hypereclipse.selkie.cas.Int}, so that <code>this == q*other + r</code> where <code>q</code> is {@link com.hypereclipse.selkie.cas.Int#divideInteger(Value)}.
+   *
+   * @param other The other value to divided this by.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the remainder.
+   * @since 1.0
+   */
+  public Value mod(Value other)
+  {
+    if (other instanceof Rational)
+      return Rational.valueOf(this).mod(other);
+    return divRem(other)[1];
+  }
+
+  /**
+   * Divides this {@link com.hypereclipse.selkie.cas.Int} by a {@link com.hypereclipse.selkie.cas.Value} using integer division, finding both the quotient and the remainder at once.
+   *
+   * Since {@link com.hypereclipse.selkie.cas.Int} is the lowest level representation of a value, if the <code>other</code> value is anything other than an {@link com.hypereclipse.selkie.cas.Int}, it'll throw an {@link java.lang.IllegalArgumentException} because we don't know how to deal with that yet.
+   *
+   * The quotient truncates towards zero, and the remainder has the same sign as this {@link com.hypereclipse.selkie.cas.Int}.
+   * The magnitudes are divided by {@link com.hypereclipse.selkie.cas.Division}, which picks a single limb division, Knuth's long division, or Burnikel-Ziegler recursive division based on their sizes.
+   *
+   * @param other The other value to divided this by.
+   * @return A two element array holding the quotient and then the remainder.
+   * @since 1.2
+   */
+  public Int[] divRem(Value other)
   {
     // We only want to process it if we know how to (when its also an Int). Otherwise, we'll have their class process it.
     if (!(other instanceof Int))
@@ -480,82 +598,51 @@ public class Int implements Value
 
     Int o = (Int)other;
 
+    // Java's division and remainder of longs truncate the same way. The only one that can overflow is Long.MIN_VALUE / -1.
+    if (isSmall && o.isSmall && o.small != 0 && !(small == Long.MIN_VALUE && o.small == -1))
+      return new Int[]{valueOf(small / o.small), valueOf(small % o.small)};
+
     // Simple cases that require no processing
-    // checks isZero on both, which cleans for us.
-    if (this.isZero()) return this;
     // Can't divide by zero. Yet.
     if (o.isZero()) throw new IllegalArgumentException("Divide by zero.");
-    if (o.equals(ONE)) return this;
-
-    // Special cases that require some processing before we can begin.
-    // Take care of negatives
-    if (this.isNegative())
-      if (o.isNegative())
-        return negate().divideInteger(o.negate());
-      else
-        return (Int)negate().divideInteger(o).negate();
-    if (o.isNegative())
-      return (Int)divideInteger(o.negate()).negate();
-
-    // Obvious zero case
-    if (this.less(o))
-      return ZERO;
-
-    // We are doing long division, and if it were on paper, it would look something like this:
-    //     ret
-    //  o / this
+    if (this.isZero()) return new Int[]{ZERO, ZERO};
 
-    // The length will be less than the original number.
-    int[] ret = new int[this.value.length];
-    int indecieOfCompare = value.length - o.value.length;
-    Int temp = this;
-    while (temp.greaterEqual(o))
-    {
-      // If its divisable at this point, do so.
-      while (temp.shift(-4 * indecieOfCompare).greaterEqual(o))
-      {
-        ret[indecieOfCompare]++;
-        temp = (Int)temp.subtract(o.shift(4 * indecieOfCompare));
-      }
-      indecieOfCompare--;
-    }
-
-    return new Int(ret, false);
-  }
-
-  public Value mod(Value other)
-  {
-    return subtract(divideInteger(other).multiply(other));
+    // The signs are dealt with after dividing the magnitudes.
+    int[][] qr = Division.divideAndRemainder(magnitude(), o.magnitude());
+    Int quotient = qr[0].length == 0 ? ZERO : new Int(qr[0], isNegative() ^ o.isNegative());
+    Int remainder = qr[1].length == 0 ? ZERO : new Int(qr[1], isNegative());
+    return new Int[]{quotient, remainder};
   }
 
+  /**
+   * Multiplies this {@link com.hypereclipse.selkie.cas.Int} by a single limb.
+   *
+   * @param coeff The factor, read as an unsigned 32-bit value.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the product.
+   * @since 1.0
+   */
   private Int multiply(int coeff)
   {
-    //if (coeff < 0 || coeff > 0xF)
-    //  throw new IllegalArgumentException("factor invalid");
     if (coeff == 0)
       return ZERO;
     if (coeff == 1)
       return this;
 
-    int[] ret = new int[value.length + (int)(Math.log(coeff) / Math.log(0x10)) + 1];
-    int carry = 0;
-    for (int i = 0; i < ret.length; i++)
-    {
-      ret[i] = coeff * get(i) + carry;
-      carry = ret[i] / 0x10;
-      ret[i] %= 0x10;
-    }
-    return new Int(ret, isNegative());
+    return new Int(new MutableInt(magnitude()).multiplyAddWord(coeff, 0).toMagnitude(), isNegative());
   }
 
   public Value negate()
   {
-    return new Int(value, isZero() ? false : !negative);
+    if (isSmall && small != Long.MIN_VALUE)
+      return valueOf(-small);
+    return new Int(magnitude(), isZero() ? false : !negative);
   }
 
   public Value abs()
   {
-    return isNegative() ? new Int(value, false) : this;
+    if (isSmall && small != Long.MIN_VALUE)
+      return small < 0 ? valueOf(-small) : this;
+    return isNegative() ? new Int(magnitude(), false) : this;
   }
 
   public String exact()
@@ -569,11 +656,12 @@ public class Int implements Value
   public String exact(int base, boolean displayBase) {return exact(base,charset(base),displayBase);}
   public String exact(int base, char[] charset, boolean displayBase)
   {
-    if (base == 0x10 && (charset == null || charset.equals(CHARSET_HEX)))
-      return exact();
+    if (charset == null)
+      charset = charset(base);
+    if (base < 2)
+      throw new IllegalArgumentException("That base is not supported!");
     if (charset.length < base)
       throw new IllegalArgumentException("There must be enough characters in the charset for each value in that base!");
-    StringBuilder sb = new StringBuilder((value.length * 0x10) / base + 5);
     String prefix = "";
     if (isNegative()) {prefix = "-"; }
     if (displayBase)
@@ -584,45 +672,17 @@ public class Int implements Value
       if (base != 0x10 && base != 10 && base != 0x8 && base != 0x2) prefix += "(b-" + base + ")";
     }
 
-    Int baseI = new Int(base);
-    Int temp = (Int) this.abs();
-
-    if (temp.isZero())
-      sb.append('0');
-    else
-      while (!temp.isZero())
-      {
-        Int val = temp.divideInteger(baseI);
-        Int indexI = (Int) temp.subtract(val.multiply(baseI));
-        int index = indexI.toInt();
-        sb.append(index < charset.length ? charset[index] : '#');
-        temp = val;
-      }
-    return prefix + sb.reverse().toString();
+    if (isZero())
+      return prefix + '0';
+    // Rather than peeling off one digit at a time, RadixConversion splits the number in half by powers of the base, so big numbers don't take quadratic time.
+    return prefix + RadixConversion.toString(magnitude(), base, charset);
   }
 
   public Boolean equals(Value other)
   {
     if (other instanceof Int)
-    {
-      Int o = (Int) other;
-
-      if (isPositive() ^ isPositive())
-        return (isZero() && o.isZero());
-
-      clean();
-      o.clean();
-      if (value.length - o.value.length!=0)
-        return false;
-
-      for (int i = value.length - 1; i >= 0; i--)
-      {
-        if (get(i) != o.get(i)) return false;
-      }
-      return true;
-    }
-    else
-      return other.equals(this);
+      return compare((Int) other) == 0;
+    return other.equals(this);
   }
 
   public Boolean isNumber()
@@ -637,6 +697,8 @@ public class Int implements Value
 
   public Boolean isZero()
   {
+    if (isSmall)
+      return small == 0;
     clean();
     return value.length == 0 || (value.length == 1 && value[0] == 0);
   }
@@ -649,67 +711,373 @@ public class Int implements Value
   public Boolean greater(Value other)
   {
     if (other instanceof Int)
-    {
-      Int o = (Int) other;
-
-      if (isPositive() && o.isNegative())
-        return true;
-      if (isNegative() && o.isPositive())
-        return false;
-
-      boolean ret = isPositive();
-      this.clean();
-      o.clean();
-      if (value.length - o.value.length != 0)
-        return value.length > o.value.length ? ret : !ret;
-
-      for (int i = value.length - 1; i >= 0; i--)
-      {
-        if (get(i) > o.get(i)) return ret;
-        if (get(i) < o.get(i)) return !ret;
-      }
-      return false;
-    }
-    else
-      return !equals(other) && other.less(this);
+      return compare((Int) other) > 0;
+    return other.less(this);
   }
 
   public Boolean less(Value other)
   {
-    return !equals(other) && !greater(other);
+    if (other instanceof Int)
+      return compare((Int) other) < 0;
+    return other.greater(this);
   }
 
   public Boolean greaterEqual(Value other)
   {
-    return greater(other) || equals(other);
+    if (other instanceof Int)
+      return compare((Int) other) >= 0;
+    return other.lessEqual(this);
   }
 
   public Boolean lessEqual(Value other)
   {
-    return !greater(other);
+    if (other instanceof Int)
+      return compare((Int) other) <= 0;
+    return other.greaterEqual(this);
   }
 
+  /**
+   * Compares this {@link com.hypereclipse.selkie.cas.Int} to another, without creating anything.
+   *
+   * Every ordering of two {@link com.hypereclipse.selkie.cas.Int}s goes through here. Values held in a <code>long</code> are compared as one,
+   * and otherwise the signs are checked before the limbs are read, from the top down.
+   *
+   * @param o The other {@link com.hypereclipse.selkie.cas.Int}.
+   * @return A negative number, zero, or a positive number as this is less than, equal to, or greater than <code>o</code>.
+   * @since 1.2
+   */
+  private int compare(Int o)
+  {
+    if (this == o)
+      return 0;
+    if (isSmall && o.isSmall)
+      return Long.compare(small, o.small);
+
+    // Anything not held in a long is too big to be zero, so its sign is just negative.
+    boolean neg = isSmall ? small < 0 : negative;
+    boolean oNeg = o.isSmall ? o.small < 0 : o.negative;
+    if (neg != oNeg)
+      return neg ? -1 : 1;
+
+    int ret;
+    if (!isSmall && !o.isSmall)
+      ret = Magnitude.compare(value, o.value);
+    // Long.MIN_VALUE's magnitude, 2^63, is read correctly as unsigned.
+    else if (isSmall)
+      ret = -Magnitude.compare(o.value, neg ? -small : small);
+    else
+      ret = Magnitude.compare(value, oNeg ? -o.small : o.small);
+    return neg ? -ret : ret;
+  }
 
 
+
+  /**
+   * Shifts the magnitude of this {@link com.hypereclipse.selkie.cas.Int}, keeping its sign.
+   * Unlike {@link com.hypereclipse.selkie.cas.Int#shiftRight(int)}, shifting a negative value right truncates towards zero, rather than rounding down.
+   *
+   * @param qty The number of bits to shift left by. Negative to shift right.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the shifted value.
+   * @since 1.0
+   */
   public Int shift(int qty)
   {
-    if (qty % 4 == 0)
+    if (qty >= 0)
+      return shiftLeft(qty);
+    // Anything shifted right past its length is zero. This also keeps -qty from overflowing.
+    if (qty <= -bitLength() - 1)
+      return ZERO;
+    return new Int(Magnitude.shiftRight(magnitude(), -qty), isNegative());
+  }
+
+  /**
+   * Shifts this {@link com.hypereclipse.selkie.cas.Int} left, multiplying it by 2^n.
+   *
+   * @param n The number of bits to shift by. Negative to shift right instead.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>this * 2^n</code>, rounded down if <code>n</code> is negative.
+   * @since 1.2
+   */
+  public Int shiftLeft(int n)
+  {
+    if (n == 0)
+      return this;
+    if (n < 0)
+      return n == Integer.MIN_VALUE ? shiftRight(Integer.MAX_VALUE).shiftRight(1) : shiftRight(-n);
+    if (isSmall && n < 63)
+    {
+      long ret = small << n;
+      // It fits if shifting back gives the same value.
+      if (ret >> n == small)
+        return valueOf(ret);
+    }
+    if (isZero())
+      return ZERO;
+    return new Int(Magnitude.shiftLeft(magnitude(), n), negative);
+  }
+
+  /**
+   * Shifts this {@link com.hypereclipse.selkie.cas.Int} right, dividing it by 2^n and rounding down, the same as <code>&gt;&gt;</code> on a two's complement value.
+   * So negative values never shift past -1.
+   *
+   * @param n The number of bits to shift by. Negative to shift left instead.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>floor(this / 2^n)</code>.
+   * @since 1.2
+   */
+  public Int shiftRight(int n)
+  {
+    if (n == 0)
+      return this;
+    if (n < 0)
+      return n == Integer.MIN_VALUE ? shiftLeft(Integer.MAX_VALUE).shiftLeft(1) : shiftLeft(-n);
+    if (isSmall)
+      return valueOf(small >> Math.min(n, 63));
+
+    int[] mag = magnitude();
+    int[] ret = Magnitude.shiftRight(mag, n);
+    // Shifting the magnitude truncates towards zero. For negative values, rounding down means one further from zero if any set bits were dropped.
+    if (negative && Magnitude.lowestSetBit(mag) < n)
+      ret = Magnitude.add(ret, new int[]{1});
+    return new Int(ret, negative);
+  }
+
+  /**
+   * Finds the bitwise AND of this {@link com.hypereclipse.selkie.cas.Int} and another, treating both as infinite two's complement values.
+   *
+   * @param other The other value.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>this &amp; other</code>.
+   * @since 1.2
+   */
+  public Int and(Int other)
+  {
+    if (isSmall && other.isSmall)
+      return valueOf(small & other.small);
+    return bitwise(other, '&');
+  }
+
+  /**
+   * Finds the bitwise OR of this {@link com.hypereclipse.selkie.cas.Int} and another, treating both as infinite two's complement values.
+   *
+   * @param other The other value.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>this | other</code>.
+   * @since 1.2
+   */
+  public Int or(Int other)
+  {
+    if (isSmall && other.isSmall)
+      return valueOf(small | other.small);
+    return bitwise(other, '|');
+  }
+
+  /**
+   * Finds the bitwise XOR of this {@link com.hypereclipse.selkie.cas.Int} and another, treating both as infinite two's complement values.
+   *
+   * @param other The other value.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>this ^ other</code>.
+   * @since 1.2
+   */
+  public Int xor(Int other)
+  {
+    if (isSmall && other.isSmall)
+      return valueOf(small ^ other.small);
+    return bitwise(other, '^');
+  }
+
+  /**
+   * Flips every bit of this {@link com.hypereclipse.selkie.cas.Int}, treating it as an infinite two's complement value.
+   *
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>~this</code>, which is <code>-this - 1</code>.
+   * @since 1.2
+   */
+  public Int not()
+  {
+    if (isSmall)
+      return valueOf(~small);
+    return (Int) negate().subtract(ONE);
+  }
+
+  /**
+   * Finds the number of bits needed to hold this {@link com.hypereclipse.selkie.cas.Int} in two's complement, not counting the sign bit.
+   * This is the bit length of the magnitude for non-negative values, and the bit length of <code>~this</code> for negative ones (so -1 is 0 bits, and -128 is 7).
+   *
+   * @return The number of bits.
+   * @since 1.2
+   */
+  public long bitLength()
+  {
+    if (isSmall)
+      return 64 - Long.numberOfLeadingZeros(small < 0 ? ~small : small);
+    int[] mag = magnitude();
+    long ret = Magnitude.bitLength(mag);
+    // ~this is |this| - 1, which is one bit shorter only when |this| is a power of two.
+    if (negative && Magnitude.lowestSetBit(mag) == ret - 1)
+      ret--;
+    return ret;
+  }
+
+  /**
+   * Counts the bits of this {@link com.hypereclipse.selkie.cas.Int} in two's complement that are different from its sign bit.
+   * This is the number of set bits for non-negative values, and the number of clear bits for negative ones.
+   *
+   * @return The number of bits.
+   * @since 1.2
+   */
+  public long bitCount()
+  {
+    if (isSmall)
+      return Long.bitCount(small < 0 ? ~small : small);
+    int[] mag = magnitude();
+    long ret = Magnitude.bitCount(mag);
+    // Taking one from |this| clears its lowest set bit and sets every bit below it.
+    if (negative)
+      ret += Magnitude.lowestSetBit(mag) - 1;
+    return ret;
+  }
+
+  /**
+   * Checks a bit of this {@link com.hypereclipse.selkie.cas.Int} in two's complement.
+   *
+   * @param n The index of the bit, where 0 is the lowest. Must not be negative.
+   * @return <code>true</code> if the bit is set.
+   * @since 1.2
+   */
+  public boolean testBit(long n)
+  {
+    if (n < 0)
+      throw new IllegalArgumentException("Bit indices can not be negative!");
+    if (isSmall)
+      return ((small >> Math.min(n, 63)) & 1) != 0;
+    int[] mag = magnitude();
+    int limb = (n >>> 5) < Integer.MAX_VALUE ? (int) (n >>> 5) : Integer.MAX_VALUE;
+    return ((Magnitude.twosComplementLimb(mag, limb, negative, Magnitude.lowestSetLimb(mag)) >>> (n & 0x1F)) & 1) != 0;
+  }
+
+  /**
+   * Applies a bitwise operator a limb at a time, treating both values as infinite two's complement values.
+   *
+   * @param op One of <code>'&amp;'</code>, <code>'|'</code>, or <code>'^'</code>.
+   * @since 1.2
+   */
+  private Int bitwise(Int other, char op)
+  {
+    int[] a = magnitude();
+    int[] b = other.magnitude();
+    boolean aNegative = isNegative();
+    boolean bNegative = other.isNegative();
+    int aLowest = Magnitude.lowestSetLimb(a);
+    int bLowest = Magnitude.lowestSetLimb(b);
+
+    // The sign is just the operator applied to the signs, since past the top every limb is all sign.
+    boolean retNegative;
+    switch (op)
     {
-      qty /= 4;
-      if (value.length + qty <= 0)
-        return ZERO;
-      int[] ret = new int[value.length + qty];
-      if (qty > 0)
-        System.arraycopy(value, 0, ret, qty, value.length);
-      else
+      case '&':
+        retNegative = aNegative && bNegative;
+        break;
+      case '|':
+        retNegative = aNegative || bNegative;
+        break;
+      default:
+        retNegative = aNegative ^ bNegative;
+        break;
+    }
+
+    // One more limb than the longer one, so the top limb of the result is nothing but its sign.
+    int[] ret = new int[Math.max(a.length, b.length) + 1];
+    for (int i = 0; i < ret.length; i++)
+    {
+      int x = Magnitude.twosComplementLimb(a, i, aNegative, aLowest);
+      int y = Magnitude.twosComplementLimb(b, i, bNegative, bLowest);
+      ret[i] = op == '&' ? x & y : op == '|' ? x | y : x ^ y;
+    }
+
+    // Turn a negative two's complement result back into a magnitude: -x is ~x + 1.
+    if (retNegative)
+    {
+      long sum = 1;
+      for (int i = 0; i < ret.length; i++)
       {
-        //System.out.println("System.arraycopy("+value.length+", "+qty+", "+ret.length+", 0, "+(value.length - qty)+");");
-        System.arraycopy(value, -qty, ret, 0, value.length + qty);
+        sum += ~ret[i] & LONG_MASK;
+        ret[i] = (int) sum;
+        sum >>>= 32;
       }
-      return new Int(ret, negative);
     }
-    throw new IllegalArgumentException("Shifting by non-4 not implemented yet!");
+    return new Int(Magnitude.trim(ret), retNegative);
   }
+
+  /**
+   * Gets the cache {@link com.hypereclipse.selkie.cas.Int#multiply(Value)} uses to avoid recalculating products.
+   *
+   * @return The current {@link com.hypereclipse.selkie.cas.ProductCache}, or <code>null</code> if products aren't being cached.
+   * @since 1.2
+   */
+  public static ProductCache getProductCache()
+  {
+    return productCache;
+  }
+
+  /**
+   * Sets the cache {@link com.hypereclipse.selkie.cas.Int#multiply(Value)} uses to avoid recalculating products.
+   *
+   * @param cache The new {@link com.hypereclipse.selkie.cas.ProductCache}, or <code>null</code> to stop caching products.
+   * @since 1.2
+   */
+  public static void setProductCache(ProductCache cache)
+  {
+    productCache = cache;
+  }
+
+  /**
+   * Gets the pool {@link com.hypereclipse.selkie.cas.Int#multiply(Value)} and {@link com.hypereclipse.selkie.cas.Int#square()} split very large products across.
+   *
+   * @return The current {@link java.util.concurrent.ForkJoinPool}, or <code>null</code> if products are only found on the calling thread.
+   * @since 1.2
+   */
+  public static ForkJoinPool getMultiplicationPool()
+  {
+    return Multiplication.pool;
+  }
+
+  /**
+   * Sets the pool {@link com.hypereclipse.selkie.cas.Int#multiply(Value)} and {@link com.hypereclipse.selkie.cas.Int#square()} split very large products across.
+   * The pieces of Karatsuba and Toom-Cook multiplication, and the three primes of the number-theoretic transform, are then found in parallel on it.
+   * Off by default, since it only helps the rare huge products, and takes the pool's threads away from everything else while they run.
+   *
+   * @param pool The new {@link java.util.concurrent.ForkJoinPool}, or <code>null</code> to find products only on the calling thread.
+   * @since 1.2
+   */
+  public static void setMultiplicationPool(ForkJoinPool pool)
+  {
+    Multiplication.pool = pool;
+  }
+
+  /**
+   * Sets how many limbs the pieces of a product must have before they are found in parallel. See {@link com.hypereclipse.selkie.cas.Int#setMultiplicationPool(ForkJoinPool)}.
+   *
+   * @param limbs The smallest piece, in 32-bit limbs, to hand off to the pool.
+   * @since 1.2
+   */
+  public static void setParallelMultiplyThreshold(int limbs)
+  {
+    if (limbs < 1)
+      throw new IllegalArgumentException("The threshold must be positive!");
+    Multiplication.PARALLEL_THRESHOLD = limbs;
+  }
+
+  /**
+   * Squares this {@link com.hypereclipse.selkie.cas.Int}.
+   *
+   * This is faster than multiplying it by itself, since each algorithm in {@link com.hypereclipse.selkie.cas.Multiplication} has a squaring version that only needs about half of the work.
+   *
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the square. It is never negative.
+   * @since 1.2
+   */
+  public Int square()
+  {
+    if (isZero())
+      return ZERO;
+    return new Int(Multiplication.square(magnitude()), false);
+  }
+
   public Int pow(int exp)
   {
     if (exp<0)
@@ -719,22 +1087,268 @@ public class Int implements Value
     if (exp==1)
       return this;
     if (exp%2==0)
-      return ((Int)this.multiply(this)).pow(exp/2);
+      return square().pow(exp/2);
     else
-      return (Int)this.multiply(((Int)this.multiply(this)).pow(exp/2));
+      return (Int)this.multiply(square().pow(exp/2));
   }
   public Int powOld(int exp)
   {
     if (exp < 0)
       throw new IllegalArgumentException("Negative exponents are not supported yet. They will be once quotients are added.");
-    Int ret = ONE;
+    if (isZero())
+      return exp == 0 ? ONE : ZERO;
+    // Multiply into one running product, rather than creating a new Int for every step.
+    int[] mag = magnitude();
+    MutableInt ret = new MutableInt(mag.length * exp + 1).setWord(1);
     for (int i = 0; i < exp; i++)
-      ret = (Int) ret.multiply(this);
+      ret.multiplyInPlace(mag);
+    return new Int(ret.toMagnitude(), isNegative() && exp % 2 == 1);
+  }
+
+  /**
+   * Raises this {@link com.hypereclipse.selkie.cas.Int} to a power modulo another, without ever making the full power.
+   *
+   * The exponent is read a few bits at a time, and every product is reduced right away. See {@link com.hypereclipse.selkie.cas.Modular}.
+   * A negative exponent raises the inverse of this (see {@link com.hypereclipse.selkie.cas.Int#modInverse(Int)}) instead.
+   *
+   * @param exponent The power to raise this to.
+   * @param modulus The modulus. Must be positive.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>this^exponent mod modulus</code>, from 0 up to (not including) the modulus.
+   * @since 1.2
+   */
+  public Int modPow(Int exponent, Int modulus)
+  {
+    if (!modulus.isPositive() || modulus.isZero())
+      throw new IllegalArgumentException("The modulus must be positive!");
+    if (exponent.isNegative())
+      return modInverse(modulus).modPow((Int) exponent.negate(), modulus);
+    if (modulus.equals(ONE))
+      return ZERO;
+
+    Int base = floorMod(modulus);
+    if (exponent.isZero())
+      return ONE;
+    if (base.isZero())
+      return ZERO;
+
+    // Moduli that fit in a limb can be done with longs: a product of two limbs never overflows an unsigned long.
+    if (modulus.isSmall && modulus.small <= LONG_MASK && exponent.isSmall)
+    {
+      long m = modulus.small;
+      long b = base.small;
+      long ret = 1;
+      for (long e = exponent.small; e != 0; e >>>= 1)
+      {
+        if ((e & 1) != 0)
+          ret = Long.remainderUnsigned(ret * b, m);
+        b = Long.remainderUnsigned(b * b, m);
+      }
+      return valueOf(ret);
+    }
+
+    return new Int(Modular.modPow(base.magnitude(), exponent.magnitude(), modulus.magnitude()), false);
+  }
+
+  /**
+   * Finds the inverse of this {@link com.hypereclipse.selkie.cas.Int} modulo another: the number that gives 1 (mod <code>modulus</code>) when multiplied by this.
+   *
+   * @param modulus The modulus. Must be positive.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the inverse, from 0 up to (not including) the modulus.
+   * @throws IllegalArgumentException If this and the modulus share a factor, so there is no inverse.
+   * @since 1.2
+   */
+  public Int modInverse(Int modulus)
+  {
+    if (!modulus.isPositive() || modulus.isZero())
+      throw new IllegalArgumentException("The modulus must be positive!");
+    if (modulus.equals(ONE))
+      return ZERO;
+    Int ret = Modular.inverse(floorMod(modulus), modulus);
+    if (ret == null)
+      throw new IllegalArgumentException(this + " has no inverse modulo " + modulus + "!");
     return ret;
   }
 
+  /**
+   * Finds the greatest common divisor of this {@link com.hypereclipse.selkie.cas.Int} and another: the largest number that divides both.
+   *
+   * Values that fit in a <code>long</code> use the binary algorithm, longer ones Lehmer's algorithm, and very long ones the half-GCD. See {@link com.hypereclipse.selkie.cas.GCD}.
+   *
+   * @param other The other {@link com.hypereclipse.selkie.cas.Int}.
+   * @return A new, non-negative {@link com.hypereclipse.selkie.cas.Int} representing the greatest common divisor. Zero only if both are zero.
+   * @since 1.2
+   */
+  public Int gcd(Int other)
+  {
+    // Long.MIN_VALUE has no positive long to take the magnitude into.
+    if (isSmall && other.isSmall && small != Long.MIN_VALUE && other.small != Long.MIN_VALUE)
+      return valueOf(GCD.binaryGcd(Math.abs(small), Math.abs(other.small)));
+    return new Int(GCD.gcd(magnitude(), other.magnitude()), false);
+  }
 
+  /**
+   * Finds the least common multiple of this {@link com.hypereclipse.selkie.cas.Int} and another: the smallest positive number that both divide.
+   *
+   * @param other The other {@link com.hypereclipse.selkie.cas.Int}.
+   * @return A new, non-negative {@link com.hypereclipse.selkie.cas.Int} representing the least common multiple, or zero if either is zero.
+   * @since 1.2
+   */
+  public Int lcm(Int other)
+  {
+    if (isZero() || other.isZero())
+      return ZERO;
+    // Divide before multiplying, so the division is on the shorter number.
+    return (Int) ((Int) abs()).divideInteger(gcd(other)).multiply(other.abs());
+  }
 
+  /**
+   * Finds the greatest common divisor of this {@link com.hypereclipse.selkie.cas.Int} and another, along with the coefficients that make it from them.
+   *
+   * @param other The other {@link com.hypereclipse.selkie.cas.Int}.
+   * @return An array of new {@link com.hypereclipse.selkie.cas.Int}s, <code>{g, s, t}</code>, where <code>g</code> is the non-negative greatest common divisor and <code>s*this + t*other = g</code>.
+   * Of all the coefficients that work, <code>s</code> is the one closest to zero.
+   * @since 1.2
+   */
+  public Int[] extendedGcd(Int other)
+  {
+    return GCD.extendedGcd(this, other);
+  }
+
+  /**
+   * Finds the integer square root of this {@link com.hypereclipse.selkie.cas.Int}: the largest number whose square is no more than it.
+   *
+   * @return A new, non-negative {@link com.hypereclipse.selkie.cas.Int} representing the square root, rounded down.
+   * @throws IllegalArgumentException If this is negative.
+   * @since 1.2
+   */
+  public Int isqrt()
+  {
+    return iroot(2);
+  }
+
+  /**
+   * Finds the integer n-th root of this {@link com.hypereclipse.selkie.cas.Int}, with Newton's method. See {@link com.hypereclipse.selkie.cas.Roots}.
+   *
+   * @param n Which root. Must be positive.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the n-th root, truncated towards zero.
+   * @throws IllegalArgumentException If <code>n</code> isn't positive, or if this is negative and <code>n</code> is even.
+   * @since 1.2
+   */
+  public Int iroot(int n)
+  {
+    if (n < 1)
+      throw new IllegalArgumentException("Only positive roots are supported.");
+    if (isNegative() && n % 2 == 0)
+      throw new IllegalArgumentException("Even roots of negative numbers are not supported.");
+    // A double holds every integer below 2^53, and its correctly rounded square root can't round up to the next integer that low.
+    if (n == 2 && isSmall && small < (1L << 52))
+      return valueOf((long) Math.sqrt(small));
+    if (n == 1 || isZero())
+      return this;
+    return new Int(Roots.root(magnitude(), n), isNegative());
+  }
+
+  /**
+   * Checks if this {@link com.hypereclipse.selkie.cas.Int} is a perfect power: some integer raised to a power of at least two.
+   * Zero, one and negative one count, and negative numbers need an odd power.
+   *
+   * @return <code>true</code> if it is a perfect power.
+   * @since 1.2
+   */
+  public boolean isPerfectPower()
+  {
+    int[] mag = magnitude();
+    if (Magnitude.bitLength(mag) <= 1)
+      return true;
+    return Roots.isPerfectPower(mag, isNegative());
+  }
+
+  /**
+   * Checks if this {@link com.hypereclipse.selkie.cas.Int} is prime. See {@link com.hypereclipse.selkie.cas.Prime#isPrime(Int)}.
+   *
+   * @return <code>true</code> if it is prime. Never <code>true</code> for anything less than two.
+   * @since 1.2
+   */
+  public boolean isPrime()
+  {
+    return Prime.isPrime(this);
+  }
+
+  /**
+   * Finds the factorial of a number, <code>1 * 2 * ... * n</code>, with the prime-swing algorithm. See {@link com.hypereclipse.selkie.cas.Combinatorics}.
+   *
+   * @param n The number. Must not be negative.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>n!</code>.
+   * @throws IllegalArgumentException If <code>n</code> is negative.
+   * @since 1.2
+   */
+  public static Int factorial(int n)
+  {
+    if (n < 0)
+      throw new IllegalArgumentException("Factorials of negative numbers are not defined.");
+    return new Int(Combinatorics.factorial(n), false);
+  }
+
+  /**
+   * Finds the double factorial of a number: the product of every positive number up to it that has the same parity, <code>n * (n-2) * (n-4) * ...</code>.
+   *
+   * @param n The number. Must be at least -1, since <code>(-1)!! = 0!! = 1</code>.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing <code>n!!</code>.
+   * @throws IllegalArgumentException If <code>n</code> is less than -1.
+   * @since 1.2
+   */
+  public static Int doubleFactorial(int n)
+  {
+    if (n < -1)
+      throw new IllegalArgumentException("Double factorials of numbers below -1 are not defined.");
+    if (n <= 0)
+      return ONE;
+    return new Int(Combinatorics.doubleFactorial(n), false);
+  }
+
+  /**
+   * Finds the binomial coefficient n choose k: the number of ways to pick <code>k</code> things out of <code>n</code>, <code>n! / (k! * (n-k)!)</code>.
+   *
+   * @param n The number of things to pick from. Must not be negative.
+   * @param k The number of things to pick.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the binomial coefficient. Zero if <code>k</code> is negative or more than <code>n</code>.
+   * @throws IllegalArgumentException If <code>n</code> is negative.
+   * @since 1.2
+   */
+  public static Int binomial(int n, int k)
+  {
+    if (n < 0)
+      throw new IllegalArgumentException("Binomial coefficients of negative numbers are not supported.");
+    if (k < 0 || k > n)
+      return ZERO;
+    return new Int(Combinatorics.binomial(n, k), false);
+  }
+
+  /**
+   * @return The remainder of this divided by a positive modulus, moved up to be from 0 up to (not including) the modulus.
+   * @since 1.2
+   */
+  private Int floorMod(Int modulus)
+  {
+    Int ret = divRem(modulus)[1];
+    return ret.isNegative() ? (Int) ret.add(modulus) : ret;
+  }
+
+
+
+
+  /**
+   * Gets the limbs of this {@link com.hypereclipse.selkie.cas.Int}'s magnitude, without any leading zeros.
+   * The array returned is shared, and must not be modified.
+   *
+   * @return The cleaned {@link com.hypereclipse.selkie.cas.Int#value} array.
+   * @since 1.2
+   */
+  int[] magnitude()
+  {
+    clean();
+    return value;
+  }
 
   private int get(int index)
   {
@@ -744,6 +1358,14 @@ public class Int implements Value
 
   private Int clean()
   {
+    if (value == null)
+    {
+      // Make the limbs for a value that has only been held in a long. Long.MIN_VALUE stays "negative" when negated, but read as unsigned it is the correct magnitude.
+      long mag = negative ? -small : small;
+      value = mag == 0 ? new int[0] : (mag >>> 32) == 0 ? new int[]{(int) mag} : new int[]{(int) mag, (int) (mag >>> 32)};
+      isClean = true;
+      return this;
+    }
     if (isClean) return this;
     int i = value.length;
     while (get(--i) == 0 && i>=0) ;
@@ -754,6 +1376,26 @@ public class Int implements Value
     return this;
   }
 
+  /**
+   * Fills in {@link com.hypereclipse.selkie.cas.Int#small} from {@link com.hypereclipse.selkie.cas.Int#value}, if the value fits in a <code>long</code>.
+   *
+   * @since 1.2
+   */
+  private void fitSmall()
+  {
+    int len = value.length;
+    while (len > 0 && value[len - 1] == 0)
+      len--;
+    // Two limbs fit as long as the top bit is free for the sign.
+    if (len > 2 || (len == 2 && value[1] < 0))
+      return;
+    long mag = (len > 0 ? value[0] & LONG_MASK : 0) | (len > 1 ? (long) value[1] << 32 : 0);
+    if (mag == 0)
+      negative = false;
+    small = negative ? -mag : mag;
+    isSmall = true;
+  }
+
   @Deprecated
   private Int forceClean()
   {
@@ -763,16 +1405,13 @@ public class Int implements Value
 
   public Integer toInt()
   {
+    if (isSmall)
+      return small == (int) small ? (int) small : null;
     if (this.lessEqual(INTMAX)&&this.greaterEqual(INTMIN))
     {
-      int ret = 0;
-      int pow = 1;
-      for (int i =0; i<value.length; i++)
-      {
-        ret += value[i]*pow;
-        pow*=16;
-      }
-      return ret;
+      // Fits in one limb. Negating INTMIN's magnitude overflows back to INTMIN, which is what we want.
+      int ret = get(0);
+      return isNegative() ? -ret : ret;
     }
     else
       return null;
@@ -780,16 +1419,13 @@ public class Int implements Value
 
   public Long toLong()
   {
+    if (isSmall)
+      return small;
     if (this.lessEqual(LONGMAX)&&this.greaterEqual(LONGMIN))
     {
-      long ret = 0;
-      long pow = 1;
-      for (int i =0; i<value.length; i++)
-      {
-        ret += value[i]*pow;
-        pow*=16;
-      }
-      return ret;
+      // Fits in two limbs. Negating LONGMIN's magnitude overflows back to LONGMIN, which is what we want.
+      long ret = (get(0) & LONG_MASK) | ((long) get(1) << 32);
+      return isNegative() ? -ret : ret;
     }
     else
       return null;
@@ -797,35 +1433,66 @@ public class Int implements Value
 
   public BigInteger toBigInt()
   {
-    return new BigInteger(toString());
+    // BigInteger wants big-endian bytes, with room for a sign bit.
+    clean();
+    byte[] bytes = new byte[value.length * 4 + 1];
+    for (int i = 0; i < value.length; i++)
+      for (int j = 0; j < 4; j++)
+        bytes[bytes.length - 1 - 4 * i - j] = (byte) (value[i] >>> (8 * j));
+    BigInteger ret = new BigInteger(bytes);
+    return isNegative() ? ret.negate() : ret;
   }
 
   public int compareTo(@NotNull Object other)
   {
     if (other instanceof Int)
-    {
-      Int o = (Int) other;
-      Int ret = (Int)subtract(o);
-      if (ret.isZero()) return 0;
-      return ret.isPositive()?1:-1;
-    }
+      return compare((Int) other);
+    if (other instanceof Rational)
+      return -((Rational) other).compareTo(this);
     throw new IllegalArgumentException();
   }
 
   public String toString()
   {
-    StringBuilder sb = new StringBuilder(value.length + 3);
+    clean();
+    StringBuilder sb = new StringBuilder(value.length * 8 + 3);
+    // Each limb is exactly eight hex digits, with leading zeros skipped until the first non-zero one.
     for (int i = value.length - 1; i >= 0; i--)
-      if (value[i] > 9) sb.append((char)('A' + value[i] - 0xA));
-      else sb.append(value[i]);
-    if (value.length == 0 || (value.length == 1 && value[0] == 0)) sb.append('0');
+      for (int j = 7; j >= 0; j--)
+      {
+        int digit = (value[i] >>> (4 * j)) & 0xF;
+        if (sb.length() > 0 || digit != 0)
+          sb.append(CHARSET_HEX[digit]);
+      }
+    if (sb.length() == 0) sb.append('0');
     return (negative ? "-0x" : "0x") + sb.toString();
   }
 
+  public boolean equals(Object obj)
+  {
+    return obj instanceof Int && compare((Int) obj) == 0;
+  }
+
   public int hashCode()
   {
-    clean();
-    return Arrays.hashCode(value)^(negative?0xFFFF:0);
+    int h = hash;
+    if (h != 0)
+      return h;
+    // The same as Arrays.hashCode of the cleaned limbs, but read straight from the long or from the limbs as they are, so neither needs cleaning first.
+    if (isSmall)
+    {
+      long mag = small < 0 ? -small : small;
+      h = mag == 0 ? 1 : (mag >>> 32) == 0 ? 31 + (int) mag : (31 + (int) mag) * 31 + (int) (mag >>> 32);
+    }
+    else
+    {
+      h = 1;
+      for (int i = 0, len = Magnitude.length(value); i < len; i++)
+        h = 31 * h + value[i];
+    }
+    h ^= (isSmall ? small < 0 : negative) ? 0xFFFF : 0;
+    hash = h;
+    return h;
   }
 
   private static char[] charset(int base)
@@ -845,4 +1512,40 @@ public class Int implements Value
       throw new IllegalArgumentException("That base is not supported!");
     return baseCharset;
   }
+
+  /**
+   * The shared {@link com.hypereclipse.selkie.cas.Int}s handed out by {@link com.hypereclipse.selkie.cas.Int#valueOf(long)}.
+   * In a class of its own so that the tables are filled in before the constants at the top of {@link com.hypereclipse.selkie.cas.Int} are taken from them.
+   * Each one is cleaned before it is shared, so nothing about it changes afterwards.
+   *
+   * @since 1.2
+   */
+  private static final class Interned
+  {
+    static final int LOW = -1024;
+    static final int HIGH = 1024;
+    static final Int[] SMALL = new Int[HIGH - LOW + 1];
+    static final Int[] POWERS_OF_TWO = new Int[63];
+    static final long[] POWERS_OF_TEN_VALUES = new long[19];
+    static final Int[] POWERS_OF_TEN = new Int[19];
+
+    static
+    {
+      for (int i = LOW; i <= HIGH; i++)
+        SMALL[i - LOW] = new Int(i).clean();
+      for (int i = 0; i < POWERS_OF_TWO.length; i++)
+        POWERS_OF_TWO[i] = intern(1L << i);
+      long power = 1;
+      for (int i = 0; i < POWERS_OF_TEN.length; i++, power *= 10)
+      {
+        POWERS_OF_TEN_VALUES[i] = power;
+        POWERS_OF_TEN[i] = intern(power);
+      }
+    }
+
+    private static Int intern(long value)
+    {
+      return value <= HIGH ? SMALL[(int) value - LOW] : new Int(value).clean();
+    }
+  }
 }
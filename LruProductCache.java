@@ -0,0 +1,136 @@
+package com.hypereclipse.selkie.cas;
+
+/**
+ * class LruProductCache (implements ProductCache)
+ *
+ * The default {@link com.hypereclipse.selkie.cas.ProductCache}: a {@link com.hypereclipse.selkie.cas.BoundedCache} that evicts the least recently used products.
+ *
+ * Each entry is weighed by the total number of limbs in both factors and the product, since those are what it keeps in memory.
+ * Products where the smaller factor is under a minimum number of limbs are never looked up or stored:
+ * they are cheap enough to recalculate that hashing the factors and holding onto them costs more than it saves.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public class LruProductCache implements ProductCache
+{
+  /**
+   * The cached products.
+   *
+   * @since 1.2
+   */
+  private final BoundedCache<Factors, Int> cache;
+  /**
+   * The number of limbs both factors need before their product is cached.
+   *
+   * @since 1.2
+   */
+  private final int minLimbs;
+
+
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.LruProductCache}.
+   *
+   * @param maxLimbs The most limbs (from factors and products together) the cache may hold.
+   * @param minLimbs The number of limbs both factors need before their product is cached.
+   * @since 1.2
+   */
+  public LruProductCache(long maxLimbs, int minLimbs)
+  {
+    this.cache = new BoundedCache<>(maxLimbs, (factors, product) -> factors.a.magnitude().length + factors.b.magnitude().length + product.magnitude().length);
+    this.minLimbs = minLimbs;
+  }
+
+
+
+  public Int get(Int a, Int b)
+  {
+    if (!admits(a, b))
+      return null;
+    return cache.get(new Factors(a, b));
+  }
+
+  public void put(Int a, Int b, Int product)
+  {
+    if (admits(a, b))
+      cache.put(new Factors(a, b), product);
+  }
+
+  public void clear()
+  {
+    cache.clear();
+  }
+
+  public long hitCount()
+  {
+    return cache.hitCount();
+  }
+
+  public long missCount()
+  {
+    return cache.missCount();
+  }
+
+  public long evictionCount()
+  {
+    return cache.evictionCount();
+  }
+
+  /**
+   * @return The total number of limbs held by the cache.
+   * @since 1.2
+   */
+  public long weight()
+  {
+    return cache.weight();
+  }
+
+  public String toString()
+  {
+    return "LruProductCache[minLimbs=" + minLimbs + ", " + cache + "]";
+  }
+
+  /**
+   * @return <code>true</code> if the product of <code>a</code> and <code>b</code> is large enough to be worth caching.
+   * @since 1.2
+   */
+  private boolean admits(Int a, Int b)
+  {
+    return a.magnitude().length >= minLimbs && b.magnitude().length >= minLimbs;
+  }
+
+  /**
+   * A pair of factors, used as the key. Equal to the same pair in either order.
+   *
+   * @since 1.2
+   */
+  private static final class Factors
+  {
+    final Int a;
+    final Int b;
+    final int hash;
+
+    Factors(Int a, Int b)
+    {
+      this.a = a;
+      this.b = b;
+      // Adding the hashes doesn't depend on the order.
+      this.hash = a.hashCode() + b.hashCode();
+    }
+
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof Factors))
+        return false;
+      Factors f = (Factors) obj;
+      return (a.equals((Value) f.a) && b.equals((Value) f.b)) || (a.equals((Value) f.b) && b.equals((Value) f.a));
+    }
+
+    public int hashCode()
+    {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package com.hypereclipse.selkie.cas;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+
+/**
+ * class Magnitude
+ *
+ * Small helpers for working with the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}, shared by {@link com.hypereclipse.selkie.cas.Multiplication} and {@link com.hypereclipse.selkie.cas.Division}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own.
+ * Unless a method says it works in place, it never modifies the arrays passed to it.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class Magnitude
+{
+  /**
+   * An empty magnitude, representing zero.
+   *
+   * @since 1.2
+   */
+  static final int[] EMPTY = new int[0];
+
+  private Magnitude() {}
+
+
+
+  /**
+   * @return The number of limbs in <code>a</code>, not counting leading zeros.
+   * @since 1.2
+   */
+  static int length(int[] a)
+  {
+    int len = a.length;
+    while (len > 0 && a[len - 1] == 0)
+      len--;
+    return len;
+  }
+
+  /**
+   * @return <code>a</code> without any leading zero limbs. This is <code>a</code> itself if there were none.
+   * @since 1.2
+   */
+  static int[] trim(int[] a)
+  {
+    int len = length(a);
+    if (len == a.length)
+      return a;
+    int[] ret = new int[len];
+    System.arraycopy(a, 0, ret, 0, len);
+    return ret;
+  }
+
+  /**
+   * @return A trimmed copy of the limbs of <code>a</code> from <code>from</code> (inclusive) to <code>to</code> (exclusive). Limbs past the end of <code>a</code> are zero.
+   * @since 1.2
+   */
+  static int[] slice(int[] a, int from, int to)
+  {
+    to = Math.min(to, a.length);
+    if (to <= from)
+      return EMPTY;
+    int[] ret = new int[to - from];
+    System.arraycopy(a, from, ret, 0, to - from);
+    return trim(ret);
+  }
+
+  /**
+   * @return A new, trimmed magnitude holding <code>a + b</code>.
+   * @since 1.2
+   */
+  static int[] add(int[] a, int[] b)
+  {
+    if (a.length < b.length)
+      return add(b, a);
+    int[] ret = new int[a.length + 1];
+    long sum = 0;
+    for (int i = 0; i < a.length; i++)
+    {
+      sum = (a[i] & LONG_MASK) + (i < b.length ? b[i] & LONG_MASK : 0) + (sum >>> 32);
+      ret[i] = (int) sum;
+    }
+    ret[a.length] = (int) (sum >>> 32);
+    return trim(ret);
+  }
+
+  /**
+   * @return A new, trimmed magnitude holding <code>a - b</code>. Requires that <code>a</code> is at least <code>b</code>.
+   * @since 1.2
+   */
+  static int[] subtract(int[] a, int[] b)
+  {
+    int[] ret = new int[a.length];
+    long difference = 0;
+    for (int i = 0; i < a.length; i++)
+    {
+      difference = (a[i] & LONG_MASK) - (i < b.length ? b[i] & LONG_MASK : 0) + (difference >> 32);
+      ret[i] = (int) difference;
+    }
+    if ((difference >> 32) != 0)
+      throw new IllegalStateException("Subtracting a larger magnitude from a smaller one. See Magnitude#subtract(int[], int[]).");
+    return trim(ret);
+  }
+
+  /**
+   * Adds <code>a</code>, shifted up by <code>offset</code> limbs, into <code>result</code> in place.
+   * Requires that the sum fits in <code>result</code>.
+   *
+   * @since 1.2
+   */
+  static void addInto(int[] result, int[] a, int offset)
+  {
+    long sum = 0;
+    int i = 0;
+    for (; i < a.length; i++)
+    {
+      sum = (result[offset + i] & LONG_MASK) + (a[i] & LONG_MASK) + (sum >>> 32);
+      result[offset + i] = (int) sum;
+    }
+    // Keep carrying for as long as there is something to carry.
+    for (i += offset; (sum >>> 32) != 0; i++)
+    {
+      if (i >= result.length)
+        throw new IllegalStateException("Carrying a number beyond its bound. See Magnitude#addInto(int[], int[], int).");
+      sum = (result[i] & LONG_MASK) + 1;
+      result[i] = (int) sum;
+    }
+  }
+
+  /**
+   * Compares two magnitudes.
+   *
+   * @return A negative number, zero, or a positive number as <code>a</code> is less than, equal to, or greater than <code>b</code>.
+   * @since 1.2
+   */
+  static int compare(int[] a, int[] b)
+  {
+    int aLen = length(a);
+    int bLen = length(b);
+    if (aLen != bLen)
+      return aLen < bLen ? -1 : 1;
+    for (int i = aLen - 1; i >= 0; i--)
+      if (a[i] != b[i])
+        return Integer.compareUnsigned(a[i], b[i]);
+    return 0;
+  }
+
+  /**
+   * Compares a magnitude to a number held in a <code>long</code>, read as unsigned.
+   *
+   * @return A negative number, zero, or a positive number as <code>a</code> is less than, equal to, or greater than <code>b</code>.
+   * @since 1.2
+   */
+  static int compare(int[] a, long b)
+  {
+    int len = length(a);
+    if (len > 2)
+      return 1;
+    long mag = (len > 0 ? a[0] & LONG_MASK : 0) | (len > 1 ? (long) a[1] << 32 : 0);
+    return Long.compareUnsigned(mag, b);
+  }
+
+  /**
+   * @return The number of bits in <code>a</code>, not counting leading zeros.
+   * @since 1.2
+   */
+  static long bitLength(int[] a)
+  {
+    int len = length(a);
+    if (len == 0)
+      return 0;
+    return 32L * len - Integer.numberOfLeadingZeros(a[len - 1]);
+  }
+
+  /**
+   * @return A new, trimmed magnitude holding <code>a</code> shifted up by <code>bits</code> bits.
+   * @since 1.2
+   */
+  static int[] shiftLeft(int[] a, int bits)
+  {
+    int len = length(a);
+    if (len == 0)
+      return EMPTY;
+    int limbs = bits >>> 5;
+    bits &= 0x1F;
+    int[] ret = new int[len + limbs + 1];
+    if (bits == 0)
+      System.arraycopy(a, 0, ret, limbs, len);
+    else
+    {
+      for (int i = 0; i < len; i++)
+      {
+        ret[i + limbs] |= a[i] << bits;
+        ret[i + limbs + 1] = a[i] >>> (32 - bits);
+      }
+    }
+    return trim(ret);
+  }
+
+  /**
+   * @return A new, trimmed magnitude holding <code>a</code> shifted down by <code>bits</code> bits. Bits shifted past the bottom are dropped.
+   * @since 1.2
+   */
+  static int[] shiftRight(int[] a, int bits)
+  {
+    int len = length(a);
+    int limbs = bits >>> 5;
+    bits &= 0x1F;
+    if (len <= limbs)
+      return EMPTY;
+    int[] ret = new int[len - limbs];
+    for (int i = 0; i < ret.length; i++)
+    {
+      ret[i] = a[i + limbs] >>> bits;
+      if (bits != 0 && i + limbs + 1 < len)
+        ret[i] |= a[i + limbs + 1] << (32 - bits);
+    }
+    return trim(ret);
+  }
+
+  /**
+   * @return The index of the lowest limb of <code>a</code> that isn't zero, or -1 if <code>a</code> is zero.
+   * @since 1.2
+   */
+  static int lowestSetLimb(int[] a)
+  {
+    for (int i = 0; i < a.length; i++)
+      if (a[i] != 0)
+        return i;
+    return -1;
+  }
+
+  /**
+   * @return The index of the lowest set bit of <code>a</code>, or -1 if <code>a</code> is zero.
+   * @since 1.2
+   */
+  static long lowestSetBit(int[] a)
+  {
+    int limb = lowestSetLimb(a);
+    if (limb < 0)
+      return -1;
+    return 32L * limb + Integer.numberOfTrailingZeros(a[limb]);
+  }
+
+  /**
+   * @return <code>a mod q</code>, for a positive q less than 2^31, worked out from the top limb down.
+   * @since 1.2
+   */
+  static long mod(int[] a, long q)
+  {
+    long r = 0;
+    for (int i = a.length - 1; i >= 0; i--)
+      r = ((r << 32) | (a[i] & LONG_MASK)) % q;
+    return r;
+  }
+
+  /**
+   * @return The number of set bits in <code>a</code>.
+   * @since 1.2
+   */
+  static long bitCount(int[] a)
+  {
+    long ret = 0;
+    for (int limb : a)
+      ret += Integer.bitCount(limb);
+    return ret;
+  }
+
+  /**
+   * Gets a limb of the infinite two's complement form of a signed magnitude, without making the whole thing.
+   * For a negative number, -a is ~(a - 1): the limbs below the lowest non-zero one stay zero, that one is negated, every one above it is flipped, and everything past the top is all ones.
+   *
+   * @param a The magnitude.
+   * @param i The index of the limb to get. Can be past the end of <code>a</code>.
+   * @param negative Whether the number is negative.
+   * @param lowest The index of the lowest non-zero limb of <code>a</code>, from {@link com.hypereclipse.selkie.cas.Magnitude#lowestSetLimb(int[])}.
+   * @return The limb.
+   * @since 1.2
+   */
+  static int twosComplementLimb(int[] a, int i, boolean negative, int lowest)
+  {
+    if (!negative)
+      return i < a.length ? a[i] : 0;
+    if (i < lowest)
+      return 0;
+    if (i == lowest)
+      return -a[i];
+    return i < a.length ? ~a[i] : -1;
+  }
+}
@@ -0,0 +1,350 @@
+package com.hypereclipse.selkie.cas;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class Modular
+ *
+ * Modular arithmetic kernels for the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own, and is never modified once passed in.
+ *
+ * Modular exponentiation works through the exponent a few bits (a window) at a time from the top, squaring once per bit and multiplying once per window by a precomputed odd power of the base.
+ * Every product is reduced right away, so nothing ever grows past twice the length of the modulus.
+ * Odd moduli are reduced with Montgomery multiplication, which replaces the division with a limb at a time multiply and shift.
+ * Even moduli (and very long odd ones, where the faster multiplication algorithms win) use Barrett reduction, which replaces the division with two multiplications by a precomputed reciprocal.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class Modular
+{
+  /**
+   * The number of limbs an odd modulus must have before Barrett reduction is used instead of Montgomery multiplication.
+   * Montgomery multiplication is always long multiplication, so past this Barrett reduction's use of {@link com.hypereclipse.selkie.cas.Multiplication} is faster.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.montgomeryThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int MONTGOMERY_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.montgomeryThreshold", 192);
+  /**
+   * The largest exponent bit length for each window size, starting from a window of one bit.
+   * A window of k bits needs 2^(k-1) powers precomputed, so it only pays off for long enough exponents.
+   *
+   * @since 1.2
+   */
+  private static final long[] WINDOW_BITS = new long[]{7, 25, 81, 241, 673, 1793, Long.MAX_VALUE};
+
+  private Modular() {}
+
+
+
+  /**
+   * Raises a number to a power modulo another.
+   *
+   * @param base The base. Must be less than the modulus.
+   * @param exponent The exponent.
+   * @param modulus The modulus. Must be greater than one.
+   * @return A new, trimmed magnitude holding <code>base^exponent mod modulus</code>.
+   * @since 1.2
+   */
+  static int[] modPow(int[] base, int[] exponent, int[] modulus)
+  {
+    modulus = trim(modulus);
+    Reducer reducer = reducer(modulus);
+
+    long bits = bitLength(exponent);
+    if (bits == 0)
+      return reducer.revert(reducer.one());
+    int k = 1;
+    while (bits > WINDOW_BITS[k - 1])
+      k++;
+
+    // The odd powers base^1, base^3, ..., base^(2^k - 1).
+    int[][] table = new int[1 << (k - 1)][];
+    table[0] = reducer.convert(base);
+    if (k > 1)
+    {
+      int[] square = reducer.square(table[0]);
+      for (int i = 1; i < table.length; i++)
+        table[i] = reducer.multiply(table[i - 1], square);
+    }
+
+    // Until the first window, the running power is one, so there is nothing to square.
+    int[] ret = null;
+    long i = bits - 1;
+    while (i >= 0)
+    {
+      if (!testBit(exponent, i))
+      {
+        if (ret != null)
+          ret = reducer.square(ret);
+        i--;
+        continue;
+      }
+
+      // Take the longest window (up to k bits) starting at this bit that ends in a one, so its value is odd.
+      long low = Math.max(i - k + 1, 0);
+      while (!testBit(exponent, low))
+        low++;
+      int window = 0;
+      for (long j = i; j >= low; j--)
+      {
+        window = (window << 1) | (testBit(exponent, j) ? 1 : 0);
+        if (ret != null)
+          ret = reducer.square(ret);
+      }
+      ret = ret == null ? table[window >>> 1] : reducer.multiply(ret, table[window >>> 1]);
+      i = low - 1;
+    }
+    return reducer.revert(ret);
+  }
+
+  /**
+   * Finds the inverse of a number modulo another with the extended Euclidean algorithm. See {@link com.hypereclipse.selkie.cas.GCD#extendedGcd(Int, Int)}.
+   *
+   * @param a The number to invert.
+   * @param modulus The modulus. Must be positive.
+   * @return The inverse, from 0 up to (not including) the modulus, or <code>null</code> if there isn't one (when they share a factor).
+   * @since 1.2
+   */
+  static Int inverse(Int a, Int modulus)
+  {
+    // s*a + t*modulus = 1 makes s*a = 1 (mod modulus).
+    Int[] gst = GCD.extendedGcd(a, modulus);
+    if (!gst[0].equals(Int.ONE))
+      return null;
+    return gst[1].isNegative() ? (Int) gst[1].add(modulus) : gst[1];
+  }
+
+  /**
+   * Picks the fastest way of multiplying numbers modulo a fixed modulus: Montgomery multiplication for odd moduli below {@link com.hypereclipse.selkie.cas.Modular#MONTGOMERY_THRESHOLD} limbs, and Barrett reduction otherwise.
+   *
+   * @param modulus The modulus. Must be trimmed and greater than one.
+   * @return A new {@link com.hypereclipse.selkie.cas.Modular.Reducer} for it.
+   * @since 1.2
+   */
+  static Reducer reducer(int[] modulus)
+  {
+    return (modulus[0] & 1) != 0 && modulus.length < MONTGOMERY_THRESHOLD ? new Montgomery(modulus) : new Barrett(modulus);
+  }
+
+  /**
+   * @return <code>true</code> if bit <code>i</code> of the magnitude is set.
+   * @since 1.2
+   */
+  private static boolean testBit(int[] a, long i)
+  {
+    return ((a[(int) (i >>> 5)] >>> (i & 0x1F)) & 1) != 0;
+  }
+
+
+
+  /**
+   * A way of multiplying numbers modulo a fixed modulus, possibly with the numbers kept in some other form while doing so.
+   * Adding, subtracting, halving and multiplying by a whole number all work the same on numbers in this form as they do on the numbers themselves.
+   * Zero's form is always zero.
+   *
+   * @since 1.2
+   */
+  static abstract class Reducer
+  {
+    /**
+     * @return The form of a number less than the modulus used by the other methods.
+     * @since 1.2
+     */
+    abstract int[] convert(int[] a);
+
+    /**
+     * @return The number a value in this form represents, as a new, trimmed magnitude.
+     * @since 1.2
+     */
+    abstract int[] revert(int[] a);
+
+    /**
+     * @return The form of one.
+     * @since 1.2
+     */
+    abstract int[] one();
+
+    /**
+     * @return The form of the product of two numbers in this form.
+     * @since 1.2
+     */
+    abstract int[] multiply(int[] a, int[] b);
+
+    /**
+     * @return The form of the square of a number in this form.
+     * @since 1.2
+     */
+    int[] square(int[] a)
+    {
+      return multiply(a, a);
+    }
+  }
+
+  /**
+   * Montgomery multiplication. (Montgomery, Modular Multiplication Without Trial Division, 1985)
+   *
+   * Each number x is kept as x*R mod m, where R = 2^(32n) for a modulus of n limbs. Multiplying two of those gives x*y*R^2,
+   * and dividing that by R (mod m) can be done a limb at a time: add whatever multiple of m makes the lowest limb zero, then drop it.
+   * This uses the coarsely integrated operand scanning (CIOS) form, which does the multiplying and the reducing in the same pass.
+   * Every value is exactly n limbs, and requires an odd modulus.
+   *
+   * @since 1.2
+   */
+  private static final class Montgomery extends Reducer
+  {
+    final int[] modulus;
+    final int n;
+    /**
+     * -modulus^-1 mod 2^32.
+     */
+    final int inverse;
+
+    Montgomery(int[] modulus)
+    {
+      this.modulus = modulus;
+      this.n = modulus.length;
+      // Newton's method doubles the number of correct low bits each step, and an odd number is its own inverse mod 8.
+      int inv = modulus[0];
+      for (int i = 0; i < 4; i++)
+        inv *= 2 - modulus[0] * inv;
+      this.inverse = -inv;
+    }
+
+    int[] convert(int[] a)
+    {
+      return pad(Division.divideAndRemainder(shiftLeft(a, 32 * n), modulus)[1]);
+    }
+
+    int[] revert(int[] a)
+    {
+      int[] one = new int[n];
+      one[0] = 1;
+      return trim(multiply(a, one));
+    }
+
+    int[] one()
+    {
+      return convert(new int[]{1});
+    }
+
+    int[] multiply(int[] a, int[] b)
+    {
+      int[] t = new int[n + 2];
+      for (int i = 0; i < n; i++)
+      {
+        // t += a * b[i]
+        long bi = b[i] & LONG_MASK;
+        long carry = 0;
+        for (int j = 0; j < n; j++)
+        {
+          carry += (t[j] & LONG_MASK) + (a[j] & LONG_MASK) * bi;
+          t[j] = (int) carry;
+          carry >>>= 32;
+        }
+        carry += t[n] & LONG_MASK;
+        t[n] = (int) carry;
+        t[n + 1] = (int) (carry >>> 32);
+
+        // t = (t + m * modulus) / 2^32, where m is picked to make the lowest limb zero.
+        long m = (t[0] * inverse) & LONG_MASK;
+        carry = ((t[0] & LONG_MASK) + m * (modulus[0] & LONG_MASK)) >>> 32;
+        for (int j = 1; j < n; j++)
+        {
+          carry += (t[j] & LONG_MASK) + m * (modulus[j] & LONG_MASK);
+          t[j - 1] = (int) carry;
+          carry >>>= 32;
+        }
+        carry += t[n] & LONG_MASK;
+        t[n - 1] = (int) carry;
+        t[n] = t[n + 1] + (int) (carry >>> 32);
+      }
+
+      // The result is less than twice the modulus, so one subtraction is enough.
+      int[] ret = new int[n];
+      System.arraycopy(t, 0, ret, 0, n);
+      if (t[n] != 0 || compare(ret, modulus) >= 0)
+      {
+        long difference = 0;
+        for (int j = 0; j < n; j++)
+        {
+          difference = (ret[j] & LONG_MASK) - (modulus[j] & LONG_MASK) + (difference >> 32);
+          ret[j] = (int) difference;
+        }
+      }
+      return ret;
+    }
+
+    /**
+     * @return <code>a</code> padded with zeros to exactly n limbs.
+     */
+    private int[] pad(int[] a)
+    {
+      int[] ret = new int[n];
+      System.arraycopy(a, 0, ret, 0, a.length);
+      return ret;
+    }
+  }
+
+  /**
+   * Barrett reduction. (Barrett, Implementing the Rivest Shamir and Adleman Public Key Encryption Algorithm on a Standard Digital Signal Processor, 1986)
+   *
+   * Keeps mu = floor(B^2n / m), where B = 2^32 and the modulus has n limbs. For a product x less than m^2, the quotient x / m is then estimated
+   * from the top of x times mu, which is never too large and at most two too small, so a couple of subtractions fix up the remainder.
+   * Numbers are kept as they are.
+   *
+   * @since 1.2
+   */
+  private static final class Barrett extends Reducer
+  {
+    final int[] modulus;
+    final int n;
+    final int[] mu;
+
+    Barrett(int[] modulus)
+    {
+      this.modulus = modulus;
+      this.n = modulus.length;
+      int[] power = new int[2 * n + 1];
+      power[2 * n] = 1;
+      this.mu = Division.divideAndRemainder(power, modulus)[0];
+    }
+
+    int[] convert(int[] a)
+    {
+      return a;
+    }
+
+    int[] revert(int[] a)
+    {
+      return trim(a);
+    }
+
+    int[] one()
+    {
+      return new int[]{1};
+    }
+
+    int[] multiply(int[] a, int[] b)
+    {
+      return reduce(Multiplication.multiply(a, b));
+    }
+
+    int[] square(int[] a)
+    {
+      return reduce(Multiplication.square(a));
+    }
+
+    private int[] reduce(int[] x)
+    {
+      int[] q = shiftRight(Multiplication.multiply(shiftRight(x, 32 * (n - 1)), mu), 32 * (n + 1));
+      int[] r = subtract(x, Multiplication.multiply(q, modulus));
+      while (compare(r, modulus) >= 0)
+        r = subtract(r, modulus);
+      return r;
+    }
+  }
+}
@@ -0,0 +1,492 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class Multiplication
+ *
+ * Multiplication kernels for the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own, and is never modified once passed in.
+ *
+ * Which algorithm is used depends on the length of the shorter operand:
+ * schoolbook long multiplication for small operands, Karatsuba above {@link com.hypereclipse.selkie.cas.Multiplication#KARATSUBA_THRESHOLD},
+ * Toom-Cook 3-way above {@link com.hypereclipse.selkie.cas.Multiplication#TOOM_COOK_THRESHOLD},
+ * and a number-theoretic transform (see {@link com.hypereclipse.selkie.cas.NumberTheoreticTransform}) above {@link com.hypereclipse.selkie.cas.Multiplication#NTT_THRESHOLD}.
+ *
+ * Squaring has its own version of each algorithm, which takes advantage of both factors being the same.
+ * It has its own thresholds too, since the savings are different at each tier.
+ *
+ * Each of the divide and conquer algorithms (and each of the three primes of the transform) splits the work into independent products.
+ * When a pool is set with {@link com.hypereclipse.selkie.cas.Int#setMultiplicationPool(ForkJoinPool)}, those products are run on it in parallel,
+ * as long as the operands are at least {@link com.hypereclipse.selkie.cas.Multiplication#PARALLEL_THRESHOLD} limbs. Smaller ones aren't worth the cost of handing them off.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class Multiplication
+{
+  /**
+   * The number of limbs both operands must have before Karatsuba multiplication is used instead of schoolbook multiplication.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.karatsubaThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int KARATSUBA_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.karatsubaThreshold", 48);
+  /**
+   * The number of limbs both operands must have before Toom-Cook 3-way multiplication is used instead of Karatsuba multiplication.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.toomCookThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int TOOM_COOK_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.toomCookThreshold", 256);
+  /**
+   * The number of limbs the shorter operand must have before a number-theoretic transform is used instead of Toom-Cook 3-way multiplication.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.nttThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int NTT_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.nttThreshold", 3072);
+  /**
+   * The number of limbs a value must have before it is squared with Karatsuba instead of schoolbook squaring.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.karatsubaSquareThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int KARATSUBA_SQUARE_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.karatsubaSquareThreshold", 96);
+  /**
+   * The number of limbs a value must have before it is squared with Toom-Cook 3-way instead of Karatsuba.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.toomCookSquareThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int TOOM_COOK_SQUARE_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.toomCookSquareThreshold", 512);
+  /**
+   * The number of limbs a value must have before it is squared with a number-theoretic transform instead of Toom-Cook 3-way.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.nttSquareThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int NTT_SQUARE_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.nttSquareThreshold", 1536);
+  /**
+   * The number of limbs the operands of a split must have before its products are run in parallel.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.parallelMultiplyThreshold</code> system property, or {@link com.hypereclipse.selkie.cas.Int#setParallelMultiplyThreshold(int)}.
+   *
+   * @since 1.2
+   */
+  static volatile int PARALLEL_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.parallelMultiplyThreshold", 1024);
+  /**
+   * The pool products are run on in parallel, or <code>null</code> to do everything on the calling thread.
+   * Off unless the <code>com.hypereclipse.selkie.cas.parallelMultiply</code> system property is <code>true</code>, in which case the common pool is used.
+   *
+   * @since 1.2
+   */
+  static volatile ForkJoinPool pool = Boolean.getBoolean("com.hypereclipse.selkie.cas.parallelMultiply") ? ForkJoinPool.commonPool() : null;
+
+  private Multiplication() {}
+
+
+
+  /**
+   * Multiplies two magnitudes, picking the algorithm from their sizes.
+   *
+   * @param a The first factor.
+   * @param b The second factor.
+   * @return A new, trimmed magnitude holding the product.
+   * @since 1.2
+   */
+  static int[] multiply(int[] a, int[] b)
+  {
+    int aLen = length(a);
+    int bLen = length(b);
+
+    // We want a to be the shorter one, so there is only one case to deal with below.
+    if (aLen > bLen)
+      return multiply(b, a);
+
+    if (aLen == 0)
+      return EMPTY;
+    if (aLen < KARATSUBA_THRESHOLD)
+      return trim(multiplySchoolbook(a, aLen, b, bLen));
+
+    // The transform doesn't care how balanced the operands are, as long as the product isn't too long for it.
+    if (aLen >= NTT_THRESHOLD && aLen + bLen <= NumberTheoreticTransform.MAX_LENGTH)
+      return trim(NumberTheoreticTransform.multiply(a, aLen, b, bLen));
+
+    // Karatsuba and Toom-Cook split both numbers at the same place, which only pays off if they are about the same size.
+    // Otherwise, cut the longer one into pieces the size of the shorter one and multiply each of those.
+    if (2 * aLen <= bLen)
+      return multiplyUnbalanced(a, aLen, b, bLen);
+    if (aLen < TOOM_COOK_THRESHOLD)
+      return multiplyKaratsuba(a, aLen, b, bLen);
+    return multiplyToomCook3(a, aLen, b, bLen);
+  }
+
+  /**
+   * Long multiplication: Multiply the longer value by each limb in the smaller one shifted over by its place, and add them all together.
+   * Each row is added straight into the result, so nothing else is allocated.
+   *
+   * @return A new magnitude of exactly <code>aLen + bLen</code> limbs. It may have a leading zero.
+   * @since 1.2
+   */
+  static int[] multiplySchoolbook(int[] a, int aLen, int[] b, int bLen)
+  {
+    int[] ret = new int[aLen + bLen];
+    for (int i = 0; i < aLen; i++)
+    {
+      long factor = a[i] & LONG_MASK;
+      if (factor == 0)
+        continue;
+      long product = 0;
+      for (int j = 0; j < bLen; j++)
+      {
+        product = factor * (b[j] & LONG_MASK) + (ret[i + j] & LONG_MASK) + (product >>> 32);
+        ret[i + j] = (int) product;
+      }
+      ret[i + bLen] = (int) (product >>> 32);
+    }
+    return ret;
+  }
+
+  /**
+   * Multiplies a short magnitude by one at least twice as long, by cutting the longer one into pieces the length of the shorter one.
+   *
+   * @since 1.2
+   */
+  private static int[] multiplyUnbalanced(int[] a, int aLen, int[] b, int bLen)
+  {
+    int count = (bLen + aLen - 1) / aLen;
+    List<Supplier<int[]>> pieces = new ArrayList<>(count);
+    for (int i = 0; i < count; i++)
+    {
+      int offset = i * aLen;
+      pieces.add(() -> multiply(a, slice(b, offset, offset + aLen)));
+    }
+    int[][] products = all(aLen, pieces);
+
+    int[] ret = new int[aLen + bLen];
+    for (int i = 0; i < products.length; i++)
+      addInto(ret, products[i], i * aLen);
+    return trim(ret);
+  }
+
+  /**
+   * Karatsuba multiplication.
+   *
+   * Splits each number in half, a = a1*B^h + a0, and uses
+   * a*b = a1*b1*B^2h + ((a0+a1)(b0+b1) - a0*b0 - a1*b1)*B^h + a0*b0
+   * which takes three half sized multiplications rather than four.
+   *
+   * @since 1.2
+   */
+  private static int[] multiplyKaratsuba(int[] a, int aLen, int[] b, int bLen)
+  {
+    int half = (Math.max(aLen, bLen) + 1) / 2;
+
+    int[] a0 = slice(a, 0, half);
+    int[] a1 = slice(a, half, aLen);
+    int[] b0 = slice(b, 0, half);
+    int[] b1 = slice(b, half, bLen);
+
+    int[] a01 = add(a0, a1);
+    int[] b01 = add(b0, b1);
+    int[][] z = all(half, () -> multiply(a0, b0), () -> multiply(a1, b1), () -> multiply(a01, b01));
+    int[] z0 = z[0];
+    int[] z2 = z[1];
+    // The middle term is always positive, so we never need to worry about signs.
+    int[] z1 = subtract(subtract(z[2], z0), z2);
+
+    int[] ret = new int[aLen + bLen];
+    addInto(ret, z0, 0);
+    addInto(ret, z1, half);
+    addInto(ret, z2, 2 * half);
+    return trim(ret);
+  }
+
+  /**
+   * Toom-Cook 3-way multiplication.
+   *
+   * Splits each number in three, treats them as polynomials in B^k, evaluates both at 0, 1, -1, 2 and infinity,
+   * multiplies those five pairs, and then interpolates the product polynomial back out of them.
+   * This takes five third sized multiplications rather than nine.
+   * Uses the evaluation and interpolation sequence given by Marco Bodrato.
+   *
+   * The points at -1 make some of the intermediate values negative, so those steps use {@link com.hypereclipse.selkie.cas.MutableInt} to keep track of the signs, updating a few running values in place rather than creating new ones at every step.
+   * Only the five recursive products are done on magnitudes directly.
+   *
+   * @since 1.2
+   */
+  private static int[] multiplyToomCook3(int[] a, int aLen, int[] b, int bLen)
+  {
+    int k = (Math.max(aLen, bLen) + 2) / 3;
+
+    int[] a0 = slice(a, 0, k);
+    int[] a1 = slice(a, k, 2 * k);
+    int[] a2 = slice(a, 2 * k, aLen);
+    int[] b0 = slice(b, 0, k);
+    int[] b1 = slice(b, k, 2 * k);
+    int[] b2 = slice(b, 2 * k, bLen);
+
+    // Evaluation, at -1, 1 and 2. (0 and infinity are just a0 and a2.)
+    MutableInt da = new MutableInt(k + 2).addInPlace(a2).addInPlace(a0);
+    MutableInt db = new MutableInt(k + 2).addInPlace(b2).addInPlace(b0);
+    da.subtractInPlace(a1);
+    db.subtractInPlace(b1);
+    boolean vm1Negative = da.isNegative() ^ db.isNegative();
+    int[] am1 = da.toMagnitude();
+    int[] bm1 = db.toMagnitude();
+    da.addInPlace(a1).addInPlace(a1);
+    db.addInPlace(b1).addInPlace(b1);
+    int[] ap1 = da.toMagnitude();
+    int[] bp1 = db.toMagnitude();
+    da.addInPlace(a2).shiftInPlace(1).subtractInPlace(a0);
+    db.addInPlace(b2).shiftInPlace(1).subtractInPlace(b0);
+    int[] ap2 = da.toMagnitude();
+    int[] bp2 = db.toMagnitude();
+
+    int[][] v = all(k, () -> multiply(a0, b0), () -> multiply(am1, bm1), () -> multiply(ap1, bp1), () -> multiply(ap2, bp2), () -> multiply(a2, b2));
+    return interpolateToomCook3(v[0], v[1], vm1Negative, v[2], v[3], v[4], k, aLen + bLen);
+  }
+
+  /**
+   * The interpolation half of Toom-Cook 3-way, shared by multiplication and squaring.
+   * Takes the product polynomial's values at 0, -1, 1, 2 and infinity, and adds its coefficients together into the result.
+   * Only the value at -1 can be negative.
+   *
+   * @param k The number of limbs in each piece the factors were split into.
+   * @param len The number of limbs the product can have.
+   * @since 1.2
+   */
+  private static int[] interpolateToomCook3(int[] v0, int[] vm1, boolean vm1Negative, int[] v1, int[] v2, int[] vinf, int k, int len)
+  {
+    // Every division here is exact.
+    MutableInt t2 = new MutableInt(v2).subtractInPlace(vm1, vm1Negative).divideExactBy3InPlace();
+    MutableInt tm1 = new MutableInt(v1).subtractInPlace(vm1, vm1Negative).shiftInPlace(-1);
+    MutableInt t1 = new MutableInt(v1).subtractInPlace(v0);
+    t2.subtractInPlace(t1).shiftInPlace(-1);
+    t1.subtractInPlace(tm1).subtractInPlace(vinf);
+    t2.subtractInPlace(vinf).subtractInPlace(vinf);
+    tm1.subtractInPlace(t2);
+
+    // What is left are the coefficients of the product polynomial, which are never negative.
+    int[] ret = new int[len];
+    addInto(ret, v0, 0);
+    tm1.addInto(ret, k);
+    t1.addInto(ret, 2 * k);
+    t2.addInto(ret, 3 * k);
+    addInto(ret, vinf, 4 * k);
+    return trim(ret);
+  }
+
+
+
+  /**
+   * Squares a magnitude, picking the algorithm from its size.
+   *
+   * @param a The value to square.
+   * @return A new, trimmed magnitude holding the square.
+   * @since 1.2
+   */
+  static int[] square(int[] a)
+  {
+    int len = length(a);
+
+    if (len == 0)
+      return EMPTY;
+    if (len < KARATSUBA_SQUARE_THRESHOLD)
+      return trim(squareSchoolbook(a, len));
+    if (len >= NTT_SQUARE_THRESHOLD && 2 * len <= NumberTheoreticTransform.MAX_LENGTH)
+      return trim(NumberTheoreticTransform.square(a, len));
+    if (len < TOOM_COOK_SQUARE_THRESHOLD)
+      return squareKaratsuba(a, len);
+    return squareToomCook3(a, len);
+  }
+
+  /**
+   * Schoolbook squaring.
+   *
+   * Every product a[i]*a[j] with i != j shows up twice in the square, so each is only found once and the sum is doubled.
+   * Then the squares of each limb are added in along the diagonal. This takes about half the limb products of {@link com.hypereclipse.selkie.cas.Multiplication#multiplySchoolbook(int[], int, int[], int)}.
+   *
+   * @return A new magnitude of exactly <code>2 * len</code> limbs. It may have a leading zero.
+   * @since 1.2
+   */
+  static int[] squareSchoolbook(int[] a, int len)
+  {
+    int[] ret = new int[2 * len];
+
+    // Each product above the diagonal, once.
+    for (int i = 0; i < len; i++)
+    {
+      long factor = a[i] & LONG_MASK;
+      if (factor == 0)
+        continue;
+      long product = 0;
+      for (int j = i + 1; j < len; j++)
+      {
+        product = factor * (a[j] & LONG_MASK) + (ret[i + j] & LONG_MASK) + (product >>> 32);
+        ret[i + j] = (int) product;
+      }
+      ret[i + len] = (int) (product >>> 32);
+    }
+
+    // Double them, ...
+    for (int i = ret.length - 1; i > 0; i--)
+      ret[i] = (ret[i] << 1) | (ret[i - 1] >>> 31);
+    ret[0] <<= 1;
+
+    // ... and add in the diagonal.
+    long carry = 0;
+    for (int i = 0; i < len; i++)
+    {
+      long square = (a[i] & LONG_MASK) * (a[i] & LONG_MASK);
+      long low = (ret[2 * i] & LONG_MASK) + (square & LONG_MASK) + carry;
+      ret[2 * i] = (int) low;
+      long high = (ret[2 * i + 1] & LONG_MASK) + (square >>> 32) + (low >>> 32);
+      ret[2 * i + 1] = (int) high;
+      carry = high >>> 32;
+    }
+    return ret;
+  }
+
+  /**
+   * Karatsuba squaring.
+   *
+   * Same as {@link com.hypereclipse.selkie.cas.Multiplication#multiplyKaratsuba(int[], int, int[], int)}, but each of the three products is a square.
+   *
+   * @since 1.2
+   */
+  private static int[] squareKaratsuba(int[] a, int len)
+  {
+    int half = (len + 1) / 2;
+
+    int[] a0 = slice(a, 0, half);
+    int[] a1 = slice(a, half, len);
+
+    int[] a01 = add(a0, a1);
+    int[][] z = all(half, () -> square(a0), () -> square(a1), () -> square(a01));
+    int[] z0 = z[0];
+    int[] z2 = z[1];
+    int[] z1 = subtract(subtract(z[2], z0), z2);
+
+    int[] ret = new int[2 * len];
+    addInto(ret, z0, 0);
+    addInto(ret, z1, half);
+    addInto(ret, z2, 2 * half);
+    return trim(ret);
+  }
+
+  /**
+   * Toom-Cook 3-way squaring.
+   *
+   * Same as {@link com.hypereclipse.selkie.cas.Multiplication#multiplyToomCook3(int[], int, int[], int)}, but only one polynomial needs to be evaluated, and each of the five products is a square.
+   *
+   * @since 1.2
+   */
+  private static int[] squareToomCook3(int[] a, int len)
+  {
+    int k = (len + 2) / 3;
+
+    int[] a0 = slice(a, 0, k);
+    int[] a1 = slice(a, k, 2 * k);
+    int[] a2 = slice(a, 2 * k, len);
+
+    // Evaluation, at -1, 1 and 2. (0 and infinity are just a0 and a2.)
+    MutableInt da = new MutableInt(k + 2).addInPlace(a2).addInPlace(a0);
+    da.subtractInPlace(a1);
+    int[] am1 = da.toMagnitude();
+    da.addInPlace(a1).addInPlace(a1);
+    int[] ap1 = da.toMagnitude();
+    da.addInPlace(a2).shiftInPlace(1).subtractInPlace(a0);
+    int[] ap2 = da.toMagnitude();
+
+    int[][] v = all(k, () -> square(a0), () -> square(am1), () -> square(ap1), () -> square(ap2), () -> square(a2));
+    return interpolateToomCook3(v[0], v[1], false, v[2], v[3], v[4], k, 2 * len);
+  }
+
+
+
+  /**
+   * Finds several independent products (or anything else that makes a magnitude), in parallel if {@link com.hypereclipse.selkie.cas.Multiplication#pool} is set and the operands are long enough.
+   * When called from a task already running on the pool, the jobs are forked from there, so nested splits share the same workers rather than waiting on each other.
+   *
+   * @param len The length of the operands, in limbs, to compare against {@link com.hypereclipse.selkie.cas.Multiplication#PARALLEL_THRESHOLD}.
+   * @param jobs The jobs to run.
+   * @return The result of each job, in the same order.
+   * @since 1.2
+   */
+  @SafeVarargs
+  static int[][] all(int len, Supplier<int[]>... jobs)
+  {
+    List<Supplier<int[]>> list = new ArrayList<>(jobs.length);
+    for (Supplier<int[]> job : jobs)
+      list.add(job);
+    return all(len, list);
+  }
+
+  /**
+   * @param len The length of the operands, in limbs, to compare against {@link com.hypereclipse.selkie.cas.Multiplication#PARALLEL_THRESHOLD}.
+   * @param jobs The jobs to run.
+   * @return The result of each job, in the same order.
+   * @since 1.2
+   */
+  static int[][] all(int len, List<Supplier<int[]>> jobs)
+  {
+    int[][] ret = new int[jobs.size()][];
+    ForkJoinPool pool = Multiplication.pool;
+    if (pool == null || len < PARALLEL_THRESHOLD)
+    {
+      for (int i = 0; i < ret.length; i++)
+        ret[i] = jobs.get(i).get();
+      return ret;
+    }
+
+    Job[] tasks = new Job[ret.length];
+    for (int i = 0; i < ret.length; i++)
+      tasks[i] = new Job(jobs.get(i));
+    if (ForkJoinTask.getPool() == pool)
+      ForkJoinTask.invokeAll(tasks);
+    else
+      pool.invoke(new RecursiveAction()
+      {
+        protected void compute()
+        {
+          invokeAll(tasks);
+        }
+      });
+    for (int i = 0; i < ret.length; i++)
+      ret[i] = tasks[i].join();
+    return ret;
+  }
+
+  /**
+   * One job of {@link com.hypereclipse.selkie.cas.Multiplication#all(int, List)}, as a task for the pool.
+   *
+   * @since 1.2
+   */
+  private static final class Job extends RecursiveTask<int[]>
+  {
+    private static final long serialVersionUID = 1L;
+
+    final Supplier<int[]> job;
+
+    Job(Supplier<int[]> job)
+    {
+      this.job = job;
+    }
+
+    protected int[] compute()
+    {
+      return job.get();
+    }
+  }
+}
@@ -0,0 +1,522 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+
+/**
+ * class MutableInt
+ *
+ * A signed integer that is changed in place, for the inner loops of the algorithms behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every {@link com.hypereclipse.selkie.cas.Int} operation returns a new object with a new array, which is what we want from a value,
+ * but a loop that keeps updating a running total would throw away one of each per step. This reuses one buffer instead, only growing it when the value outgrows it,
+ * and is turned into an {@link com.hypereclipse.selkie.cas.Int} (or a magnitude) once the loop is done.
+ *
+ * Like {@link com.hypereclipse.selkie.cas.Int}, it is a sign and a little-endian array of unsigned 32-bit limbs.
+ * Only the first {@link com.hypereclipse.selkie.cas.MutableInt#length} limbs are used, and every limb past them is kept zero,
+ * so the buffer can be read past the end of the value without any checks.
+ *
+ * Arrays passed in are only read, and never kept. None of this is thread safe.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class MutableInt
+{
+  /**
+   * The limbs. Everything from {@link com.hypereclipse.selkie.cas.MutableInt#length} on is zero.
+   *
+   * @since 1.2
+   */
+  private int[] value;
+  /**
+   * The number of limbs in use. The top one is never zero, so zero has a length of zero.
+   *
+   * @since 1.2
+   */
+  private int length;
+  /**
+   * Whether the value is negative. Zero is never negative.
+   *
+   * @since 1.2
+   */
+  private boolean negative;
+  /**
+   * A second buffer, kept around for {@link com.hypereclipse.selkie.cas.MutableInt#multiplyInPlace(int[])} to write products into before swapping it with the first.
+   *
+   * @since 1.2
+   */
+  private int[] scratch;
+
+
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.MutableInt}.
+   *
+   * Creates a zero with room for <code>capacity</code> limbs before it needs to grow.
+   *
+   * @param capacity The number of limbs to make room for.
+   * @since 1.2
+   */
+  MutableInt(int capacity)
+  {
+    this.value = new int[Math.max(capacity, 1)];
+  }
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.MutableInt}.
+   *
+   * Creates a copy of a non-negative magnitude, with a limb of room to carry into.
+   *
+   * @param mag The magnitude to copy.
+   * @since 1.2
+   */
+  MutableInt(int[] mag)
+  {
+    this(mag.length + 1);
+    set(mag, false);
+  }
+
+
+
+  /**
+   * Sets this to a copy of a signed magnitude.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt set(int[] mag, boolean negative)
+  {
+    int len = Magnitude.length(mag);
+    ensureCapacity(len);
+    System.arraycopy(mag, 0, value, 0, len);
+    if (length > len)
+      Arrays.fill(value, len, length, 0);
+    setLength(len);
+    this.negative = negative && len != 0;
+    return this;
+  }
+
+  /**
+   * Sets this to a single unsigned limb.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt setWord(int word)
+  {
+    Arrays.fill(value, 1, Math.max(length, 1), 0);
+    value[0] = word;
+    setLength(1);
+    negative = false;
+    return this;
+  }
+
+  /**
+   * @return <code>true</code> if this is zero.
+   * @since 1.2
+   */
+  boolean isZero()
+  {
+    return length == 0;
+  }
+
+  /**
+   * @return <code>true</code> if this is less than zero.
+   * @since 1.2
+   */
+  boolean isNegative()
+  {
+    return negative;
+  }
+
+  /**
+   * @return The number of limbs in the magnitude, not counting leading zeros.
+   * @since 1.2
+   */
+  int length()
+  {
+    return length;
+  }
+
+
+
+  /**
+   * Adds a signed magnitude to this.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt addInPlace(int[] mag, boolean negative)
+  {
+    return add(mag, Magnitude.length(mag), negative);
+  }
+
+  /**
+   * Adds a non-negative magnitude to this.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt addInPlace(int[] mag)
+  {
+    return add(mag, Magnitude.length(mag), false);
+  }
+
+  /**
+   * Adds another {@link com.hypereclipse.selkie.cas.MutableInt} to this. It may be this one.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt addInPlace(MutableInt other)
+  {
+    return add(other.value, other.length, other.negative);
+  }
+
+  /**
+   * Subtracts a signed magnitude from this.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt subtractInPlace(int[] mag, boolean negative)
+  {
+    return add(mag, Magnitude.length(mag), !negative);
+  }
+
+  /**
+   * Subtracts a non-negative magnitude from this.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt subtractInPlace(int[] mag)
+  {
+    return add(mag, Magnitude.length(mag), true);
+  }
+
+  /**
+   * Subtracts another {@link com.hypereclipse.selkie.cas.MutableInt} from this. It may be this one.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt subtractInPlace(MutableInt other)
+  {
+    return add(other.value, other.length, !other.negative);
+  }
+
+  /**
+   * Sets this to <code>this * factor + addend</code>, where both are read as unsigned 32-bit values, and the addend has the same sign as this.
+   * This is the step of reading digits into a number, or of multiplying by a small constant.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt multiplyAddWord(int factor, int addend)
+  {
+    ensureCapacity(length + 1);
+    long f = factor & LONG_MASK;
+    long carry = addend & LONG_MASK;
+    for (int i = 0; i < length; i++)
+    {
+      // A limb times a limb, plus a limb, always fits in an unsigned long.
+      carry += (value[i] & LONG_MASK) * f;
+      value[i] = (int) carry;
+      carry >>>= 32;
+    }
+    value[length] = (int) carry;
+    setLength(length + 1);
+    return this;
+  }
+
+  /**
+   * Divides the magnitude of this by a single limb, truncating towards zero.
+   *
+   * @param divisor The divisor, read as an unsigned 32-bit value. Must not be zero.
+   * @return The remainder of the magnitude, read as an unsigned 32-bit value.
+   * @since 1.2
+   */
+  int divideByWordInPlace(int divisor)
+  {
+    int ret = Division.divideByWord(value, length, divisor, value);
+    setLength(length);
+    return ret;
+  }
+
+  /**
+   * Divides this by 3, when it is known to be a multiple of 3.
+   *
+   * Rather than dividing, this multiplies by the inverse of 3 modulo 2^32 one limb at a time, which gives the exact quotient when there is no remainder.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt divideExactBy3InPlace()
+  {
+    long borrow = 0;
+    for (int i = 0; i < length; i++)
+    {
+      long w = (value[i] & LONG_MASK) - borrow;
+      borrow = w < 0 ? 1 : 0;
+      int q = (int) w * 0xAAAAAAAB;
+      value[i] = q;
+      // Whatever 3*q carries past this limb has to be taken out of the next one.
+      borrow += ((q & LONG_MASK) * 3) >>> 32;
+    }
+    setLength(length);
+    return this;
+  }
+
+  /**
+   * Shifts the magnitude of this. Shifting right drops the bits shifted past the bottom, so it truncates towards zero.
+   *
+   * @param bits The number of bits to shift left by. Negative to shift right.
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt shiftInPlace(int bits)
+  {
+    if (length == 0 || bits == 0)
+      return this;
+
+    if (bits > 0)
+    {
+      int limbs = bits >>> 5;
+      bits &= 0x1F;
+      ensureCapacity(length + limbs + 1);
+      if (bits == 0)
+        System.arraycopy(value, 0, value, limbs, length);
+      else
+      {
+        // Go from the top down, so nothing is overwritten before it is read.
+        value[length + limbs] = value[length - 1] >>> (32 - bits);
+        for (int i = length - 1; i > 0; i--)
+          value[i + limbs] = (value[i] << bits) | (value[i - 1] >>> (32 - bits));
+        value[limbs] = value[0] << bits;
+      }
+      Arrays.fill(value, 0, limbs, 0);
+      setLength(length + limbs + 1);
+    }
+    else
+    {
+      int limbs = (-bits) >>> 5;
+      bits = (-bits) & 0x1F;
+      if (limbs >= length)
+      {
+        Arrays.fill(value, 0, length, 0);
+        return setLength(0);
+      }
+      // Go from the bottom up, so nothing is overwritten before it is read.
+      for (int i = 0; i < length - limbs; i++)
+        value[i] = bits == 0 || i + limbs + 1 >= length ? value[i + limbs] >>> bits : (value[i + limbs] >>> bits) | (value[i + limbs + 1] << (32 - bits));
+      int oldLength = length;
+      setLength(length - limbs);
+      Arrays.fill(value, length, oldLength, 0);
+    }
+    return this;
+  }
+
+  /**
+   * Multiplies this by a non-negative magnitude.
+   * Short factors are multiplied with long multiplication into a second buffer that is kept for next time, so a loop of them doesn't allocate anything once the buffers are large enough.
+   * Longer ones are left to {@link com.hypereclipse.selkie.cas.Multiplication}.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  MutableInt multiplyInPlace(int[] mag)
+  {
+    int magLen = Magnitude.length(mag);
+    if (Math.min(length, magLen) >= Multiplication.KARATSUBA_THRESHOLD)
+      return set(Multiplication.multiply(Magnitude.slice(value, 0, length), mag), negative);
+
+    int len = length + magLen;
+    if (scratch == null || scratch.length < len)
+      scratch = new int[len + 1];
+    else
+      Arrays.fill(scratch, 0, len, 0);
+    for (int i = 0; i < magLen; i++)
+    {
+      long factor = mag[i] & LONG_MASK;
+      long carry = 0;
+      for (int j = 0; j < length; j++)
+      {
+        carry += (scratch[i + j] & LONG_MASK) + factor * (value[j] & LONG_MASK);
+        scratch[i + j] = (int) carry;
+        carry >>>= 32;
+      }
+      scratch[i + length] = (int) carry;
+    }
+
+    // Swap the buffers. The old one becomes the scratch buffer next time, which is cleared before it is used.
+    int[] old = value;
+    value = scratch;
+    scratch = old;
+    Arrays.fill(value, len, value.length, 0);
+    return setLength(len);
+  }
+
+  /**
+   * Compares the magnitude of this to another magnitude.
+   *
+   * @return A negative number, zero, or a positive number as the magnitude of this is less than, equal to, or greater than <code>mag</code>.
+   * @since 1.2
+   */
+  int compareMagnitude(int[] mag)
+  {
+    return compareMagnitude(mag, Magnitude.length(mag));
+  }
+
+  /**
+   * Adds the magnitude of this, shifted up by <code>offset</code> limbs, into <code>result</code>.
+   * Requires that this is not negative, and that the sum fits in <code>result</code>.
+   *
+   * @since 1.2
+   */
+  void addInto(int[] result, int offset)
+  {
+    if (negative)
+      throw new IllegalStateException("Adding a negative number into a magnitude. See MutableInt#addInto(int[], int).");
+    long sum = 0;
+    int i = 0;
+    for (; i < length; i++)
+    {
+      sum = (result[offset + i] & LONG_MASK) + (value[i] & LONG_MASK) + (sum >>> 32);
+      result[offset + i] = (int) sum;
+    }
+    for (i += offset; (sum >>> 32) != 0; i++)
+    {
+      if (i >= result.length)
+        throw new IllegalStateException("Carrying a number beyond its bound. See MutableInt#addInto(int[], int).");
+      sum = (result[i] & LONG_MASK) + 1;
+      result[i] = (int) sum;
+    }
+  }
+
+  /**
+   * @return A new, trimmed copy of the magnitude of this.
+   * @since 1.2
+   */
+  int[] toMagnitude()
+  {
+    return length == 0 ? Magnitude.EMPTY : Arrays.copyOf(value, length);
+  }
+
+  /**
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} with the same value as this. Later changes to this do not affect it.
+   * @since 1.2
+   */
+  Int toInt()
+  {
+    return length == 0 ? Int.ZERO : new Int(toMagnitude(), negative);
+  }
+
+  public String toString()
+  {
+    return toInt().toString();
+  }
+
+
+
+  /**
+   * Adds a signed magnitude of <code>len</code> limbs to this. The magnitude may be this one's own buffer.
+   *
+   * @since 1.2
+   */
+  private MutableInt add(int[] mag, int len, boolean magNegative)
+  {
+    if (len == 0)
+      return this;
+
+    if (negative == magNegative || length == 0)
+    {
+      // Same signs: add the magnitudes and keep the sign.
+      negative = magNegative;
+      int max = Math.max(length, len);
+      ensureCapacity(max + 1);
+      long sum = 0;
+      for (int i = 0; i < max; i++)
+      {
+        sum = (value[i] & LONG_MASK) + (i < len ? mag[i] & LONG_MASK : 0) + (sum >>> 32);
+        value[i] = (int) sum;
+      }
+      value[max] = (int) (sum >>> 32);
+      return setLength(max + 1);
+    }
+
+    // Different signs: take the smaller magnitude from the larger one, and keep the sign of the larger.
+    int cmp = compareMagnitude(mag, len);
+    if (cmp == 0)
+    {
+      Arrays.fill(value, 0, length, 0);
+      return setLength(0);
+    }
+    long difference = 0;
+    if (cmp > 0)
+    {
+      for (int i = 0; i < length; i++)
+      {
+        difference = (value[i] & LONG_MASK) - (i < len ? mag[i] & LONG_MASK : 0) + (difference >> 32);
+        value[i] = (int) difference;
+      }
+    }
+    else
+    {
+      ensureCapacity(len);
+      for (int i = 0; i < len; i++)
+      {
+        difference = (mag[i] & LONG_MASK) - (value[i] & LONG_MASK) + (difference >> 32);
+        value[i] = (int) difference;
+      }
+      negative = magNegative;
+      return setLength(len);
+    }
+    return setLength(length);
+  }
+
+  /**
+   * Compares the magnitude of this to one of <code>len</code> limbs.
+   *
+   * @since 1.2
+   */
+  private int compareMagnitude(int[] mag, int len)
+  {
+    if (length != len)
+      return length < len ? -1 : 1;
+    for (int i = len - 1; i >= 0; i--)
+      if (value[i] != mag[i])
+        return Integer.compareUnsigned(value[i], mag[i]);
+    return 0;
+  }
+
+  /**
+   * Grows the buffer, if needed, so it holds at least <code>capacity</code> limbs.
+   *
+   * @since 1.2
+   */
+  private void ensureCapacity(int capacity)
+  {
+    if (capacity > value.length)
+      // Grow by half again as much, so a value that keeps growing only needs to be copied a few times.
+      value = Arrays.copyOf(value, Math.max(capacity, value.length + (value.length >> 1)));
+  }
+
+  /**
+   * Sets the length to at most <code>len</code>, dropping any leading zero limbs. Zero is never negative.
+   *
+   * @return This {@link com.hypereclipse.selkie.cas.MutableInt}.
+   * @since 1.2
+   */
+  private MutableInt setLength(int len)
+  {
+    while (len > 0 && value[len - 1] == 0)
+      len--;
+    length = len;
+    if (len == 0)
+      negative = false;
+    return this;
+  }
+}
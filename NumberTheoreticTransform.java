@@ -0,0 +1,245 @@
+package com.hypereclipse.selkie.cas;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+
+/**
+ * class NumberTheoreticTransform
+ *
+ * Multiplies very large magnitudes with a number-theoretic transform, the modular arithmetic version of a fast Fourier transform.
+ *
+ * The limbs of each factor are treated as the coefficients of a polynomial, and the product is the convolution of those coefficients.
+ * The convolution is done three times, modulo three different primes that each fit in 31 bits, and the Chinese remainder theorem puts the three results back together.
+ * The product of the primes is just over 2^90, which is more than any one coefficient of the convolution can reach, so the coefficients come out exact.
+ * Only plain <code>long</code> arithmetic is used.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class NumberTheoreticTransform
+{
+  /**
+   * The three primes the convolution is done modulo. Each is one more than a multiple of 2^26, so each has a 2^26th root of unity.
+   *
+   * @since 1.2
+   */
+  private static final long P1 = 2013265921L, P2 = 1811939329L, P3 = 469762049L;
+  /**
+   * A generator of the multiplicative group of each prime, from which every root of unity is taken.
+   *
+   * @since 1.2
+   */
+  private static final long G1 = 31, G2 = 13, G3 = 3;
+  /**
+   * Constants for putting the three residues back together. See {@link com.hypereclipse.selkie.cas.NumberTheoreticTransform#combine(int[][], int[])}.
+   *
+   * @since 1.2
+   */
+  private static final long P1P2 = P1 * P2;
+  private static final long P1_INVERSE_MOD_P2 = pow(P1 % P2, P2 - 2, P2);
+  private static final long P1P2_INVERSE_MOD_P3 = pow(P1P2 % P3, P3 - 2, P3);
+  /**
+   * The largest transform that all three primes support. The product's length (<code>aLen + bLen</code>) must not be larger than this.
+   * This also keeps the shorter factor under 2^25 limbs, which keeps every coefficient under the product of the primes.
+   *
+   * @since 1.2
+   */
+  static final int MAX_LENGTH = 1 << 26;
+
+  private NumberTheoreticTransform() {}
+
+
+
+  /**
+   * Multiplies two magnitudes by convolving their limbs.
+   * Requires that <code>aLen + bLen</code> is at most {@link com.hypereclipse.selkie.cas.NumberTheoreticTransform#MAX_LENGTH}.
+   *
+   * @return A new magnitude of exactly <code>aLen + bLen</code> limbs. It may have a leading zero.
+   * @since 1.2
+   */
+  static int[] multiply(int[] a, int aLen, int[] b, int bLen)
+  {
+    if (aLen + bLen > MAX_LENGTH)
+      throw new IllegalArgumentException("Product is too large for a number-theoretic transform. See NumberTheoreticTransform#MAX_LENGTH.");
+
+    // The transform length has to be a power of two, and long enough that the convolution doesn't wrap around.
+    int n = Integer.highestOneBit(Math.max(aLen + bLen - 1, 1) * 2 - 1);
+
+    // The three primes don't depend on each other, so they can be done in parallel. See Multiplication#all(int, Supplier[]).
+    int[][] residues = Multiplication.all(Math.min(aLen, bLen),
+        () -> convolve(a, aLen, b, bLen, n, P1, G1),
+        () -> convolve(a, aLen, b, bLen, n, P2, G2),
+        () -> convolve(a, aLen, b, bLen, n, P3, G3));
+
+    int[] ret = new int[aLen + bLen];
+    combine(residues, ret);
+    return ret;
+  }
+
+  /**
+   * Squares a magnitude by convolving its limbs with themselves.
+   * This only needs one forward transform per prime, rather than two.
+   * Requires that <code>2 * aLen</code> is at most {@link com.hypereclipse.selkie.cas.NumberTheoreticTransform#MAX_LENGTH}.
+   *
+   * @return A new magnitude of exactly <code>2 * aLen</code> limbs. It may have a leading zero.
+   * @since 1.2
+   */
+  static int[] square(int[] a, int aLen)
+  {
+    return multiply(a, aLen, null, aLen);
+  }
+
+  /**
+   * Finds the convolution of the limbs of <code>a</code> and <code>b</code>, modulo <code>p</code>.
+   * If <code>b</code> is <code>null</code>, <code>a</code> is convolved with itself.
+   *
+   * @param n The transform length. A power of two.
+   * @param p The prime to work modulo.
+   * @param g A generator modulo <code>p</code>.
+   * @return The <code>n</code> coefficients of the convolution, each reduced modulo <code>p</code>.
+   * @since 1.2
+   */
+  static int[] convolve(int[] a, int aLen, int[] b, int bLen, int n, long p, long g)
+  {
+    int[] fa = residues(a, aLen, n, p);
+    transform(fa, p, g, false);
+    int[] fb = fa;
+    if (b != null)
+    {
+      fb = residues(b, bLen, n, p);
+      transform(fb, p, g, false);
+    }
+    for (int i = 0; i < n; i++)
+      fa[i] = (int) ((fa[i] * (long) fb[i]) % p);
+    transform(fa, p, g, true);
+    return fa;
+  }
+
+  /**
+   * @return The limbs of <code>a</code> reduced modulo <code>p</code>, padded with zeros to length <code>n</code>.
+   * @since 1.2
+   */
+  private static int[] residues(int[] a, int aLen, int n, long p)
+  {
+    int[] ret = new int[n];
+    for (int i = 0; i < aLen; i++)
+      ret[i] = (int) ((a[i] & LONG_MASK) % p);
+    return ret;
+  }
+
+  /**
+   * An in place, iterative (Cooley-Tukey) number-theoretic transform.
+   * The inverse transform also divides by the length, so that an inverse undoes a forward transform exactly.
+   *
+   * @param a The values to transform, each less than <code>p</code>. Its length must be a power of two.
+   * @since 1.2
+   */
+  private static void transform(int[] a, long p, long g, boolean inverse)
+  {
+    int n = a.length;
+
+    // Put the values in bit-reversed order, so each pass can work on neighbouring blocks.
+    for (int i = 1, j = 0; i < n; i++)
+    {
+      int bit = n >> 1;
+      for (; (j & bit) != 0; bit >>= 1)
+        j ^= bit;
+      j ^= bit;
+      if (i < j)
+      {
+        int temp = a[i];
+        a[i] = a[j];
+        a[j] = temp;
+      }
+    }
+
+    // Every power of an nth root of unity we need, so each pass only has to look them up.
+    int[] roots = new int[Math.max(n / 2, 1)];
+    long root = pow(g, (p - 1) / n, p);
+    if (inverse)
+      root = pow(root, p - 2, p);
+    roots[0] = 1;
+    for (int i = 1; i < roots.length; i++)
+      roots[i] = (int) ((roots[i - 1] * root) % p);
+
+    // Butterflies. Each pass combines pairs of transforms of length <code>half</code> into ones of length <code>len</code>.
+    for (int len = 2; len <= n; len <<= 1)
+    {
+      int half = len >> 1;
+      int stride = n / len;
+      for (int start = 0; start < n; start += len)
+        for (int k = 0; k < half; k++)
+        {
+          long u = a[start + k];
+          long v = (a[start + k + half] * (long) roots[k * stride]) % p;
+          a[start + k] = (int) (u + v < p ? u + v : u + v - p);
+          a[start + k + half] = (int) (u - v >= 0 ? u - v : u - v + p);
+        }
+    }
+
+    if (inverse)
+    {
+      long nInverse = pow(n, p - 2, p);
+      for (int i = 0; i < n; i++)
+        a[i] = (int) ((a[i] * nInverse) % p);
+    }
+  }
+
+  /**
+   * Puts each coefficient back together from its three residues with Garner's algorithm, and carries them into limbs.
+   *
+   * For residues r1, r2, r3, the coefficient is x12 + P1*P2*u, where x12 = r1 + P1*t is the coefficient modulo P1*P2.
+   * That can be up to 91 bits long, so it is carried around as two <code>long</code>s.
+   *
+   * @param residues The convolution modulo each of the three primes.
+   * @param ret Where the limbs of the product go.
+   * @since 1.2
+   */
+  private static void combine(int[][] residues, int[] ret)
+  {
+    int n = residues[0].length;
+    // The amount carried into the current limb, as an unsigned 128-bit value.
+    long carryLow = 0, carryHigh = 0;
+    for (int i = 0; i < ret.length; i++)
+    {
+      long low = carryLow, high = carryHigh;
+      if (i < n)
+      {
+        long r1 = residues[0][i], r2 = residues[1][i], r3 = residues[2][i];
+        long t = ((r2 - r1 % P2 + P2) % P2) * P1_INVERSE_MOD_P2 % P2;
+        long x12 = r1 + P1 * t;
+        long u = ((r3 - x12 % P3 + P3) % P3) * P1P2_INVERSE_MOD_P3 % P3;
+
+        // Add P1*P2*u, and then x12.
+        long productLow = P1P2 * u;
+        long productHigh = Math.multiplyHigh(P1P2, u);
+        low += productLow;
+        high += productHigh + (Long.compareUnsigned(low, productLow) < 0 ? 1 : 0);
+        long before = low;
+        low += x12;
+        high += Long.compareUnsigned(low, before) < 0 ? 1 : 0;
+      }
+      ret[i] = (int) low;
+      carryLow = (low >>> 32) | (high << 32);
+      carryHigh = high >>> 32;
+    }
+  }
+
+  /**
+   * @return <code>base^exp mod m</code>. Requires that <code>base</code> and <code>m</code> are less than 2^31.
+   * @since 1.2
+   */
+  private static long pow(long base, long exp, long m)
+  {
+    long ret = 1;
+    base %= m;
+    while (exp > 0)
+    {
+      if ((exp & 1) == 1)
+        ret = (ret * base) % m;
+      base = (base * base) % m;
+      exp >>= 1;
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,234 @@
+package com.hypereclipse.selkie.cas;
+
+/**
+ * enum Operator
+ *
+ * The operators an {@link com.hypereclipse.selkie.cas.Expression} can use, with how tightly each one binds, and how to apply it to {@link com.hypereclipse.selkie.cas.Value}s.
+ *
+ * From tightest to loosest: the postfix operators (<code>++ -- !</code>), <code>**</code> (which groups from the right), the prefix operators (<code>++ -- + - !</code>),
+ * <code>* / %</code>, <code>+ -</code>, then the bitwise <code>&amp;</code>, <code>^</code> and <code>|</code>, in that order, as in C.
+ * Since <code>**</code> binds tighter than a prefix minus, <code>-2**2</code> is <code>-(2**2)</code>, but a minus on the right of it is still part of the exponent, as in <code>2**-1</code>.
+ *
+ * The decimal point and the exponent of scientific notation (the <code>.</code>, <code>E+</code> and <code>E-</code> of {@link com.hypereclipse.selkie.cas.Expression#operators_binary})
+ * are read as part of a number by {@link com.hypereclipse.selkie.cas.ExpressionTokenizer}, so they aren't operators here.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public enum Operator
+{
+  INCREMENT_POSTFIX("++", Fixity.POSTFIX, 90),
+  DECREMENT_POSTFIX("--", Fixity.POSTFIX, 90),
+  FACTORIAL("!", Fixity.POSTFIX, 90),
+  POWER("**", Fixity.INFIX_RIGHT, 80),
+  INCREMENT("++", Fixity.PREFIX, 70),
+  DECREMENT("--", Fixity.PREFIX, 70),
+  PLUS("+", Fixity.PREFIX, 70),
+  NEGATE("-", Fixity.PREFIX, 70),
+  NOT("!", Fixity.PREFIX, 70),
+  MULTIPLY("*", Fixity.INFIX, 60),
+  DIVIDE("/", Fixity.INFIX, 60),
+  MOD("%", Fixity.INFIX, 60),
+  ADD("+", Fixity.INFIX, 50),
+  SUBTRACT("-", Fixity.INFIX, 50),
+  AND("&", Fixity.INFIX, 40),
+  XOR("^", Fixity.INFIX, 30),
+  OR("|", Fixity.INFIX, 20);
+
+  /**
+   * Where an operator goes, relative to its operands.
+   *
+   * @since 1.2
+   */
+  public enum Fixity
+  {
+    /** Before its one operand. */
+    PREFIX,
+    /** After its one operand. */
+    POSTFIX,
+    /** Between its two operands, grouping from the left: <code>a - b - c = (a - b) - c</code>. */
+    INFIX,
+    /** Between its two operands, grouping from the right: <code>a ** b ** c = a ** (b ** c)</code>. */
+    INFIX_RIGHT
+  }
+
+  /**
+   * How the operator is written.
+   */
+  public final String symbol;
+  public final Fixity fixity;
+  /**
+   * How tightly the operator binds. Higher binds tighter.
+   */
+  public final int precedence;
+
+  Operator(String symbol, Fixity fixity, int precedence)
+  {
+    this.symbol = symbol;
+    this.fixity = fixity;
+    this.precedence = precedence;
+  }
+
+
+
+  /**
+   * @return <code>true</code> if this takes one operand, <code>false</code> if it takes two.
+   * @since 1.2
+   */
+  public boolean isUnary()
+  {
+    return fixity == Fixity.PREFIX || fixity == Fixity.POSTFIX;
+  }
+
+  /**
+   * Applies this unary operator.
+   *
+   * @param operand The operand.
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If this is not unary, or the operand is not something it applies to.
+   * @since 1.2
+   */
+  public Value apply(Value operand)
+  {
+    switch (this)
+    {
+      case INCREMENT:
+      case INCREMENT_POSTFIX:
+        return operand.add(Int.ONE);
+      case DECREMENT:
+      case DECREMENT_POSTFIX:
+        return operand.subtract(Int.ONE);
+      case PLUS:
+        return operand;
+      case NEGATE:
+        return operand.negate();
+      case NOT:
+        return integer(operand).not();
+      case FACTORIAL:
+        return Int.factorial(smallInteger(operand));
+      default:
+        throw new IllegalArgumentException(this + " takes two operands.");
+    }
+  }
+
+  /**
+   * Applies this binary operator.
+   *
+   * @param left The left operand.
+   * @param right The right operand.
+   * @return A {@link com.hypereclipse.selkie.cas.Value} representing the result.
+   * @throws IllegalArgumentException If this is not binary, or the operands are not something it applies to.
+   * @since 1.2
+   */
+  public Value apply(Value left, Value right)
+  {
+    switch (this)
+    {
+      case POWER:
+        return pow(left, right);
+      case MULTIPLY:
+        return left.multiply(right);
+      case DIVIDE:
+        return left.divide(right);
+      case MOD:
+        return left.mod(right);
+      case ADD:
+        return left.add(right);
+      case SUBTRACT:
+        return left.subtract(right);
+      case AND:
+        return integer(left).and(integer(right));
+      case XOR:
+        return integer(left).xor(integer(right));
+      case OR:
+        return integer(left).or(integer(right));
+      default:
+        throw new IllegalArgumentException(this + " takes one operand.");
+    }
+  }
+
+
+
+  /**
+   * Raises a {@link com.hypereclipse.selkie.cas.Value} to an integer power. Negative powers of an {@link com.hypereclipse.selkie.cas.Int} give a {@link com.hypereclipse.selkie.cas.Rational}.
+   *
+   * @since 1.2
+   */
+  static Value pow(Value base, Value exponent)
+  {
+    Int e = integer(exponent);
+    Integer exp = e.toInt();
+    if (exp == null)
+    {
+      // Zero, one and negative one are the only bases whose huge powers are still small.
+      if (base.equals(Int.ONE) || base.isZero() && e.isPositive())
+        return base;
+      if (base.equals(Int.NEGATIVEONE))
+        return e.testBit(0) ? base : Int.ONE;
+      throw new IllegalArgumentException("An exponent of " + e.bitLength() + " bits is too large.");
+    }
+    if (base instanceof Rational)
+      return ((Rational) base).pow(exp);
+    Int b = integer(base);
+    if (exp < 0)
+      return Rational.valueOf(b).pow(exp);
+    return b.pow(exp);
+  }
+
+  /**
+   * Finds <code>base ** exponent % modulus</code>, the same as {@link com.hypereclipse.selkie.cas.Operator#MOD} of {@link com.hypereclipse.selkie.cas.Operator#POWER}.
+   *
+   * When all three are whole numbers, the power is an integer, and the modulus isn't zero, this uses {@link com.hypereclipse.selkie.cas.Int#modPow(Int, Int)},
+   * so the full power is never made, and exponents too large for {@link com.hypereclipse.selkie.cas.Operator#pow(Value, Value)} still work.
+   * Otherwise the power is found and then reduced.
+   *
+   * @since 1.2
+   */
+  static Value modPow(Value base, Value exponent, Value modulus)
+  {
+    Int b = whole(base);
+    Int e = whole(exponent);
+    Int m = whole(modulus);
+    if (b != null && e != null && m != null && !e.isNegative() && !m.isZero())
+    {
+      Value ret = ((Int) b.abs()).modPow(e, (Int) m.abs());
+      // % keeps the sign of the power, which is only negative for a negative base to an odd power.
+      return b.isNegative() && e.testBit(0) ? ret.negate() : ret;
+    }
+    return MOD.apply(pow(base, exponent), modulus);
+  }
+
+  private static Int integer(Value value)
+  {
+    Int ret = whole(value);
+    if (ret == null)
+      throw new IllegalArgumentException("Expected an integer, but found " + value + ".");
+    return ret;
+  }
+
+  /**
+   * @return The value as an {@link com.hypereclipse.selkie.cas.Int} if it is a whole number, including a {@link com.hypereclipse.selkie.cas.Rational} such as <code>4/2</code>, otherwise <code>null</code>.
+   * @since 1.2
+   */
+  private static Int whole(Value value)
+  {
+    if (value instanceof Int)
+      return (Int) value;
+    if (value instanceof Rational)
+    {
+      Value lowest = ((Rational) value).lowestTerms();
+      if (lowest instanceof Int)
+        return (Int) lowest;
+    }
+    return null;
+  }
+
+  private static int smallInteger(Value value)
+  {
+    Integer ret = integer(value).toInt();
+    if (ret == null)
+      throw new IllegalArgumentException(value + " is too large.");
+    return ret;
+  }
+}
@@ -0,0 +1,855 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+
+/**
+ * class Prime (extends Int)
+ *
+ * An {@link com.hypereclipse.selkie.cas.Int} that is known to be prime, along with the tools for finding them: a sieve, primality tests, and factoring.
+ *
+ * Primality is decided by Miller-Rabin for values that fit in a <code>long</code>, with a fixed set of bases known to give the right answer for every 64-bit value,
+ * and by the Baillie-PSW test for anything larger: a strong probable prime test to base 2 followed by a strong Lucas probable prime test.
+ * No composite number is known to pass both, and none exist below 2^64.
+ *
+ * Factoring divides out the primes below {@link com.hypereclipse.selkie.cas.Prime#TRIAL_DIVISION_LIMIT} first, then splits what's left with
+ * Pollard's rho algorithm, as improved by Brent. Several attempts with different polynomials race on the factoring pool, and the first to find a factor wins.
+ * Factoring can take arbitrarily long, so it gives up after a time budget, leaving whatever it couldn't split as a plain {@link com.hypereclipse.selkie.cas.Int}.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public class Prime extends Int
+{
+  /**
+   * The number of values the sieve marks off at a time. Large enough to be quick, small enough to stay in cache.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.sieveSegment</code> system property.
+   *
+   * @since 1.2
+   */
+  static int SIEVE_SEGMENT = Integer.getInteger("com.hypereclipse.selkie.cas.sieveSegment", 1 << 15);
+  /**
+   * Factoring tries dividing by every prime below this before moving on to Pollard's rho algorithm.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.trialDivisionLimit</code> system property.
+   *
+   * @since 1.2
+   */
+  static int TRIAL_DIVISION_LIMIT = Integer.getInteger("com.hypereclipse.selkie.cas.trialDivisionLimit", 1 << 16);
+  /**
+   * How long {@link com.hypereclipse.selkie.cas.Prime#factor(Int)} may spend, in milliseconds.
+   * Can be set with the <code>com.hypereclipse.selkie.cas.factorTimeout</code> system property.
+   *
+   * @since 1.2
+   */
+  static long FACTOR_TIMEOUT = Long.getLong("com.hypereclipse.selkie.cas.factorTimeout", 5000);
+  /**
+   * Bases for Miller-Rabin that together give the right answer for every value below 2^64. (Sinclair, 2011)
+   *
+   * @since 1.2
+   */
+  private static final long[] MILLER_RABIN_BASES = new long[]{2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+  /**
+   * The number of steps of Pollard's rho algorithm whose differences are multiplied together before taking a single greatest common divisor.
+   *
+   * @since 1.2
+   */
+  private static final int RHO_BATCH = 128;
+  /**
+   * The magnitude of one.
+   */
+  private static final int[] ONE = new int[]{1};
+  /**
+   * The pool the attempts at splitting a factor race on. <code>null</code> to run a single attempt at a time on the calling thread.
+   *
+   * @since 1.2
+   */
+  private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+
+
+  /**
+   * Constructor for {@link com.hypereclipse.selkie.cas.Prime}. Shares the limbs of a value already known to be prime.
+   *
+   * @param value The prime value.
+   * @since 1.2
+   */
+  private Prime(Int value)
+  {
+    super(value);
+  }
+
+
+
+  /**
+   * Checks if an {@link com.hypereclipse.selkie.cas.Int} is prime.
+   *
+   * Values that fit in a <code>long</code> are checked with Miller-Rabin, which is exact for them. Larger values are checked with the Baillie-PSW test.
+   *
+   * @param n The value to check.
+   * @return <code>true</code> if it is prime. Never <code>true</code> for anything less than two.
+   * @since 1.2
+   */
+  public static boolean isPrime(Int n)
+  {
+    if (n instanceof Prime)
+      return true;
+    if (!n.isPositive())
+      return false;
+    Long small = n.toLong();
+    if (small != null)
+      return isPrime((long) small);
+
+    int[] mag = n.magnitude();
+    if ((mag[0] & 1) == 0)
+      return false;
+    // Most composites have a small factor, which is much cheaper to find than running either test.
+    for (int p : SmallPrimes.PRIMES)
+    {
+      if (p > 1000)
+        break;
+      if (Magnitude.mod(mag, p) == 0)
+        return false;
+    }
+    return isStrongProbablePrime(n, Int.TWO) && isStrongLucasProbablePrime(n);
+  }
+
+  /**
+   * Checks if a <code>long</code> is prime, with Miller-Rabin to a fixed set of bases that is exact for every <code>long</code>.
+   *
+   * @param n The value to check.
+   * @return <code>true</code> if it is prime. Never <code>true</code> for anything less than two.
+   * @since 1.2
+   */
+  public static boolean isPrime(long n)
+  {
+    if (n < 64)
+      return n >= 2 && ((0x28208A20A08A28ACL >>> n) & 1) != 0;
+    if ((n & 1) == 0 || n % 3 == 0 || n % 5 == 0 || n % 7 == 0)
+      return false;
+
+    Montgomery m = new Montgomery(n);
+    long d = n - 1;
+    int s = Long.numberOfTrailingZeros(d);
+    d >>>= s;
+    for (long a : MILLER_RABIN_BASES)
+    {
+      a %= n;
+      if (a == 0)
+        continue;
+      long x = m.pow(m.convert(a), d);
+      if (x == m.one || x == m.minusOne)
+        continue;
+      boolean witness = true;
+      for (int i = 1; i < s && witness; i++)
+      {
+        x = m.multiply(x, x);
+        if (x == m.minusOne)
+          witness = false;
+      }
+      if (witness)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Finds the primes in a range with a segmented sieve of Eratosthenes.
+   *
+   * The primes up to the square root of the end are found first, then the range is sieved a segment of {@link com.hypereclipse.selkie.cas.Prime#SIEVE_SEGMENT} values at a time,
+   * so the memory used only depends on the size of the segment and not the size of the range.
+   *
+   * @param from The start of the range (inclusive).
+   * @param to The end of the range (exclusive).
+   * @return The primes in the range, in increasing order.
+   * @since 1.2
+   */
+  public static int[] primes(int from, int to)
+  {
+    from = Math.max(from, 2);
+    if (to <= from)
+      return new int[0];
+
+    // The primes up to the square root, which are all that's needed to sieve out the rest.
+    int root = (int) Math.sqrt(to - 1);
+    boolean[] composite = new boolean[root + 1];
+    int[] base = new int[root + 1];
+    int baseCount = 0;
+    for (int i = 2; i <= root; i++)
+    {
+      if (composite[i])
+        continue;
+      base[baseCount++] = i;
+      for (long j = (long) i * i; j <= root; j += i)
+        composite[(int) j] = true;
+    }
+
+    // There are fewer than 1.26 n / ln(n) primes below n, which is plenty for any range ending at n. (Rosser and Schoenfeld, 1962)
+    int[] ret = new int[(int) Math.min(to - from, 1.26 * to / Math.log(to) + 32)];
+    int count = 0;
+    boolean[] segment = new boolean[SIEVE_SEGMENT];
+    for (long low = from; low < to; low += SIEVE_SEGMENT)
+    {
+      int len = (int) Math.min(SIEVE_SEGMENT, to - low);
+      Arrays.fill(segment, 0, len, false);
+      for (int i = 0; i < baseCount; i++)
+      {
+        long p = base[i];
+        if (p * p >= low + len)
+          break;
+        // The first multiple of p in the segment that isn't p itself.
+        long start = Math.max(p * p, (low + p - 1) / p * p);
+        for (long j = start; j < low + len; j += p)
+          segment[(int) (j - low)] = true;
+      }
+      for (int i = 0; i < len; i++)
+      {
+        if (segment[i])
+          continue;
+        if (count == ret.length)
+          ret = Arrays.copyOf(ret, ret.length * 2);
+        ret[count++] = (int) (low + i);
+      }
+    }
+    return Arrays.copyOf(ret, count);
+  }
+
+  /**
+   * Factors an {@link com.hypereclipse.selkie.cas.Int}, giving up after {@link com.hypereclipse.selkie.cas.Prime#FACTOR_TIMEOUT} milliseconds.
+   *
+   * @see com.hypereclipse.selkie.cas.Prime#factor(Int, long, TimeUnit)
+   * @since 1.2
+   */
+  public static List<Int> factor(Int n)
+  {
+    return factor(n, FACTOR_TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Factors an {@link com.hypereclipse.selkie.cas.Int} into primes.
+   *
+   * Small factors are found by trial division, and larger ones by Pollard's rho algorithm, with several attempts racing on the factoring pool.
+   * Once the time is up, anything that hasn't been split yet is left as it is.
+   *
+   * @param n The value to factor. Must not be zero.
+   * @param timeout How long it may take.
+   * @param unit The unit of <code>timeout</code>.
+   * @return The factors in increasing order, repeated as many times as they divide <code>n</code>, with -1 first if <code>n</code> is negative.
+   * Every factor is a {@link com.hypereclipse.selkie.cas.Prime}, except for any composite that couldn't be split in time (and the -1).
+   * @throws IllegalArgumentException If <code>n</code> is zero.
+   * @since 1.2
+   */
+  public static List<Int> factor(Int n, long timeout, TimeUnit unit)
+  {
+    if (n.isZero())
+      throw new IllegalArgumentException("Zero has no factorization.");
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    ArrayList<Int> ret = new ArrayList<>();
+    if (n.isNegative())
+    {
+      ret.add(Int.NEGATIVEONE);
+      n = (Int) n.abs();
+    }
+    int negative = ret.size();
+
+    n = trialDivide(n, ret);
+    ArrayDeque<Int> pending = new ArrayDeque<>();
+    if (!n.equals(Int.ONE))
+      pending.add(n);
+    while (!pending.isEmpty())
+    {
+      Int c = pending.pop();
+      if (isPrime(c))
+      {
+        ret.add(new Prime(c));
+        continue;
+      }
+      Int d = System.nanoTime() < deadline ? split(c, deadline) : null;
+      if (d == null)
+        ret.add(c);
+      else
+      {
+        pending.push(d);
+        pending.push(c.divideInteger(d));
+      }
+    }
+    ret.subList(negative, ret.size()).sort(Int::compareTo);
+    return ret;
+  }
+
+  /**
+   * Gets the pool {@link com.hypereclipse.selkie.cas.Prime#factor(Int, long, TimeUnit)} races its attempts at splitting a factor on.
+   *
+   * @return The current {@link java.util.concurrent.ForkJoinPool}, or <code>null</code> if factoring only happens on the calling thread.
+   * @since 1.2
+   */
+  public static ForkJoinPool getFactoringPool()
+  {
+    return pool;
+  }
+
+  /**
+   * Sets the pool {@link com.hypereclipse.selkie.cas.Prime#factor(Int, long, TimeUnit)} races its attempts at splitting a factor on.
+   * As many attempts are started as the pool has threads. The common pool is used by default.
+   *
+   * @param pool The new {@link java.util.concurrent.ForkJoinPool}, or <code>null</code> to factor only on the calling thread.
+   * @since 1.2
+   */
+  public static void setFactoringPool(ForkJoinPool pool)
+  {
+    Prime.pool = pool;
+  }
+
+
+
+  /**
+   * The strong probable prime test (one round of Miller-Rabin): with <code>n - 1 = d*2^s</code> for odd <code>d</code>, a prime has either
+   * <code>a^d = 1</code>, or <code>a^(d*2^r) = -1</code> for some <code>r</code> below <code>s</code> (mod n).
+   *
+   * @param n The value to test. Must be odd and greater than <code>a</code>.
+   * @param a The base.
+   * @return <code>false</code> if <code>n</code> is certainly composite.
+   * @since 1.2
+   */
+  private static boolean isStrongProbablePrime(Int n, Int a)
+  {
+    Int minusOne = (Int) n.subtract(Int.ONE);
+    int s = (int) Magnitude.lowestSetBit(minusOne.magnitude());
+    Int x = a.modPow(minusOne.shiftRight(s), n);
+    if (x.equals(Int.ONE) || x.equals(minusOne))
+      return true;
+    for (int i = 1; i < s; i++)
+    {
+      x = x.square().divRem(n)[1];
+      if (x.equals(minusOne))
+        return true;
+      if (x.equals(Int.ONE))
+        return false;
+    }
+    return false;
+  }
+
+  /**
+   * The strong Lucas probable prime test, with the parameters picked by Selfridge's method A: <code>D</code> is the first of 5, -7, 9, -11, ... with
+   * Jacobi symbol <code>(D/n) = -1</code>, <code>P = 1</code> and <code>Q = (1 - D)/4</code>.
+   * With <code>n + 1 = d*2^s</code> for odd <code>d</code>, a prime has either <code>U_d = 0</code>, or <code>V_(d*2^r) = 0</code> for some <code>r</code> below <code>s</code> (mod n).
+   *
+   * @param n The value to test. Must be odd and have no factors below 1000.
+   * @return <code>false</code> if <code>n</code> is certainly composite.
+   * @since 1.2
+   */
+  private static boolean isStrongLucasProbablePrime(Int n)
+  {
+    // A square has (D/n) = 1 for every D, so the search would never end.
+    Int root = n.isqrt();
+    if (root.square().equals(n))
+      return false;
+    long d = 5;
+    while (true)
+    {
+      int j = jacobi(d, n);
+      if (j == -1)
+        break;
+      // n has no small factors, so a D that shares one with it can only be n itself.
+      if (j == 0)
+        return false;
+      d = d > 0 ? -(d + 2) : -d + 2;
+    }
+    Residues r = new Residues(n);
+    int[] q = r.small((1 - d) / 4);
+
+    Int k = (Int) n.add(Int.ONE);
+    int s = (int) Magnitude.lowestSetBit(k.magnitude());
+    k = k.shiftRight(s);
+
+    // U_1 = 1, V_1 = P = 1, working down the bits of k after the first, doubling the index and adding one when the bit is set.
+    // Everything is kept in the reducer's form, which adding, halving and multiplying by D leave alone.
+    int[] u = r.one;
+    int[] v = r.one;
+    int[] qk = q;
+    for (long i = k.bitLength() - 2; i >= 0; i--)
+    {
+      // U_2k = U_k*V_k, V_2k = V_k^2 - 2Q^k
+      u = r.multiply(u, v);
+      v = r.subtract(r.square(v), r.add(qk, qk));
+      qk = r.square(qk);
+      if (k.testBit(i))
+      {
+        // U_(k+1) = (P*U_k + V_k)/2, V_(k+1) = (D*U_k + P*V_k)/2
+        int[] nextU = r.half(r.add(u, v));
+        v = r.half(r.add(r.multiply(u, d), v));
+        u = nextU;
+        qk = r.multiply(qk, q);
+      }
+    }
+    if (r.isZero(u) || r.isZero(v))
+      return true;
+    for (int i = 1; i < s; i++)
+    {
+      v = r.subtract(r.square(v), r.add(qk, qk));
+      if (r.isZero(v))
+        return true;
+      qk = r.square(qk);
+    }
+    return false;
+  }
+
+  /**
+   * Finds the Jacobi symbol <code>(a/n)</code> for a small <code>a</code> and a large odd positive <code>n</code>.
+   * Reciprocity swaps it for <code>(n mod a / a)</code>, which fits in a <code>long</code>.
+   *
+   * @return -1, 0, or 1.
+   * @since 1.2
+   */
+  private static int jacobi(long a, Int n)
+  {
+    int[] mag = n.magnitude();
+    long n8 = mag[0] & 7;
+    int ret = 1;
+    if (a < 0)
+    {
+      a = -a;
+      // (-1/n) = -1 when n = 3 (mod 4).
+      if ((n8 & 3) == 3)
+        ret = -ret;
+    }
+    int twos = Long.numberOfTrailingZeros(a);
+    a >>>= twos;
+    // (2/n) = -1 when n = 3 or 5 (mod 8).
+    if ((twos & 1) == 1 && (n8 == 3 || n8 == 5))
+      ret = -ret;
+    if (a == 1)
+      return ret;
+    if ((a & 3) == 3 && (n8 & 3) == 3)
+      ret = -ret;
+    return ret * jacobi(Magnitude.mod(mag, a), a);
+  }
+
+  /**
+   * @return The Jacobi symbol <code>(a/n)</code> for an odd positive <code>n</code>.
+   * @since 1.2
+   */
+  private static int jacobi(long a, long n)
+  {
+    a %= n;
+    int ret = 1;
+    while (a != 0)
+    {
+      while ((a & 1) == 0)
+      {
+        a >>>= 1;
+        long r = n & 7;
+        if (r == 3 || r == 5)
+          ret = -ret;
+      }
+      long t = a;
+      a = n;
+      n = t;
+      if ((a & 3) == 3 && (n & 3) == 3)
+        ret = -ret;
+      a %= n;
+    }
+    return n == 1 ? ret : 0;
+  }
+
+
+
+  /**
+   * Divides out every prime below {@link com.hypereclipse.selkie.cas.Prime#TRIAL_DIVISION_LIMIT}, adding them to the factors.
+   *
+   * @return What's left of <code>n</code>.
+   * @since 1.2
+   */
+  private static Int trialDivide(Int n, List<Int> factors)
+  {
+    for (int p : SmallPrimes.PRIMES)
+    {
+      Long small = n.toLong();
+      if (small != null)
+      {
+        // Once p^2 passes what's left, what's left is prime.
+        long value = small;
+        if ((long) p * p > value)
+          break;
+        if (value % p != 0)
+          continue;
+        Prime factor = new Prime(Int.valueOf(p));
+        do
+        {
+          value /= p;
+          factors.add(factor);
+        } while (value % p == 0);
+        n = Int.valueOf(value);
+      }
+      else if (Magnitude.mod(n.magnitude(), p) == 0)
+      {
+        Prime factor = new Prime(Int.valueOf(p));
+        Int[] qr = n.divRem(factor);
+        do
+        {
+          n = qr[0];
+          factors.add(factor);
+          qr = n.divRem(factor);
+        } while (qr[1].isZero());
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Finds a non-trivial factor of a composite, with attempts at Pollard's rho algorithm racing on the factoring pool.
+   * Each attempt uses a different polynomial, and moves on to another whenever its polynomial fails.
+   *
+   * @param n The composite. Must be odd, with no factors below the trial division limit.
+   * @param deadline The {@link java.lang.System#nanoTime()} to give up at.
+   * @return A factor of <code>n</code> between 1 and <code>n</code>, or <code>null</code> if none was found in time.
+   * @since 1.2
+   */
+  private static Int split(Int n, long deadline)
+  {
+    AtomicReference<Int> found = new AtomicReference<>();
+    ForkJoinPool p = pool;
+    int attempts = p == null ? 1 : Math.max(p.getParallelism(), 1);
+    if (attempts == 1)
+    {
+      rho(n, 1, 1, deadline, found);
+      return found.get();
+    }
+
+    ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>(attempts);
+    for (int i = 0; i < attempts; i++)
+    {
+      int first = i + 1;
+      // Every attempt steps through the polynomials by the number of attempts, so no two try the same one.
+      tasks.add(p.submit(() -> rho(n, first, attempts, deadline, found)));
+    }
+    for (ForkJoinTask<?> task : tasks)
+      task.join();
+    return found.get();
+  }
+
+  /**
+   * Runs Pollard's rho algorithm (with Brent's cycle finding) on <code>x^2 + c</code>, for <code>c = first, first + step, ...</code>, until a factor is found, by this attempt or another, or the time is up.
+   *
+   * @since 1.2
+   */
+  private static void rho(Int n, long first, long step, long deadline, AtomicReference<Int> found)
+  {
+    Long small = n.toLong();
+    Residues residues = small == null ? new Residues(n) : null;
+    for (long c = first; found.get() == null && System.nanoTime() < deadline; c += step)
+    {
+      Int d;
+      if (small != null)
+      {
+        long factor = rho(new Montgomery(small), c, deadline, found);
+        d = factor == 0 ? null : Int.valueOf(factor);
+      }
+      else
+        d = rho(residues, c, deadline, found);
+      if (d != null)
+        found.compareAndSet(null, d);
+    }
+  }
+
+  /**
+   * One run of Brent's variant of Pollard's rho algorithm (Brent, An Improved Monte Carlo Factorization Algorithm, 1980) on <code>x^2 + c</code>, modulo a <code>long</code>.
+   *
+   * The sequence <code>x_(i+1) = x_i^2 + c</code> (mod n) falls into a cycle modulo each prime factor of <code>n</code> long before it does modulo <code>n</code>,
+   * which shows up as a difference of two terms sharing a factor with <code>n</code>. The differences are multiplied together {@link com.hypereclipse.selkie.cas.Prime#RHO_BATCH} at a time,
+   * so there's only one greatest common divisor per batch.
+   * Everything is kept in Montgomery form, which doesn't change which values share a factor with <code>n</code>.
+   *
+   * @return A non-trivial factor, or 0 if this polynomial failed or the time is up.
+   * @since 1.2
+   */
+  private static long rho(Montgomery m, long c, long deadline, AtomicReference<Int> found)
+  {
+    long n = m.n;
+    c %= n;
+    long y = m.one;
+    long x = y;
+    long saved = y;
+    long product = m.one;
+    long g = 1;
+    for (long r = 1; g == 1; r <<= 1)
+    {
+      x = y;
+      for (long i = 0; i < r; i++)
+        y = m.add(m.multiply(y, y), c);
+      for (long k = 0; k < r && g == 1; k += RHO_BATCH)
+      {
+        saved = y;
+        for (long i = 0; i < Math.min(RHO_BATCH, r - k); i++)
+        {
+          y = m.add(m.multiply(y, y), c);
+          product = m.multiply(product, x > y ? x - y : y - x);
+        }
+        g = GCD.binaryGcd(product, n);
+      }
+      if (found.get() != null || System.nanoTime() >= deadline)
+        return 0;
+    }
+    // The batch overshot, so step through it one at a time.
+    if (g == n)
+    {
+      do
+      {
+        saved = m.add(m.multiply(saved, saved), c);
+        g = GCD.binaryGcd(x > saved ? x - saved : saved - x, n);
+      } while (g == 1);
+    }
+    return g == n ? 0 : g;
+  }
+
+  /**
+   * One run of Brent's variant of Pollard's rho algorithm on <code>x^2 + c</code>, modulo an {@link com.hypereclipse.selkie.cas.Int}.
+   * See {@link com.hypereclipse.selkie.cas.Prime#rho(Montgomery, long, long, AtomicReference)}.
+   *
+   * @return A non-trivial factor, or <code>null</code> if this polynomial failed or the time is up.
+   * @since 1.2
+   */
+  private static Int rho(Residues r, long c, long deadline, AtomicReference<Int> found)
+  {
+    int[] add = r.small(c);
+    int[] y = r.one;
+    int[] x = y;
+    int[] saved = y;
+    int[] product = r.one;
+    int[] g = ONE;
+    for (long k = 1; isOne(g); k <<= 1)
+    {
+      x = y;
+      for (long i = 0; i < k; i++)
+        y = r.add(r.square(y), add);
+      for (long j = 0; j < k && isOne(g); j += RHO_BATCH)
+      {
+        saved = y;
+        for (long i = 0; i < Math.min(RHO_BATCH, k - j); i++)
+        {
+          y = r.add(r.square(y), add);
+          product = r.multiply(product, r.difference(x, y));
+        }
+        g = GCD.gcd(product, r.modulus);
+      }
+      if (found.get() != null || System.nanoTime() >= deadline)
+        return null;
+    }
+    // The batch overshot, so step through it one at a time.
+    if (Magnitude.compare(g, r.modulus) == 0)
+    {
+      do
+      {
+        saved = r.add(r.square(saved), add);
+        g = GCD.gcd(r.difference(x, saved), r.modulus);
+      } while (isOne(g));
+    }
+    return Magnitude.compare(g, r.modulus) == 0 ? null : new Int(g, false);
+  }
+
+  /**
+   * @return <code>true</code> if a magnitude is one.
+   * @since 1.2
+   */
+  private static boolean isOne(int[] a)
+  {
+    return Magnitude.length(a) == 1 && a[0] == 1;
+  }
+
+
+
+  /**
+   * The primes below {@link com.hypereclipse.selkie.cas.Prime#TRIAL_DIVISION_LIMIT}, only sieved the first time they're needed.
+   *
+   * @since 1.2
+   */
+  private static final class SmallPrimes
+  {
+    static final int[] PRIMES = primes(2, TRIAL_DIVISION_LIMIT);
+  }
+
+  /**
+   * Montgomery multiplication modulo an odd <code>long</code> below 2^63. See {@link com.hypereclipse.selkie.cas.Modular}.
+   *
+   * Each number x is kept as x*2^64 mod n. The product of two of those is reduced by adding the multiple of n that clears its low 64 bits, and keeping the high 64.
+   *
+   * @since 1.2
+   */
+  private static final class Montgomery
+  {
+    final long n;
+    /**
+     * -n^-1 mod 2^64.
+     */
+    final long inverse;
+    /**
+     * The forms of 1 and -1, and 2^128 mod n, which converts a number into its form.
+     */
+    final long one;
+    final long minusOne;
+    final long r2;
+
+    Montgomery(long n)
+    {
+      this.n = n;
+      // Newton's method doubles the number of correct low bits each step, and an odd number is its own inverse mod 8.
+      long inv = n;
+      for (int i = 0; i < 5; i++)
+        inv *= 2 - n * inv;
+      this.inverse = -inv;
+      // 2^64 mod n, which -n is as an unsigned value.
+      this.one = Long.remainderUnsigned(-n, n);
+      this.minusOne = n - one;
+      long r = one;
+      for (int i = 0; i < 64; i++)
+        r = add(r, r);
+      this.r2 = r;
+    }
+
+    long convert(long a)
+    {
+      return multiply(a, r2);
+    }
+
+    /**
+     * @return <code>a*b/2^64 mod n</code>.
+     */
+    long multiply(long a, long b)
+    {
+      // a and b are below 2^63, so the signed high half is the unsigned one.
+      long low = a * b;
+      long high = Math.multiplyHigh(a, b);
+      long m = low * inverse;
+      // m is unsigned, so its signed high half with n is short by n when its top bit is set.
+      long mn = Math.multiplyHigh(m, n) + ((m >> 63) & n);
+      // The low halves add up to exactly 2^64, unless both are zero.
+      long ret = high + mn + (low != 0 ? 1 : 0);
+      return Long.compareUnsigned(ret, n) >= 0 ? ret - n : ret;
+    }
+
+    /**
+     * @return <code>a + b mod n</code>, for both below n.
+     */
+    long add(long a, long b)
+    {
+      long ret = a + b;
+      return Long.compareUnsigned(ret, n) >= 0 ? ret - n : ret;
+    }
+
+    long pow(long a, long e)
+    {
+      long ret = one;
+      for (; e != 0; e >>>= 1, a = multiply(a, a))
+        if ((e & 1) != 0)
+          ret = multiply(ret, a);
+      return ret;
+    }
+  }
+
+  /**
+   * Arithmetic modulo a fixed odd {@link com.hypereclipse.selkie.cas.Int} too long for a <code>long</code>, on magnitudes kept in the form of a {@link com.hypereclipse.selkie.cas.Modular.Reducer}.
+   * Every value is reduced and padded to the length of the modulus, as Montgomery multiplication needs.
+   *
+   * @since 1.2
+   */
+  private static final class Residues
+  {
+    final int[] modulus;
+    final Modular.Reducer reducer;
+    /**
+     * The form of one.
+     */
+    final int[] one;
+
+    Residues(Int n)
+    {
+      this.modulus = n.magnitude();
+      this.reducer = Modular.reducer(modulus);
+      this.one = pad(reducer.one());
+    }
+
+    /**
+     * @return The form of a small value, which may be negative.
+     */
+    int[] small(long value)
+    {
+      return multiply(one, value);
+    }
+
+    int[] add(int[] a, int[] b)
+    {
+      int[] ret = Magnitude.add(a, b);
+      return pad(Magnitude.compare(ret, modulus) >= 0 ? Magnitude.subtract(ret, modulus) : ret);
+    }
+
+    int[] subtract(int[] a, int[] b)
+    {
+      if (Magnitude.compare(a, b) >= 0)
+        return pad(Magnitude.subtract(a, b));
+      return pad(Magnitude.subtract(modulus, Magnitude.subtract(b, a)));
+    }
+
+    /**
+     * @return <code>|a - b|</code>, which shares the same factors with the modulus as <code>a - b</code> does.
+     */
+    int[] difference(int[] a, int[] b)
+    {
+      return pad(Magnitude.compare(a, b) >= 0 ? Magnitude.subtract(a, b) : Magnitude.subtract(b, a));
+    }
+
+    /**
+     * @return <code>a/2</code>. Odd values have the (odd) modulus added first, so there's nothing to round off.
+     */
+    int[] half(int[] a)
+    {
+      return pad(Magnitude.shiftRight((a[0] & 1) != 0 ? Magnitude.add(a, modulus) : a, 1));
+    }
+
+    int[] multiply(int[] a, int[] b)
+    {
+      return pad(reducer.multiply(a, b));
+    }
+
+    /**
+     * @return <code>a</code> times a small whole number, which may be negative.
+     */
+    int[] multiply(int[] a, long k)
+    {
+      long abs = Math.abs(k);
+      int[] product = Multiplication.multiply(a, new int[]{(int) abs, (int) (abs >>> 32)});
+      int[] ret = pad(Division.divideAndRemainder(product, modulus)[1]);
+      return k < 0 ? subtract(new int[modulus.length], ret) : ret;
+    }
+
+    int[] square(int[] a)
+    {
+      return pad(reducer.square(a));
+    }
+
+    boolean isZero(int[] a)
+    {
+      return Magnitude.length(a) == 0;
+    }
+
+    /**
+     * @return <code>a</code> with zeros added up to the length of the modulus. <code>a</code> itself if it is already that long.
+     */
+    private int[] pad(int[] a)
+    {
+      if (a.length == modulus.length)
+        return a;
+      int[] ret = new int[modulus.length];
+      System.arraycopy(a, 0, ret, 0, Math.min(a.length, modulus.length));
+      return ret;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package com.hypereclipse.selkie.cas;
+
+/**
+ * interface ProductCache
+ *
+ * Stores products once they are calculated so they don't need to be recalculated, since multiplication of large values is expensive.
+ * {@link com.hypereclipse.selkie.cas.Int#multiply(Value)} checks the cache set with {@link com.hypereclipse.selkie.cas.Int#setProductCache(ProductCache)} before multiplying.
+ *
+ * Implementations must be thread safe, and are free to not store (or to forget) any product they are given.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public interface ProductCache
+{
+  /**
+   * Looks up the product of two {@link com.hypereclipse.selkie.cas.Int}s. Since multiplication is commutative, the order of the factors should not matter.
+   *
+   * @return The product, or <code>null</code> if it isn't cached.
+   * @since 1.2
+   */
+  public Int get(Int a, Int b);
+
+  /**
+   * Offers a product to the cache.
+   *
+   * @since 1.2
+   */
+  public void put(Int a, Int b, Int product);
+
+  /**
+   * Removes every cached product.
+   *
+   * @since 1.2
+   */
+  public void clear();
+
+  /**
+   * @return The number of lookups that found a product.
+   * @since 1.2
+   */
+  public long hitCount();
+
+  /**
+   * @return The number of lookups that did not find a product.
+   * @since 1.2
+   */
+  public long missCount();
+
+  /**
+   * @return The number of products forgotten to make room for others.
+   * @since 1.2
+   */
+  public long evictionCount();
+}
@@ -0,0 +1,351 @@
+package com.hypereclipse.selkie.cas;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class RadixConversion
+ *
+ * Converts the magnitudes behind {@link com.hypereclipse.selkie.cas.Int} to and from digits in any base.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own, and is never modified once passed in.
+ *
+ * Bases that are powers of two just read the digits straight out of the bits.
+ * Other bases divide the number in half (by digits) by a power of the base, convert each half on its own, and put them together,
+ * until the pieces are small enough to peel digits off with single limb divisions.
+ * Parsing runs the other way: each half of the digits is parsed on its own, and the high half is multiplied by a power of the base and added to the low half.
+ * The powers used to split are of the form base^(k*2^i), where base^k is the largest power that fits in a limb, and are kept so they only need to be found once.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class RadixConversion
+{
+  /**
+   * The number of limbs at or below which a number is converted by repeated single limb division (or parsed by repeated single limb multiplication), rather than being split in half.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.radixConversionThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int SCHOOLBOOK_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.radixConversionThreshold", 20);
+  /**
+   * The most limbs a power kept in {@link com.hypereclipse.selkie.cas.RadixConversion#powers} may have. Larger ones are squared again each time they're needed,
+   * which costs little next to the conversion that needs them. Since each power is twice the size of the one before, a base never keeps more than twice this.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.radixPowerCacheLimbs</code> system property.
+   *
+   * @since 1.2
+   */
+  static int MAX_CACHED_POWER_LIMBS = Integer.getInteger("com.hypereclipse.selkie.cas.radixPowerCacheLimbs", 1 << 18);
+  /**
+   * For each base, the powers base^(k*2^i) found so far, indexed by i.
+   * The arrays are never changed once they're put here. A base that needs more powers puts a longer array in its place.
+   *
+   * @since 1.2
+   */
+  private static final ConcurrentHashMap<Integer, int[][]> powers = new ConcurrentHashMap<>();
+
+  private RadixConversion() {}
+
+
+
+  /**
+   * Writes out the digits of a magnitude in the given base, most significant first, without any sign or prefix.
+   *
+   * @param mag The magnitude to convert.
+   * @param base The base. At least 2.
+   * @param charset The character to use for each digit value. Must have at least <code>base</code> characters.
+   * @return The digits. Zero is written as a single zero digit.
+   * @since 1.2
+   */
+  static String toString(int[] mag, int base, char[] charset)
+  {
+    if (length(mag) == 0)
+      return String.valueOf(charset[0]);
+
+    StringBuilder sb = new StringBuilder((int) (bitLength(mag) / (Math.log(base) / Math.log(2))) + 2);
+    if (Integer.bitCount(base) == 1)
+      toStringPowerOfTwo(mag, base, charset, sb);
+    else
+      toString(mag, base, charset, sb, 0);
+    return sb.toString();
+  }
+
+  /**
+   * Reads the digits of a power of two base straight out of the bits, most significant first.
+   *
+   * @since 1.2
+   */
+  private static void toStringPowerOfTwo(int[] mag, int base, char[] charset, StringBuilder sb)
+  {
+    int bitsPerDigit = Integer.numberOfTrailingZeros(base);
+    long bits = bitLength(mag);
+    long digits = (bits + bitsPerDigit - 1) / bitsPerDigit;
+    for (long d = digits - 1; d >= 0; d--)
+    {
+      // A digit can sit across two limbs.
+      long bit = d * bitsPerDigit;
+      int limb = (int) (bit >>> 5);
+      int offset = (int) (bit & 0x1F);
+      long window = (mag[limb] & LONG_MASK) >>> offset;
+      if (offset + bitsPerDigit > 32 && limb + 1 < mag.length)
+        window |= (mag[limb + 1] & LONG_MASK) << (32 - offset);
+      sb.append(charset[(int) (window & (base - 1))]);
+    }
+  }
+
+  /**
+   * Divide and conquer conversion.
+   *
+   * @param digits The number of digits to write, padding with leading zeros. Zero to write only as many as are needed.
+   * @since 1.2
+   */
+  private static void toString(int[] mag, int base, char[] charset, StringBuilder sb, int digits)
+  {
+    int len = length(mag);
+    if (len <= SCHOOLBOOK_THRESHOLD)
+    {
+      toStringSchoolbook(mag, len, base, charset, sb, digits);
+      return;
+    }
+
+    // Split at the largest cached power that is no more than about the square root, so the halves are about the same size.
+    // Their sizes are estimated, so no power is found that won't be used.
+    long half = bitLength(mag) / 2;
+    double bitsPerDigit = Math.log(base) / Math.log(2);
+    long chunkDigits = digitsPerLimb(base);
+    int i = 0;
+    while ((long) ((chunkDigits << (i + 1)) * bitsPerDigit) + 1 <= half + 1)
+      i++;
+    int[] split = power(base, i);
+    int splitDigits = digitsPerLimb(base) << i;
+
+    int[][] qr = Division.divideAndRemainder(mag, split);
+    // The high half only needs padding if this whole piece does. The low half always needs all of its digits.
+    toString(qr[0], base, charset, sb, digits == 0 ? 0 : digits - splitDigits);
+    toString(qr[1], base, charset, sb, splitDigits);
+  }
+
+  /**
+   * Converts a small magnitude by repeatedly dividing it by the largest power of the base that fits in a limb, and turning each remainder into that many digits with plain <code>long</code> arithmetic.
+   *
+   * @param digits The number of digits to write, padding with leading zeros. Zero to write only as many as are needed.
+   * @since 1.2
+   */
+  private static void toStringSchoolbook(int[] mag, int len, int base, char[] charset, StringBuilder sb, int digits)
+  {
+    int chunkDigits = digitsPerLimb(base);
+    int chunk = (int) chunkPower(base);
+
+    // Fill the digits in from the end, since the lowest ones come out first.
+    char[] buffer = new char[Math.max(digits, (len * 32) / (31 - Integer.numberOfLeadingZeros(base)) + chunkDigits)];
+    int pos = buffer.length;
+    MutableInt quotient = new MutableInt(len).set(mag, false);
+    while (!quotient.isZero())
+    {
+      long remainder = quotient.divideByWordInPlace(chunk) & LONG_MASK;
+      // Every chunk but the top one has exactly chunkDigits digits, counting its leading zeros.
+      for (int i = 0; i < chunkDigits && (!quotient.isZero() || remainder != 0); i++)
+      {
+        buffer[--pos] = charset[(int) (remainder % base)];
+        remainder /= base;
+      }
+    }
+    while (buffer.length - pos < digits)
+      buffer[--pos] = charset[0];
+    sb.append(buffer, pos, buffer.length - pos);
+  }
+
+
+
+  /**
+   * Reads the digits of a magnitude in the given base, most significant first, without any sign or prefix.
+   *
+   * @param digits The characters holding the digits.
+   * @param from The index of the first digit (inclusive).
+   * @param to The index after the last digit (exclusive).
+   * @param base The base. At least 2.
+   * @param charset The character used for each digit value. Must have at least <code>base</code> characters.
+   * @return A new, trimmed magnitude.
+   * @throws IllegalArgumentException If any of the characters is not one of the first <code>base</code> characters of the charset.
+   * @since 1.2
+   */
+  static int[] parse(CharSequence digits, int from, int to, int base, char[] charset)
+  {
+    // Looking each character up in a table keeps parsing linear in the number of digits, whatever the base.
+    int[] values = digitValues(base, charset);
+    if (Integer.bitCount(base) == 1)
+      return parsePowerOfTwo(digits, from, to, base, values);
+    return parse(digits, from, to, base, values);
+  }
+
+  /**
+   * Packs the digits of a power of two base straight into the bits, least significant first.
+   *
+   * @since 1.2
+   */
+  private static int[] parsePowerOfTwo(CharSequence digits, int from, int to, int base, int[] values)
+  {
+    int bitsPerDigit = Integer.numberOfTrailingZeros(base);
+    int[] ret = new int[(int) (((long) (to - from) * bitsPerDigit + 31) >>> 5)];
+    long bit = 0;
+    for (int i = to - 1; i >= from; i--, bit += bitsPerDigit)
+    {
+      long digit = digitValue(digits.charAt(i), values);
+      // A digit can sit across two limbs.
+      int limb = (int) (bit >>> 5);
+      int offset = (int) (bit & 0x1F);
+      ret[limb] |= (int) (digit << offset);
+      if (offset + bitsPerDigit > 32)
+        ret[limb + 1] |= (int) (digit >>> (32 - offset));
+    }
+    return trim(ret);
+  }
+
+  /**
+   * Divide and conquer parsing.
+   *
+   * @since 1.2
+   */
+  private static int[] parse(CharSequence digits, int from, int to, int base, int[] values)
+  {
+    int chunkDigits = digitsPerLimb(base);
+    int count = to - from;
+    if (count <= SCHOOLBOOK_THRESHOLD * chunkDigits)
+      return parseSchoolbook(digits, from, to, base, values);
+
+    // Split off the largest cached power's worth of low digits that still leaves some high digits.
+    // The low half then always has a power of two number of chunks, so it splits evenly all the way down.
+    int i = 0;
+    while ((long) chunkDigits << (i + 1) < count)
+      i++;
+    int split = to - (chunkDigits << i);
+
+    int[] high = parse(digits, from, split, base, values);
+    int[] low = parse(digits, split, to, base, values);
+    return add(Multiplication.multiply(high, power(base, i)), low);
+  }
+
+  /**
+   * Parses a small number of digits by reading them a limb's worth at a time with plain <code>long</code> arithmetic, and multiplying each chunk in with a single limb multiply, in place.
+   *
+   * @since 1.2
+   */
+  private static int[] parseSchoolbook(CharSequence digits, int from, int to, int base, int[] values)
+  {
+    int chunkDigits = digitsPerLimb(base);
+    long chunk = chunkPower(base);
+    MutableInt ret = new MutableInt((to - from + chunkDigits - 1) / chunkDigits + 1);
+
+    // The first chunk takes whatever digits are left over, so every other chunk is a whole one.
+    int pos = from;
+    int end = from + (to - from - 1) % chunkDigits + 1;
+    while (pos < to)
+    {
+      long chunkValue = 0;
+      for (; pos < end; pos++)
+        chunkValue = chunkValue * base + digitValue(digits.charAt(pos), values);
+      end += chunkDigits;
+      ret.multiplyAddWord((int) chunk, (int) chunkValue);
+    }
+    return ret.toMagnitude();
+  }
+
+  /**
+   * Letters are read in either case, unless the other case is a different digit in this base (as in base 64), so <code>ff</code> and <code>FF</code> are both hex.
+   *
+   * @return A table from each character to its digit value, or -1 for characters that aren't digits in this base.
+   * @since 1.2
+   */
+  private static int[] digitValues(int base, char[] charset)
+  {
+    char max = 0;
+    for (int i = 0; i < base; i++)
+      max = (char) Math.max(max, Math.max(Character.toLowerCase(charset[i]), Character.toUpperCase(charset[i])));
+    int[] ret = new int[max + 1];
+    Arrays.fill(ret, -1);
+    for (int i = 0; i < base; i++)
+      ret[charset[i]] = i;
+    for (int i = 0; i < base; i++)
+    {
+      char lower = Character.toLowerCase(charset[i]);
+      char upper = Character.toUpperCase(charset[i]);
+      if (ret[lower] < 0)
+        ret[lower] = i;
+      if (ret[upper] < 0)
+        ret[upper] = i;
+    }
+    return ret;
+  }
+
+  /**
+   * @return The value of a digit, looked up in a table from {@link com.hypereclipse.selkie.cas.RadixConversion#digitValues(int, char[])}.
+   * @throws IllegalArgumentException If the character isn't a digit.
+   * @since 1.2
+   */
+  private static int digitValue(char c, int[] values)
+  {
+    int ret = c < values.length ? values[c] : -1;
+    if (ret < 0)
+      throw new IllegalArgumentException("Expected number, found: \'" + c + "\'");
+    return ret;
+  }
+
+
+
+  /**
+   * @return The number of digits in the largest power of <code>base</code> that fits in a limb.
+   * @since 1.2
+   */
+  static int digitsPerLimb(int base)
+  {
+    int ret = 0;
+    for (long p = 1; p * base <= LONG_MASK; p *= base)
+      ret++;
+    return ret;
+  }
+
+  /**
+   * @return The largest power of <code>base</code> that fits in a limb, as an unsigned value.
+   * @since 1.2
+   */
+  static long chunkPower(int base)
+  {
+    long ret = 1;
+    while (ret * base <= LONG_MASK)
+      ret *= base;
+    return ret;
+  }
+
+  /**
+   * Gets base^(k*2^i), where base^k is {@link com.hypereclipse.selkie.cas.RadixConversion#chunkPower(int)}.
+   * Each power is found by squaring the one before it, and kept for next time if it isn't larger than {@link com.hypereclipse.selkie.cas.RadixConversion#MAX_CACHED_POWER_LIMBS}.
+   *
+   * Nothing is locked: the squaring is done by whichever thread needs the power, and if two threads find the same powers at once, the longer list of them is kept.
+   *
+   * @return The power as a magnitude. Shared, so it must not be modified.
+   * @since 1.2
+   */
+  static int[] power(int base, int i)
+  {
+    int[][] known = powers.get(base);
+    if (known == null)
+      known = new int[][]{new int[]{(int) chunkPower(base)}};
+    if (i < known.length)
+      return known[i];
+
+    int[][] grown = Arrays.copyOf(known, i + 1);
+    int kept = known.length;
+    for (int j = known.length; j <= i; j++)
+    {
+      grown[j] = Multiplication.square(grown[j - 1]);
+      if (kept == j && grown[j].length <= MAX_CACHED_POWER_LIMBS)
+        kept++;
+    }
+    if (kept > known.length)
+      powers.merge(base, Arrays.copyOf(grown, kept), (old, found) -> old.length >= found.length ? old : found);
+    return grown[i];
+  }
+}
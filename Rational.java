@@ -0,0 +1,533 @@
+package com.hypereclipse.selkie.cas;
+
+import org.jetbrains.annotations.NotNull;
+
+
+
+/**
+ * class Rational (implements Value)
+ *
+ * Represents an exact fraction as an {@link com.hypereclipse.selkie.cas.Int} numerator over a positive {@link com.hypereclipse.selkie.cas.Int} denominator.
+ *
+ * Fractions are kept in lowest terms lazily. Adding, subtracting, multiplying and dividing just cross-multiply, and the common factors are only cancelled
+ * when something needs the lowest terms (writing it out, hashing it, or asking for its numerator or denominator), or when the denominator has grown to twice
+ * the length it had when it was last known to be in lowest terms, and is past {@link com.hypereclipse.selkie.cas.Rational#REDUCE_THRESHOLD}.
+ * Taking the greatest common divisor costs more than the multiplications it saves on small fractions, but keeping the numbers from growing without bound is worth it on large ones.
+ * Comparisons never need the lowest terms.
+ *
+ * Whenever the denominator is found to be one, the result is the numerator's {@link com.hypereclipse.selkie.cas.Int} instead.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+public class Rational implements Value
+{
+  /**
+   * The number of limbs the denominator of a result may have before its common factors are cancelled right away, rather than when they're needed.
+   * Can be tuned with the <code>com.hypereclipse.selkie.cas.rationalReduceThreshold</code> system property.
+   *
+   * @since 1.2
+   */
+  static int REDUCE_THRESHOLD = Integer.getInteger("com.hypereclipse.selkie.cas.rationalReduceThreshold", 8);
+
+  /**
+   * The numerator. Carries the sign. May share factors with {@link com.hypereclipse.selkie.cas.Rational#denominator}, unless {@link com.hypereclipse.selkie.cas.Rational#isReduced} is <code>true</code>.
+   *
+   * @since 1.2
+   */
+  private final Int numerator;
+  /**
+   * The denominator. Always positive.
+   *
+   * @since 1.2
+   */
+  private final Int denominator;
+  /**
+   * <code>true</code> if the numerator and denominator are known to share no factors.
+   *
+   * @since 1.2
+   */
+  private final boolean isReduced;
+  /**
+   * The length (in limbs) of the denominator the last time this value, or any it was made from, was known to be in lowest terms. Zero if never.
+   * Used to decide when the denominator has grown enough that it is worth cancelling its common factors. See {@link com.hypereclipse.selkie.cas.Rational#of(Int, Int, boolean, int)}.
+   *
+   * @since 1.2
+   */
+  private final int reducedLength;
+  /**
+   * This value in lowest terms, once it has been found. See {@link com.hypereclipse.selkie.cas.Rational#lowest()}.
+   *
+   * @since 1.2
+   */
+  private volatile Rational lowest;
+
+
+
+  /**
+   * Creates a fraction. The denominator must be positive.
+   *
+   * @since 1.2
+   */
+  private Rational(Int numerator, Int denominator, boolean isReduced, int reducedLength)
+  {
+    this.numerator = numerator;
+    this.denominator = denominator;
+    this.isReduced = isReduced;
+    this.reducedLength = isReduced ? length(denominator) : reducedLength;
+    if (isReduced)
+      lowest = this;
+  }
+
+  /**
+   * Gets the fraction <code>numerator/denominator</code>.
+   *
+   * The common factors are not cancelled yet (unless they are large), but the result will always act as though they had been.
+   *
+   * @param numerator The numerator.
+   * @param denominator The denominator. Must not be zero.
+   * @return An {@link com.hypereclipse.selkie.cas.Int} if the denominator is one (or negative one), otherwise a {@link com.hypereclipse.selkie.cas.Rational}.
+   * @throws IllegalArgumentException If the denominator is zero.
+   * @since 1.2
+   */
+  public static Value valueOf(Int numerator, Int denominator)
+  {
+    if (denominator.isZero())
+      throw new IllegalArgumentException("Divide by zero.");
+    if (denominator.isNegative())
+      return of((Int) numerator.negate(), (Int) denominator.negate(), false, 0);
+    return of(numerator, denominator, false, 0);
+  }
+
+  /**
+   * Gets an {@link com.hypereclipse.selkie.cas.Int} as a {@link com.hypereclipse.selkie.cas.Rational} over one, so the two can be worked with the same way.
+   *
+   * @since 1.2
+   */
+  static Rational valueOf(Int value)
+  {
+    return new Rational(value, Int.ONE, true, 1);
+  }
+
+  /**
+   * Makes the result of an operation, cancelling its common factors now if its denominator has grown enough since it last was in lowest terms.
+   *
+   * @param numerator The numerator.
+   * @param denominator The denominator. Must be positive.
+   * @param isReduced <code>true</code> if the two are already known to share no factors.
+   * @param reducedLength See {@link com.hypereclipse.selkie.cas.Rational#reducedLength}. The larger of those of the values it was made from.
+   * @return An {@link com.hypereclipse.selkie.cas.Int} if the value is a whole number, otherwise a new {@link com.hypereclipse.selkie.cas.Rational}.
+   * @since 1.2
+   */
+  private static Value of(Int numerator, Int denominator, boolean isReduced, int reducedLength)
+  {
+    if (denominator.equals(Int.ONE) || numerator.isZero())
+      return numerator;
+    // A fraction in lowest terms with a denominator other than one is never whole. Anything else is whole if the denominator divides the numerator,
+    // which it can't if it is longer, or has more factors of two.
+    if (!isReduced)
+    {
+      int[] n = numerator.magnitude();
+      int[] d = denominator.magnitude();
+      if (Magnitude.bitLength(n) >= Magnitude.bitLength(d) && Magnitude.lowestSetBit(n) >= Magnitude.lowestSetBit(d))
+      {
+        Int[] qr = numerator.divRem(denominator);
+        if (qr[1].isZero())
+          return qr[0];
+      }
+    }
+    return fraction(numerator, denominator, isReduced, reducedLength);
+  }
+
+  /**
+   * Makes a {@link com.hypereclipse.selkie.cas.Rational} known not to be a whole number, cancelling its common factors now if its denominator has grown enough since it last was in lowest terms.
+   *
+   * @param numerator The numerator.
+   * @param denominator The denominator. Must be positive, and must not divide the numerator.
+   * @since 1.2
+   */
+  private static Rational fraction(Int numerator, Int denominator, boolean isReduced, int reducedLength)
+  {
+    Rational ret = new Rational(numerator, denominator, isReduced, reducedLength);
+    if (!isReduced)
+    {
+      int len = length(denominator);
+      if (len > REDUCE_THRESHOLD && len > 2 * reducedLength)
+        return ret.lowest();
+    }
+    return ret;
+  }
+
+  /**
+   * Gets the fraction <code>numerator/denominator</code>, when it is already known not to be a whole number, so it needn't be checked again.
+   *
+   * @param numerator The numerator.
+   * @param denominator The denominator. Must not be zero, and must not divide the numerator.
+   * @since 1.2
+   */
+  static Rational fraction(Int numerator, Int denominator)
+  {
+    if (denominator.isNegative())
+      return fraction((Int) numerator.negate(), (Int) denominator.negate(), false, 0);
+    return fraction(numerator, denominator, false, 0);
+  }
+
+
+
+  /**
+   * Finds this value in lowest terms, cancelling the common factors of the numerator and denominator if that hasn't been done yet.
+   * The result is kept, so this is only ever done once.
+   *
+   * @return A {@link com.hypereclipse.selkie.cas.Rational} in lowest terms, possibly this one.
+   * @since 1.2
+   */
+  private Rational lowest()
+  {
+    Rational ret = lowest;
+    if (ret == null)
+    {
+      Int g = numerator.gcd(denominator);
+      if (g.equals(Int.ONE))
+        ret = new Rational(numerator, denominator, true, 0);
+      else
+        ret = new Rational(numerator.divideInteger(g), denominator.divideInteger(g), true, 0);
+      lowest = ret;
+    }
+    return ret;
+  }
+
+  /**
+   * Gets this value in lowest terms.
+   *
+   * @return The numerator as an {@link com.hypereclipse.selkie.cas.Int} if this is a whole number, otherwise a {@link com.hypereclipse.selkie.cas.Rational} in lowest terms.
+   * @since 1.2
+   */
+  public Value lowestTerms()
+  {
+    Rational l = lowest();
+    return l.denominator.equals(Int.ONE) ? l.numerator : l;
+  }
+
+  /**
+   * @return The numerator of this value in lowest terms. Carries the sign.
+   * @since 1.2
+   */
+  public Int numerator()
+  {
+    return lowest().numerator;
+  }
+
+  /**
+   * @return The denominator of this value in lowest terms. Always positive.
+   * @since 1.2
+   */
+  public Int denominator()
+  {
+    return lowest().denominator;
+  }
+
+
+
+  /**
+   * Adds a {@link com.hypereclipse.selkie.cas.Value} to this {@link com.hypereclipse.selkie.cas.Rational}.
+   *
+   * Adding an {@link com.hypereclipse.selkie.cas.Int}, or a fraction with the same denominator, only needs to change the numerator.
+   * Anything else is cross-multiplied, and its common factors are left for later.
+   *
+   * @param other The other value to be added to this one.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the sum.
+   * @since 1.2
+   */
+  public Value add(Value other)
+  {
+    if (other instanceof Int)
+      // a/b + k = (a + k*b)/b, which shares the same factors with b that a did.
+      return of((Int) numerator.add(other.multiply(denominator)), denominator, isReduced, reducedLength);
+    if (!(other instanceof Rational))
+      return other.add(this);
+
+    Rational o = (Rational) other;
+    if (denominator == o.denominator || denominator.equals(o.denominator))
+      return of((Int) numerator.add(o.numerator), denominator, false, Math.max(reducedLength, o.reducedLength));
+    return of((Int) numerator.multiply(o.denominator).add(o.numerator.multiply(denominator)), (Int) denominator.multiply(o.denominator), false, Math.max(reducedLength, o.reducedLength));
+  }
+
+  /**
+   * Subtracts a {@link com.hypereclipse.selkie.cas.Value} from this {@link com.hypereclipse.selkie.cas.Rational}. See {@link com.hypereclipse.selkie.cas.Rational#add(Value)}.
+   *
+   * @param other The other value to be subtracted from this one.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the difference.
+   * @since 1.2
+   */
+  public Value subtract(Value other)
+  {
+    return add(other.negate());
+  }
+
+  /**
+   * Multiplies a {@link com.hypereclipse.selkie.cas.Value} by this {@link com.hypereclipse.selkie.cas.Rational}.
+   *
+   * The numerators and denominators are multiplied, and their common factors are left for later.
+   *
+   * @param other The other value to be multiplied with this one.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the product.
+   * @since 1.2
+   */
+  public Value multiply(Value other)
+  {
+    if (other instanceof Int)
+    {
+      Int o = (Int) other;
+      if (o.isZero())
+        return Int.ZERO;
+      // Multiplying by a unit can't introduce any common factors.
+      boolean unit = o.equals(Int.ONE) || o.equals(Int.NEGATIVEONE);
+      return of((Int) numerator.multiply(o), denominator, isReduced && unit, reducedLength);
+    }
+    if (!(other instanceof Rational))
+      return other.multiply(this);
+
+    Rational o = (Rational) other;
+    return of((Int) numerator.multiply(o.numerator), (Int) denominator.multiply(o.denominator), false, Math.max(reducedLength, o.reducedLength));
+  }
+
+  /**
+   * Divides this {@link com.hypereclipse.selkie.cas.Rational} by a {@link com.hypereclipse.selkie.cas.Value}, multiplying by its reciprocal.
+   *
+   * @param other The other value to divide this by.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the quotient.
+   * @throws IllegalArgumentException If <code>other</code> is zero.
+   * @since 1.2
+   */
+  public Value divide(Value other)
+  {
+    if (other instanceof Int)
+      other = valueOf((Int) other);
+    if (!(other instanceof Rational))
+      throw new IllegalArgumentException("That isnt implemented yet!");
+
+    Rational o = (Rational) other;
+    if (o.isZero())
+      throw new IllegalArgumentException("Divide by zero.");
+    // The denominator has to stay positive, so the sign of the divisor moves to the numerator.
+    Int n = (Int) numerator.multiply(o.denominator);
+    Int d = (Int) denominator.multiply(o.numerator);
+    if (d.isNegative())
+    {
+      n = (Int) n.negate();
+      d = (Int) d.negate();
+    }
+    return of(n, d, false, Math.max(reducedLength, o.reducedLength));
+  }
+
+  /**
+   * Raises this {@link com.hypereclipse.selkie.cas.Rational} to a power. Raising a fraction in lowest terms to a power leaves it in lowest terms.
+   *
+   * @param exp The exponent. Negative exponents raise the reciprocal.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the power.
+   * @throws IllegalArgumentException If this is zero and the exponent is negative.
+   * @since 1.2
+   */
+  public Value pow(int exp)
+  {
+    if (exp == 0)
+      return Int.ONE;
+    if (exp > 0)
+      return of(numerator.pow(exp), denominator.pow(exp), isReduced, reducedLength);
+    if (isZero())
+      throw new IllegalArgumentException("Divide by zero.");
+    // The reciprocal, with the sign kept in the numerator.
+    Int n = denominator.pow(-exp);
+    Int d = numerator.pow(-exp);
+    if (d.isNegative())
+      return of((Int) n.negate(), (Int) d.negate(), isReduced, reducedLength);
+    return of(n, d, isReduced, reducedLength);
+  }
+
+  /**
+   * Divides this {@link com.hypereclipse.selkie.cas.Rational} by a {@link com.hypereclipse.selkie.cas.Value} using integer division.
+   * Truncates towards zero, the same as {@link com.hypereclipse.selkie.cas.Int#divideInteger(Value)}.
+   *
+   * @param other The other value to divide this by.
+   * @return A new {@link com.hypereclipse.selkie.cas.Int} representing the quotient.
+   * @throws IllegalArgumentException If <code>other</code> is zero.
+   * @since 1.2
+   */
+  public Int divideInteger(Value other)
+  {
+    if (other instanceof Int)
+      other = valueOf((Int) other);
+    if (!(other instanceof Rational))
+      throw new IllegalArgumentException("That isnt implemented yet!");
+
+    // (a/b) / (c/d) = (a*d) / (b*c), and the common factors don't change the integer part.
+    Rational o = (Rational) other;
+    return ((Int) numerator.multiply(o.denominator)).divideInteger(denominator.multiply(o.numerator));
+  }
+
+  /**
+   * Finds the remainder of dividing this {@link com.hypereclipse.selkie.cas.Rational} by a {@link com.hypereclipse.selkie.cas.Value} using integer division.
+   *
+   * The remainder has the same sign as this {@link com.hypereclipse.selkie.cas.Rational}, so that <code>this == q*other + r</code> where <code>q</code> is {@link com.hypereclipse.selkie.cas.Rational#divideInteger(Value)}.
+   *
+   * @param other The other value to divide this by.
+   * @return A new {@link com.hypereclipse.selkie.cas.Value} representing the remainder.
+   * @since 1.2
+   */
+  public Value mod(Value other)
+  {
+    return subtract(other.multiply(divideInteger(other)));
+  }
+
+  public Value negate()
+  {
+    return new Rational((Int) numerator.negate(), denominator, isReduced, reducedLength);
+  }
+
+  public Value abs()
+  {
+    return numerator.isNegative() ? negate() : this;
+  }
+
+  public String exact()
+  {
+    return toString();
+  }
+
+  public String exact(int base, char[] charset)
+  {
+    Rational l = lowest();
+    if (l.denominator.equals(Int.ONE))
+      return l.numerator.exact(base, charset);
+    return l.numerator.exact(base, charset) + '/' + l.denominator.exact(base, charset);
+  }
+
+
+
+  public Boolean equals(Value other)
+  {
+    if (this == other)
+      return true;
+    if (other instanceof Int || other instanceof Rational)
+      return compareTo(other) == 0;
+    return other.equals(this);
+  }
+
+  public Boolean isNumber()
+  {
+    return true;
+  }
+
+  public Boolean isPositive()
+  {
+    return numerator.isPositive();
+  }
+
+  public Boolean isZero()
+  {
+    return numerator.isZero();
+  }
+
+  public Boolean isNegative()
+  {
+    return numerator.isNegative();
+  }
+
+  public Boolean greater(Value other)
+  {
+    return compareTo(other) > 0;
+  }
+
+  public Boolean less(Value other)
+  {
+    return compareTo(other) < 0;
+  }
+
+  public Boolean greaterEqual(Value other)
+  {
+    return compareTo(other) >= 0;
+  }
+
+  public Boolean lessEqual(Value other)
+  {
+    return compareTo(other) <= 0;
+  }
+
+  /**
+   * Compares this {@link com.hypereclipse.selkie.cas.Rational} to an {@link com.hypereclipse.selkie.cas.Int} or another {@link com.hypereclipse.selkie.cas.Rational}.
+   *
+   * Neither needs to be in lowest terms. The signs are checked first, then the denominators are compared, then the lengths of the cross products, and only if those are too close to tell are the cross products actually found.
+   *
+   * @param other The value to compare to.
+   * @return A negative number, zero, or a positive number as this is less than, equal to, or greater than <code>other</code>.
+   * @throws IllegalArgumentException If <code>other</code> is not an {@link com.hypereclipse.selkie.cas.Int} or a {@link com.hypereclipse.selkie.cas.Rational}.
+   * @since 1.2
+   */
+  public int compareTo(@NotNull Object other)
+  {
+    if (other instanceof Int)
+      other = valueOf((Int) other);
+    if (!(other instanceof Rational))
+      throw new IllegalArgumentException();
+
+    Rational o = (Rational) other;
+    if (this == o)
+      return 0;
+    int sign = signum(numerator);
+    int oSign = signum(o.numerator);
+    if (sign != oSign)
+      return sign < oSign ? -1 : 1;
+    if (sign == 0)
+      return 0;
+    if (denominator == o.denominator || denominator.equals(o.denominator))
+      return numerator.compareTo(o.numerator);
+
+    // |a*d| has either a+d or a+d-1 bits, so if the lengths are far enough apart, so are the magnitudes.
+    long left = Magnitude.bitLength(numerator.magnitude()) + Magnitude.bitLength(o.denominator.magnitude());
+    long right = Magnitude.bitLength(o.numerator.magnitude()) + Magnitude.bitLength(denominator.magnitude());
+    if (left > right + 1)
+      return sign;
+    if (right > left + 1)
+      return -sign;
+    return ((Int) numerator.multiply(o.denominator)).compareTo(o.numerator.multiply(denominator));
+  }
+
+  public boolean equals(Object obj)
+  {
+    return obj instanceof Rational && equals((Value) obj);
+  }
+
+  public int hashCode()
+  {
+    // Equal fractions are only made of the same numbers once they're in lowest terms.
+    Rational l = lowest();
+    return l.numerator.hashCode() * 31 + l.denominator.hashCode();
+  }
+
+  public String toString()
+  {
+    Rational l = lowest();
+    if (l.denominator.equals(Int.ONE))
+      return l.numerator.toString();
+    return l.numerator.toString() + '/' + l.denominator.toString();
+  }
+
+  /**
+   * @return -1, 0 or 1 as the {@link com.hypereclipse.selkie.cas.Int} is negative, zero or positive.
+   * @since 1.2
+   */
+  private static int signum(Int value)
+  {
+    return value.isZero() ? 0 : value.isNegative() ? -1 : 1;
+  }
+
+  /**
+   * @return The number of limbs in the {@link com.hypereclipse.selkie.cas.Int}'s magnitude.
+   * @since 1.2
+   */
+  private static int length(Int value)
+  {
+    return value.magnitude().length;
+  }
+}
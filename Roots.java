@@ -0,0 +1,250 @@
+package com.hypereclipse.selkie.cas;
+
+import static com.hypereclipse.selkie.cas.Int.LONG_MASK;
+import static com.hypereclipse.selkie.cas.Magnitude.*;
+
+/**
+ * class Roots
+ *
+ * Integer roots of the magnitudes behind {@link com.hypereclipse.selkie.cas.Int}.
+ * Every array here is a little-endian array of unsigned 32-bit limbs, the same as {@link com.hypereclipse.selkie.cas.Int}'s own, and is never modified once passed in.
+ *
+ * The k-th root is found with Newton's method, doubling the precision each step: the root of the top half of the bits (found the same way)
+ * is correct to about half the bits of the whole root, and one Newton step from just above it, <code>x' = ((k-1)*x + n/x^(k-1)) / k</code>,
+ * makes it correct to within one or two. Once the root is short enough, the first estimate comes from floating-point arithmetic on the leading limbs instead.
+ * Each step costs a power, a division and a multiplication of the size of the root so far, so the work is dominated by the last one.
+ *
+ * @author Selkie (Stanley S.)
+ * @version 1.2
+ * @since 1.2
+ */
+final class Roots
+{
+  /**
+   * The most bits a root may have for its estimate to be taken straight from a <code>double</code>, which has 53 bits of precision.
+   *
+   * @since 1.2
+   */
+  private static final int DOUBLE_BITS = 40;
+  /**
+   * The magnitudes of one and two.
+   */
+  private static final int[] ONE = new int[]{1};
+  private static final int[] TWO = new int[]{2};
+
+  private Roots() {}
+
+
+
+  /**
+   * Finds the integer k-th root of a magnitude.
+   *
+   * @param n The magnitude.
+   * @param k Which root. Must be positive.
+   * @return A new, trimmed magnitude holding <code>floor(n^(1/k))</code>.
+   * @since 1.2
+   */
+  static int[] root(int[] n, int k)
+  {
+    n = trim(n);
+    if (k == 1 || n.length == 0)
+      return n;
+    long bits = bitLength(n);
+    // n < 2^bits <= 2^k, so the root is less than two.
+    if (bits <= k)
+      return ONE;
+
+    // The root is less than 2^h.
+    long h = (bits + k - 1) / k;
+    if (h <= DOUBLE_BITS)
+      return seed(n, k, bits);
+
+    // The root of the top bits, scaled back up, is below the root by less than 2^(m+1). Starting from above it,
+    // one Newton step leaves it above the root by about (k-1)/2 * (2^(m+2))^2 / 2^(h-1), which is at most one for this m.
+    int m = (int) ((h - 4 - (32 - Integer.numberOfLeadingZeros(k))) / 2);
+    int[] x = shiftLeft(add(root(shiftRight(n, m * k), k), TWO), m);
+    return correct(n, newtonStep(n, x, k), k);
+  }
+
+  /**
+   * Checks if a magnitude is a perfect power, <code>r^k</code> for some <code>k</code> of at least two.
+   *
+   * Only prime exponents need to be tried, since <code>r^(ab) = (r^a)^b</code>. Before taking each root, the candidate is checked against
+   * the number of trailing zero bits (which the exponent must divide), against its floating-point estimate if the root is short,
+   * and against the k-th power residues modulo two small primes, which rules out most of them in linear time.
+   *
+   * @param n The magnitude. Must be at least two.
+   * @param odd <code>true</code> if only odd exponents count, for negative numbers.
+   * @return <code>true</code> if it is a perfect power.
+   * @since 1.2
+   */
+  static boolean isPerfectPower(int[] n, boolean odd)
+  {
+    long bits = bitLength(n);
+    long zeros = lowestSetBit(n);
+    double log = log(n, bits);
+    // A root of at least two to the p-th power has more than p bits.
+    for (int p = odd ? 3 : 2; p < bits; p = p == 2 ? 3 : p + 2)
+    {
+      if (!isSmallPrime(p))
+        continue;
+      if (zeros > 0 && zeros % p != 0)
+        continue;
+      // Short roots are close enough to their floating-point estimate to tell if they could be whole, without touching the limbs.
+      // The log is off by a few units in its last place, which moves the estimate by about that much relative to its size.
+      if ((bits + p - 1) / p <= DOUBLE_BITS)
+      {
+        double estimate = Math.exp(log / p);
+        if (Math.abs(estimate - Math.rint(estimate)) > estimate * log * 0x1p-48 / p + 0x1p-20)
+          continue;
+      }
+      if (!isPowerResidue(n, p))
+        continue;
+      int[] r = root(n, p);
+      if (compare(pow(r, p), n) == 0)
+        return true;
+    }
+    return false;
+  }
+
+
+
+  /**
+   * Estimates the root from the leading 64 bits as a <code>double</code>, then steps it by one until it is exact.
+   *
+   * @since 1.2
+   */
+  private static int[] seed(int[] n, int k, long bits)
+  {
+    long estimate = (long) Math.exp(log(n, bits) / k);
+
+    int[] x = fromLong(estimate);
+    while (compare(pow(x, k), n) > 0)
+      x = subtract(x, ONE);
+    for (int[] next = add(x, ONE); compare(pow(next, k), n) <= 0; next = add(x, ONE))
+      x = next;
+    return x;
+  }
+
+  /**
+   * @return The natural log of a non-zero magnitude with the given number of bits, from its leading 64 bits.
+   * @since 1.2
+   */
+  private static double log(int[] n, long bits)
+  {
+    // n = top * 2^shift, with the top 64 bits (or all of them) in top.
+    int shift = (int) Math.max(bits - 64, 0);
+    int[] topLimbs = shiftRight(n, shift);
+    long top = (topLimbs[0] & LONG_MASK) | (topLimbs.length > 1 ? (long) topLimbs[1] << 32 : 0);
+    double topDouble = top < 0 ? (top >>> 1) * 2.0 : top;
+    return Math.log(topDouble) + shift * Math.log(2);
+  }
+
+  /**
+   * Takes one Newton step towards the k-th root of n, from x: <code>x' = floor(((k-1)*x + floor(n/x^(k-1))) / k)</code>.
+   * Whatever x it starts from, x' is never below the root, and if x was above the root, x' is less than x.
+   *
+   * @since 1.2
+   */
+  private static int[] newtonStep(int[] n, int[] x, int k)
+  {
+    int[] quotient = Division.divideAndRemainder(n, pow(x, k - 1))[0];
+    if (k == 2)
+      return shiftRight(add(x, quotient), 1);
+    int[] sum = add(Multiplication.multiply(x, new int[]{k - 1}), quotient);
+    return Division.divideAndRemainder(sum, new int[]{k})[0];
+  }
+
+  /**
+   * Brings an estimate that is no less than the k-th root of n down to exactly the root.
+   * The estimate is only expected to be off by one or two, so it is stepped down by one at a time, or by another Newton step if that doesn't get there quickly.
+   *
+   * @since 1.2
+   */
+  private static int[] correct(int[] n, int[] x, int k)
+  {
+    for (int tries = 0; ; tries++)
+    {
+      int[] power = pow(x, k);
+      if (compare(power, n) <= 0)
+        return x;
+      x = tries < 2 ? subtract(x, ONE) : newtonStep(n, x, k);
+    }
+  }
+
+  /**
+   * @return A new, trimmed magnitude holding <code>a^k</code>, found by repeated squaring.
+   * @since 1.2
+   */
+  private static int[] pow(int[] a, int k)
+  {
+    if (k == 1)
+      return a;
+    if (k == 2)
+      return Multiplication.square(a);
+    int[] half = pow(Multiplication.square(a), k >>> 1);
+    return (k & 1) == 0 ? half : Multiplication.multiply(half, a);
+  }
+
+  /**
+   * @return <code>value</code> as a new, trimmed magnitude. Must not be negative.
+   * @since 1.2
+   */
+  private static int[] fromLong(long value)
+  {
+    return trim(new int[]{(int) value, (int) (value >>> 32)});
+  }
+
+
+
+  /**
+   * Checks whether n is a p-th power modulo two small primes q of the form <code>2jp + 1</code>.
+   * By Euler's criterion, a number not divisible by q is a p-th power modulo q only when <code>n^((q-1)/p) = 1 (mod q)</code>, which holds for just one in every p numbers.
+   *
+   * @return <code>false</code> if n is certainly not a p-th power.
+   * @since 1.2
+   */
+  private static boolean isPowerResidue(int[] n, int p)
+  {
+    int found = 0;
+    for (long q = 2L * p + 1; found < 2 && q < Integer.MAX_VALUE; q += 2L * p)
+    {
+      if (!isSmallPrime(q))
+        continue;
+      found++;
+      long r = mod(n, q);
+      if (r != 0 && powMod(r, (q - 1) / p, q) != 1)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return <code>b^e mod q</code>, for q less than 2^31.
+   * @since 1.2
+   */
+  private static long powMod(long b, long e, long q)
+  {
+    long ret = 1;
+    for (b %= q; e > 0; e >>>= 1, b = b * b % q)
+      if ((e & 1) != 0)
+        ret = ret * b % q;
+    return ret;
+  }
+
+  /**
+   * @return <code>true</code> if n is prime, by trial division. Only meant for the small numbers used here.
+   * @since 1.2
+   */
+  private static boolean isSmallPrime(long n)
+  {
+    if (n < 4)
+      return n >= 2;
+    if ((n & 1) == 0)
+      return false;
+    for (long d = 3; d * d <= n; d += 2)
+      if (n % d == 0)
+        return false;
+    return true;
+  }
+}
@@ -14,7 +14,7 @@ public interface Value extends Comparable
   public Value add(Value other);
   public Value subtract(Value other);
   public Value multiply(Value other);
-  //public Value divide(Value other);
+  public Value divide(Value other);
   //public Value pow(Value other);
   public Int divideInteger(Value other);
   public Value mod(Value other);